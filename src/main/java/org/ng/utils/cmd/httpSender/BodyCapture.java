@@ -0,0 +1,149 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Captures a response body in memory up to the threshold, and in a temporary
+ * file beyond it, so very large bodies do not have to fit into the heap. The
+ * content can be read any number of times as {@link #slices()}: of the array,
+ * or of the file mapped into memory window by window. The temporary file is
+ * deleted on {@link #close()}.
+ */
+final class BodyCapture extends OutputStream {
+
+    static final int DEFAULT_THRESHOLD = 16 * 1024 * 1024;
+
+    private static final int STAGING_SIZE = 64 * 1024;
+    private static final int MAP_WINDOW = 64 * 1024 * 1024;
+
+    private final int threshold;
+    private byte[] buf = new byte[256];
+    private int count;
+    // set once the body is over the threshold
+    private FileChannel file;
+    private ByteBuffer staging;
+    private long size;
+
+    /**
+     * @param threshold max number of bytes kept in memory
+     */
+    BodyCapture(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (file == null) {
+            if (count + len <= threshold) {
+                if (count + len > buf.length) {
+                    buf = Arrays.copyOf(buf, Math.min(Math.max(buf.length * 2, count + len), threshold));
+                }
+                System.arraycopy(b, off, buf, count, len);
+                count += len;
+                size += len;
+                return;
+            }
+            spill();
+        }
+        size += len;
+        while (len > 0) {
+            int n = Math.min(len, staging.remaining());
+            staging.put(b, off, n);
+            off += n;
+            len -= n;
+            if (!staging.hasRemaining()) {
+                flushStaging();
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the body went over the threshold and was written to
+     *         a temporary file
+     */
+    boolean isSpilled() {
+        return file != null;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return content written so far, one slice of the array or consecutive
+     *         read-only mappings of the file of {@link #MAP_WINDOW} bytes
+     */
+    List<ByteSlice> slices() throws IOException {
+        if (file == null) {
+            return List.of(ByteSlice.wrap(buf, 0, count));
+        }
+        flushStaging();
+        List<ByteSlice> slices = new ArrayList<>();
+        for (long start = 0; start < size; start += MAP_WINDOW) {
+            long length = Math.min(MAP_WINDOW, size - start);
+            slices.add(ByteSlice.wrap(file.map(FileChannel.MapMode.READ_ONLY, start, length)));
+        }
+        return slices;
+    }
+
+    /**
+     * @return stream of the content written so far
+     */
+    InputStream openStream() throws IOException {
+        List<ByteSlice> slices = slices();
+        if (slices.size() == 1) {
+            return slices.get(0).openStream();
+        }
+        return new SequenceInputStream(
+                Collections.enumeration(slices.stream().map(ByteSlice::openStream).collect(Collectors.toList())));
+    }
+
+    @Override
+    public void close() throws IOException {
+        buf = null;
+        if (file != null) {
+            // the file is deleted on close
+            file.close();
+        }
+    }
+
+    private void spill() throws IOException {
+        Path path = Files.createTempFile("httpSender", ".body");
+        file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        staging = ByteBuffer.allocate(STAGING_SIZE);
+        ByteBuffer captured = ByteBuffer.wrap(buf, 0, count);
+        while (captured.hasRemaining()) {
+            file.write(captured);
+        }
+        buf = null;
+        count = 0;
+    }
+
+    private void flushStaging() throws IOException {
+        staging.flip();
+        while (staging.hasRemaining()) {
+            file.write(staging);
+        }
+        staging.clear();
+    }
+
+}
@@ -0,0 +1,119 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Objects;
+
+/**
+ * Read-only view of a range of bytes in an array or in a buffer (e.g. a file
+ * mapped into memory). Slices are passed between the stages processing a
+ * response instead of copying the bytes into a new array for every stage.
+ */
+final class ByteSlice {
+
+    // position is always 0 and limit is the length of the slice
+    private final ByteBuffer buffer;
+
+    private ByteSlice(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    static ByteSlice wrap(byte[] array) {
+        return wrap(array, 0, array.length);
+    }
+
+    static ByteSlice wrap(byte[] array, int offset, int length) {
+        return new ByteSlice(ByteBuffer.wrap(array, offset, length).slice());
+    }
+
+    /**
+     * @return slice of the buffer from its position to its limit, later changes
+     *         of the position and limit do not affect the slice
+     */
+    static ByteSlice wrap(ByteBuffer buffer) {
+        return new ByteSlice(buffer.slice());
+    }
+
+    int length() {
+        return buffer.limit();
+    }
+
+    byte get(int index) {
+        return buffer.get(index);
+    }
+
+    ByteSlice slice(int from, int to) {
+        Objects.checkFromToIndex(from, to, length());
+        ByteBuffer range = buffer.duplicate();
+        range.position(from).limit(to);
+        return new ByteSlice(range.slice());
+    }
+
+    String toString(Charset charset) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset(), length(), charset);
+        }
+        return charset.decode(buffer.duplicate()).toString();
+    }
+
+    /**
+     * Writes the bytes straight from the array, or through a small buffer if the
+     * slice is not backed by an array.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset(), length());
+            return;
+        }
+        ByteBuffer source = buffer.duplicate();
+        byte[] chunk = new byte[Math.min(source.remaining(), 8192)];
+        while (source.hasRemaining()) {
+            int n = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+        }
+    }
+
+    InputStream openStream() {
+        if (buffer.hasArray()) {
+            return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset(), length());
+        }
+        return new BufferInputStream(buffer.duplicate());
+    }
+
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+}
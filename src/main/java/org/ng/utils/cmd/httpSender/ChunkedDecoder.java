@@ -0,0 +1,196 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ng.utils.cmd.httpSender.Main.Header;
+
+/**
+ * Push-style decoder of the chunked transfer coding (RFC 7230, section 4.1).
+ * Encoded bytes are fed as they arrive from the socket, decoded body slices are
+ * written to the sink right away, so the encoded body is never held in memory.
+ * Chunk extensions and trailer fields are collected.
+ */
+final class ChunkedDecoder {
+
+    private enum State {
+        SIZE, EXTENSION, SIZE_LF, DATA, DATA_CR, DATA_LF, TRAILER, DONE
+    }
+
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private final OutputStream sink;
+
+    private State state = State.SIZE;
+    private long chunkSize;
+    private int chunkSizeDigits;
+    private long chunkRemaining;
+    private final StringBuilder line = new StringBuilder();
+
+    private final List<String> extensions = new ArrayList<>();
+    private final List<Header> trailers = new ArrayList<>();
+    private long decodedLength;
+
+    ChunkedDecoder(OutputStream sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * @return number of bytes consumed, less than {@code len} only if the last
+     *         chunk and trailers were read, and the rest of the bytes does not
+     *         belong to this body
+     */
+    int decode(byte[] b, int off, int len) throws IOException {
+        int pos = off;
+        int end = off + len;
+        while (pos < end && state != State.DONE) {
+            if (state == State.DATA) {
+                int toWrite = (int) Math.min(chunkRemaining, end - pos);
+                sink.write(b, pos, toWrite);
+                pos += toWrite;
+                chunkRemaining -= toWrite;
+                decodedLength += toWrite;
+                if (chunkRemaining == 0) {
+                    state = State.DATA_CR;
+                }
+            } else {
+                decodeControl((char) (b[pos] & 0xFF));
+                pos++;
+            }
+        }
+        return pos - off;
+    }
+
+    /**
+     * Should be called when there is no more input.
+     *
+     * @throws IllegalStateException if the last chunk was not received
+     */
+    void finish() {
+        if (state != State.DONE) {
+            throw new IllegalStateException("Chunked body is incomplete, last chunk not received");
+        }
+    }
+
+    boolean isDone() {
+        return state == State.DONE;
+    }
+
+    long getDecodedLength() {
+        return decodedLength;
+    }
+
+    List<String> getExtensions() {
+        return extensions;
+    }
+
+    List<Header> getTrailers() {
+        return trailers;
+    }
+
+    private void decodeControl(char c) {
+        switch (state) {
+            case SIZE: {
+                int digit = Character.digit(c, 16);
+                if (digit != -1) {
+                    if (chunkSize > (Long.MAX_VALUE >> 4)) {
+                        throw new IllegalStateException("Chunk size is too big");
+                    }
+                    chunkSize = (chunkSize << 4) + digit;
+                    chunkSizeDigits++;
+                } else if (c == ';') {
+                    state = State.EXTENSION;
+                } else if (c == '\r') {
+                    state = State.SIZE_LF;
+                } else if (c == '\n') {
+                    chunkSizeRead();
+                } else if (c != ' ' && c != '\t') {
+                    throw new IllegalStateException("Invalid character in chunk size: " + (int) c);
+                }
+            }
+                break;
+            case EXTENSION:
+                if (c == '\r' || c == '\n') {
+                    extensions.add(line.toString().trim());
+                    line.setLength(0);
+                    if (c == '\r') {
+                        state = State.SIZE_LF;
+                    } else {
+                        chunkSizeRead();
+                    }
+                } else {
+                    appendToLine(c);
+                }
+                break;
+            case SIZE_LF:
+                if (c != '\n') {
+                    throw new IllegalStateException("Chunked separator not found after chunk size");
+                }
+                chunkSizeRead();
+                break;
+            case DATA_CR:
+                if (c == '\r') {
+                    state = State.DATA_LF;
+                } else if (c == '\n') {
+                    state = State.SIZE;
+                } else {
+                    throw new IllegalStateException("Chunked separator not found after chunk data");
+                }
+                break;
+            case DATA_LF:
+                if (c != '\n') {
+                    throw new IllegalStateException("Chunked separator not found after chunk data");
+                }
+                state = State.SIZE;
+                break;
+            case TRAILER:
+                if (c == '\n') {
+                    trailerLineRead();
+                } else if (c != '\r') {
+                    appendToLine(c);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unexpected state " + state);
+        }
+    }
+
+    private void chunkSizeRead() {
+        if (chunkSizeDigits == 0) {
+            throw new IllegalStateException("Chunk size is missing");
+        }
+        if (chunkSize == 0) {
+            state = State.TRAILER;
+        } else {
+            chunkRemaining = chunkSize;
+            state = State.DATA;
+        }
+        chunkSize = 0;
+        chunkSizeDigits = 0;
+    }
+
+    private void trailerLineRead() {
+        if (line.length() == 0) {
+            state = State.DONE;
+            return;
+        }
+        int colonIdx = line.indexOf(":");
+        if (colonIdx != -1) {
+            Header header = new Header();
+            header.name = line.substring(0, colonIdx).trim();
+            header.value = line.substring(colonIdx + 1).trim();
+            trailers.add(header);
+        }
+        line.setLength(0);
+    }
+
+    private void appendToLine(char c) {
+        if (line.length() >= MAX_LINE_LENGTH) {
+            throw new IllegalStateException("Chunk extension or trailer line is too long");
+        }
+        line.append(c);
+    }
+
+}
@@ -0,0 +1,99 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.ng.utils.cmd.httpSender.Main.Header;
+
+/**
+ * Chain of streaming decoders for the response Content-Encoding. Codings are
+ * listed in the order they were applied, so they are decoded in reverse order,
+ * e.g. for "gzip, deflate" the body is undeflated first and then ungzipped.
+ * Decoding stops at the first unsupported coding from the end, the rest of the
+ * body is passed as is.
+ */
+final class ContentDecoding {
+
+    private static final Pattern PATTERN_COMMA = Pattern.compile(",", Pattern.LITERAL);
+
+    private final OutputStream input;
+    private final List<String> codings;
+    private final List<InflatingOutputStream> stages;
+
+    private ContentDecoding(OutputStream input, List<String> codings, List<InflatingOutputStream> stages) {
+        this.input = input;
+        this.codings = codings;
+        this.stages = stages;
+    }
+
+    static ContentDecoding create(List<Header> headers, OutputStream sink) {
+        List<String> applied = new ArrayList<>();
+        for (Header header : headers) {
+            if ("content-encoding".equalsIgnoreCase(header.name.trim())) {
+                for (String coding : PATTERN_COMMA.split(header.value)) {
+                    coding = coding.trim().toLowerCase();
+                    if (!coding.isEmpty() && !"identity".equals(coding)) {
+                        applied.add(coding);
+                    }
+                }
+            }
+        }
+
+        List<String> codings = new ArrayList<>();
+        for (int i = applied.size() - 1; i >= 0 && toFormat(applied.get(i)) != null; i--) {
+            codings.add(applied.get(i));
+        }
+
+        // the stage for the last decoded coding writes to the sink, the first one
+        // receives the body
+        List<InflatingOutputStream> stages = new ArrayList<>(codings.size());
+        OutputStream input = sink;
+        for (int i = codings.size() - 1; i >= 0; i--) {
+            InflatingOutputStream stage = new InflatingOutputStream(toFormat(codings.get(i)), input);
+            stages.add(0, stage);
+            input = stage;
+        }
+        return new ContentDecoding(input, Collections.unmodifiableList(codings), stages);
+    }
+
+    /**
+     * @return stream the encoded body should be written to
+     */
+    OutputStream getInput() {
+        return input;
+    }
+
+    /**
+     * @return codings being decoded, in the order of decoding
+     */
+    List<String> getCodings() {
+        return codings;
+    }
+
+    /**
+     * Checks that all the compressed streams are complete, should be called after
+     * the whole body was written.
+     */
+    void finish() throws IOException {
+        for (InflatingOutputStream stage : stages) {
+            stage.finish();
+        }
+    }
+
+    private static InflatingOutputStream.Format toFormat(String coding) {
+        switch (coding) {
+            case "gzip":
+            case "x-gzip":
+                return InflatingOutputStream.Format.GZIP;
+            case "deflate":
+                return InflatingOutputStream.Format.DEFLATE;
+            default:
+                return null;
+        }
+    }
+
+}
@@ -0,0 +1,367 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Control protocol of the distributed load: a coordinator hands the request
+ * and a share of the load to every worker process over a TCP connection,
+ * starts them together and merges their stats.
+ * <p>
+ * Messages are a type byte with a body written by {@link DataOutputStream}:
+ * <ol>
+ * <li>coordinator: JOB - version, token, arguments and the raw request
+ * text</li>
+ * <li>worker: READY once the job is set up and about to send, or FAILED -
+ * message</li>
+ * <li>coordinator: START, to all the workers as soon as all of them are
+ * ready</li>
+ * <li>worker: RESULT - stats of the load, or FAILED - message</li>
+ * </ol>
+ * Histograms are sent encoded with {@link LatencyHistogram#encode()}.
+ * <p>
+ * A worker runs the jobs of anyone who can reach it, so it refuses the job
+ * unless its token is the one the worker was started with, before reading the
+ * rest of it.
+ */
+final class DistributedLoad {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DistributedLoad.class);
+
+    static final int VERSION = 2;
+    static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    // for JOB, READY and START, while the workers set up their load
+    static final int HANDSHAKE_TIMEOUT_MILLIS = 30_000;
+    // for RESULT, on top of the scheduled duration of the job
+    static final int RESULT_TIMEOUT_MARGIN_MILLIS = 60_000;
+
+    // limits of what the peer may send, checked before allocating for it
+    static final int MAX_ARGS = 256;
+    static final int MAX_STRING_BYTES = 64 * 1024;
+    static final int MAX_REQUEST_BYTES = 16 * 1024 * 1024;
+    static final int MAX_HISTOGRAM_BYTES = 1024 * 1024;
+    static final int MAX_ENTRIES = 1024;
+
+    private static final byte JOB = 1;
+    private static final byte READY = 2;
+    private static final byte START = 3;
+    private static final byte RESULT = 4;
+    private static final byte FAILED = 5;
+
+    static final class Job {
+        final List<String> args;
+        final String request;
+        // not sent to the worker, bounds the wait for its result
+        final long durationNanos;
+
+        /**
+         * @param durationNanos scheduled duration of the load, or 0 if it runs
+         *                      until its requests are done
+         */
+        Job(List<String> args, String request, long durationNanos) {
+            this.args = args;
+            this.request = request;
+            this.durationNanos = durationNanos;
+        }
+    }
+
+    /**
+     * Runs jobs on a worker.
+     */
+    interface JobRunner {
+        /**
+         * @param start to be called when the load is set up, returns when all
+         *              the workers should start
+         * @return stats of the load
+         */
+        LoadRunner.Stats run(Job job, StartBarrier start) throws Exception;
+    }
+
+    interface StartBarrier {
+        void await() throws IOException;
+    }
+
+    /**
+     * Stats of one worker.
+     */
+    static final class WorkerStats {
+        final String worker;
+        final LoadRunner.Stats stats;
+
+        WorkerStats(String worker, LoadRunner.Stats stats) {
+            this.worker = worker;
+            this.stats = stats;
+        }
+    }
+
+    private DistributedLoad() {
+    }
+
+    /**
+     * Sends the jobs to the workers, one job each, starts them at once when
+     * they are all ready and waits for their stats.
+     *
+     * @throws IOException if a worker can't be reached or fails the job
+     */
+    static List<WorkerStats> coordinate(List<InetSocketAddress> workers, String token, List<Job> jobs)
+            throws IOException {
+        List<Socket> sockets = new ArrayList<>(workers.size());
+        try {
+            List<DataOutputStream> outs = new ArrayList<>(workers.size());
+            List<DataInputStream> ins = new ArrayList<>(workers.size());
+            for (int i = 0; i < workers.size(); i++) {
+                Socket socket = new Socket();
+                sockets.add(socket);
+                socket.connect(workers.get(i), CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                outs.add(out);
+                ins.add(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+                writeJob(out, token, jobs.get(i));
+                out.flush();
+            }
+            for (int i = 0; i < workers.size(); i++) {
+                expect(ins.get(i), READY, workers.get(i));
+            }
+            // workers set up their connection pools, TLS contexts and feeders first, so they start together
+            for (DataOutputStream out : outs) {
+                out.writeByte(START);
+                out.flush();
+            }
+            List<WorkerStats> results = new ArrayList<>(workers.size());
+            for (int i = 0; i < workers.size(); i++) {
+                sockets.get(i).setSoTimeout(resultTimeoutMillis(jobs.get(i)));
+                expect(ins.get(i), RESULT, workers.get(i));
+                results.add(new WorkerStats(toString(workers.get(i)), readStats(ins.get(i))));
+            }
+            return results;
+        } finally {
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // noop
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the jobs of the coordinators that connect to the server, one after
+     * another, until the server socket is closed.
+     *
+     * @param token the jobs should come with, others are refused
+     */
+    static void serve(ServerSocket server, String token, JobRunner runner) throws IOException {
+        for (;;) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (SocketException e) {
+                if (server.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            try (socket) {
+                socket.setTcpNoDelay(true);
+                // the worker only reads until the load starts
+                socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                handle(in, out, token, runner);
+            } catch (Exception e) {
+                LOG.error("Failed running job from " + socket.getRemoteSocketAddress(), e);
+            }
+        }
+    }
+
+    private static void handle(DataInputStream in, DataOutputStream out, String token, JobRunner runner)
+            throws IOException {
+        if (in.readByte() != JOB) {
+            throw new IOException("Job expected");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            fail(out, "Protocol version " + version + " is not supported, worker has " + VERSION);
+            return;
+        }
+        // compared in constant time, not to give away how much of it matched
+        if (!MessageDigest.isEqual(readString(in, MAX_STRING_BYTES).getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8))) {
+            fail(out, "Wrong token");
+            throw new IOException("Job with a wrong token refused");
+        }
+        int argCount = readCount(in, MAX_ARGS);
+        List<String> args = new ArrayList<>(argCount);
+        for (int i = 0; i < argCount; i++) {
+            args.add(readString(in, MAX_STRING_BYTES));
+        }
+        Job job = new Job(args, readString(in, MAX_REQUEST_BYTES), 0);
+        LoadRunner.Stats stats;
+        try {
+            stats = runner.run(job, () -> {
+                out.writeByte(READY);
+                out.flush();
+                if (in.readByte() != START) {
+                    throw new IOException("Start expected");
+                }
+            });
+        } catch (Exception e) {
+            fail(out, e.toString());
+            throw new IOException("Job failed", e);
+        }
+        out.writeByte(RESULT);
+        writeStats(out, stats);
+        out.flush();
+    }
+
+    private static void writeJob(DataOutputStream out, String token, Job job) throws IOException {
+        out.writeByte(JOB);
+        out.writeInt(VERSION);
+        writeString(out, token);
+        out.writeInt(job.args.size());
+        for (String arg : job.args) {
+            writeString(out, arg);
+        }
+        writeString(out, job.request);
+    }
+
+    /**
+     * @return read timeout for the result of the job, 0 for none if the load
+     *         runs until its requests are done, as long as that takes; a lost
+     *         worker is still noticed by TCP keep-alive then
+     */
+    private static int resultTimeoutMillis(Job job) {
+        if (job.durationNanos == 0) {
+            return 0;
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(job.durationNanos) + RESULT_TIMEOUT_MARGIN_MILLIS;
+        return (int) Math.min(millis, Integer.MAX_VALUE);
+    }
+
+    private static void expect(DataInputStream in, byte type, InetSocketAddress worker) throws IOException {
+        byte received = in.readByte();
+        if (received == FAILED) {
+            throw new IOException("Worker " + toString(worker) + " failed: " + readString(in, MAX_STRING_BYTES));
+        }
+        if (received != type) {
+            throw new IOException("Unexpected message " + received + " from worker " + toString(worker));
+        }
+    }
+
+    private static void fail(DataOutputStream out, String message) throws IOException {
+        out.writeByte(FAILED);
+        writeString(out, message);
+        out.flush();
+    }
+
+    static void writeStats(DataOutputStream out, LoadRunner.Stats stats) throws IOException {
+        out.writeLong(stats.requests);
+        out.writeLong(stats.bytesOut);
+        out.writeLong(stats.bytesIn);
+        out.writeLong(stats.durationNanos);
+        out.writeLong(stats.tlsFull);
+        out.writeLong(stats.tlsFullNanos);
+        out.writeLong(stats.tlsResumed);
+        out.writeLong(stats.tlsResumedNanos);
+        out.writeLong(stats.connections);
+        out.writeInt(stats.peakConnections);
+        out.writeLong(stats.late);
+        writeString(out, stats.latency.encode());
+        writeString(out, stats.serviceTime.encode());
+        writeString(out, stats.startLag.encode());
+        out.writeInt(stats.latencyByAddress.size());
+        for (Map.Entry<String, LatencyHistogram> entry : stats.latencyByAddress.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue().encode());
+        }
+        out.writeInt(stats.errors.size());
+        for (Map.Entry<String, Long> entry : stats.errors.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+        out.writeInt(stats.statusCodes.size());
+        for (Map.Entry<Integer, Long> entry : stats.statusCodes.entrySet()) {
+            out.writeInt(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    static LoadRunner.Stats readStats(DataInputStream in) throws IOException {
+        LoadRunner.Stats stats = new LoadRunner.Stats();
+        stats.requests = in.readLong();
+        stats.bytesOut = in.readLong();
+        stats.bytesIn = in.readLong();
+        stats.durationNanos = in.readLong();
+        stats.tlsFull = in.readLong();
+        stats.tlsFullNanos = in.readLong();
+        stats.tlsResumed = in.readLong();
+        stats.tlsResumedNanos = in.readLong();
+        stats.connections = in.readLong();
+        stats.peakConnections = in.readInt();
+        stats.late = in.readLong();
+        stats.latency.add(readHistogram(in));
+        stats.serviceTime.add(readHistogram(in));
+        stats.startLag.add(readHistogram(in));
+        for (int i = readCount(in, MAX_ENTRIES); i > 0; i--) {
+            stats.latencyByAddress.put(readString(in, MAX_STRING_BYTES), readHistogram(in));
+        }
+        for (int i = readCount(in, MAX_ENTRIES); i > 0; i--) {
+            stats.errors.put(readString(in, MAX_STRING_BYTES), in.readLong());
+        }
+        for (int i = readCount(in, MAX_ENTRIES); i > 0; i--) {
+            stats.statusCodes.put(in.readInt(), in.readLong());
+        }
+        return stats;
+    }
+
+    // not writeUTF(), as histograms and requests may be over 64K
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, int maxBytes) throws IOException {
+        byte[] bytes = new byte[readCount(in, maxBytes)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static LatencyHistogram readHistogram(DataInputStream in) throws IOException {
+        return LatencyHistogram.decode(readString(in, MAX_HISTOGRAM_BYTES));
+    }
+
+    // an OutOfMemoryError of a bogus length wouldn't be caught as a failed job
+    private static int readCount(DataInputStream in, int max) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > max) {
+            throw new IOException("Length " + count + " is out of range 0.." + max);
+        }
+        return count;
+    }
+
+    private static String toString(InetSocketAddress worker) {
+        return worker.getHostString() + ":" + worker.getPort();
+    }
+
+}
@@ -0,0 +1,20 @@
+package org.ng.utils.cmd.httpSender;
+
+/**
+ * Outcome of a single request/response exchange, as seen by the load mode.
+ */
+final class ExchangeResult {
+
+    int statusCode = -1;
+    long bytesOut;
+    long bytesIn;
+    /**
+     * Latency measured by the sender itself (e.g. for pipelined requests), -1 if
+     * the whole exchange time should be used.
+     */
+    long latencyNanos = -1;
+    PhaseTimings timings;
+    /** IP address the request was sent to, null if not known */
+    String address;
+
+}
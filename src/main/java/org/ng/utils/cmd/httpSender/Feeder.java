@@ -0,0 +1,123 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+
+/**
+ * Rows of values for the request templates, loaded in memory from a CSV file
+ * (the first line names the columns) or from JSON lines (*.jsonl, *.ndjson,
+ * the keys of the first object name the columns). Values are encoded to bytes
+ * once, request N gets row N - 1, wrapping around at the end of the file.
+ */
+final class Feeder {
+
+    private final List<String> columns;
+    private final byte[][][] rows;
+
+    private Feeder(List<String> columns, byte[][][] rows) {
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    /**
+     * @param charset charset the values are encoded with, the same as of the
+     *                request text
+     */
+    static Feeder load(Path file, Charset charset) throws IOException {
+        String fileName = file.getFileName().toString();
+        boolean jsonLines = fileName.endsWith(".jsonl") || fileName.endsWith(".ndjson");
+        List<String> columns = null;
+        List<byte[][]> rows = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            for (String line; (line = in.readLine()) != null;) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (jsonLines) {
+                    JSONObject json = new JSONObject(line);
+                    if (columns == null) {
+                        columns = new ArrayList<>(json.keySet());
+                    }
+                    byte[][] row = new byte[columns.size()][];
+                    for (int i = 0; i < row.length; i++) {
+                        Object value = json.opt(columns.get(i));
+                        row[i] = (value == null || value == JSONObject.NULL ? "" : value.toString()).getBytes(charset);
+                    }
+                    rows.add(row);
+                } else if (columns == null) {
+                    columns = parseCsvLine(line);
+                } else {
+                    List<String> values = parseCsvLine(line);
+                    byte[][] row = new byte[columns.size()][];
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = (i < values.size() ? values.get(i) : "").getBytes(charset);
+                    }
+                    rows.add(row);
+                }
+            }
+        }
+        if (rows.isEmpty()) {
+            throw new IllegalArgumentException("No rows found in feeder " + file);
+        }
+        return new Feeder(columns, rows.toArray(new byte[0][][]));
+    }
+
+    /**
+     * @return index of the column, -1 if there is no such column
+     */
+    int columnIndex(String name) {
+        return columns.indexOf(name);
+    }
+
+    int size() {
+        return rows.length;
+    }
+
+    /**
+     * @param seq number of the request, from 1
+     */
+    byte[] value(long seq, int column) {
+        return rows[(int) Math.floorMod(seq - 1, (long) rows.length)][column];
+    }
+
+    /**
+     * Splits a CSV line by commas; values may be quoted with '"', with '""'
+     * for a quote inside. Quoted values can't span lines.
+     */
+    static List<String> parseCsvLine(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    value.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+}
@@ -1,63 +1,458 @@
 package org.ng.utils.cmd.httpSender;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.util.regex.Pattern;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
-
-import org.json.JSONArray;
-import org.json.JSONObject;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 public final class FormatterUtils {
 
-    public static String formatJSON(String json) {
-        if (json.charAt(0) == '[') {
-            JSONArray arr = new JSONArray(json);
-            return arr.toString(2);
+    private static final String REPORT_CDATA_PROPERTY = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXMLInputFactory();
+
+    public static String formatJSON(String json) throws IOException {
+        StringWriter writer = new StringWriter();
+        formatJSON(new StringReader(json), writer);
+        return writer.toString();
+    }
+
+    /**
+     * Re-indents JSON token by token, straight from the reader to the writer, so
+     * no tree is built and memory use does not depend on the document size. Key
+     * order is kept, top-level scalars are accepted.
+     *
+     * @throws IllegalArgumentException if the text is not valid JSON, part of the
+     *                                  output is written already in this case
+     */
+    public static void formatJSON(Reader in, Writer out) throws IOException {
+        new JsonFormatter(in, out).format();
+    }
+
+    public static String formatXML(String xml) throws IOException, XMLStreamException {
+        StringWriter writer = new StringWriter();
+        formatXML(new StringReader(xml), writer);
+        return writer.toString();
+    }
+
+    /**
+     * Re-indents XML with 4 spaces while pulling it from the reader, whitespace
+     * between tags is dropped, elements with text only are kept on one line. Only
+     * the current text node is held in memory.
+     *
+     * @throws XMLStreamException at the first malformed token, part of the output
+     *                            is written already in this case
+     */
+    public static void formatXML(Reader in, Writer out) throws IOException, XMLStreamException {
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            new XmlFormatter(reader, out).format();
+        } finally {
+            reader.close();
         }
-        JSONObject obj = new JSONObject(json);
-        return obj.toString(2);
     }
 
-    public static String formatXML(String xml) throws Exception {
-        DocumentBuilder db = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-        Document doc = db.parse(new InputSource(new StringReader(xml)));
+    private static final class JsonFormatter {
 
-        XPathFactory xpathFactory = XPathFactory.newInstance();
-        // XPath to find empty text nodes.
-        XPathExpression xpathExp = xpathFactory.newXPath().compile("//text()[normalize-space(.) = '']");
-        NodeList emptyTextNodes = (NodeList) xpathExp.evaluate(doc, XPathConstants.NODESET);
-        // Remove each empty text node from document.
-        for (int i = 0; i < emptyTextNodes.getLength(); i++) {
-            Node emptyTextNode = emptyTextNodes.item(i);
-            emptyTextNode.getParentNode().removeChild(emptyTextNode);
+        private enum Expect {
+            VALUE, KEY, COLON, COMMA_OR_CLOSE, END
         }
 
-        Transformer transformer = TransformerFactory.newInstance().newTransformer();
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
-        transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
-        transformer.setOutputProperty(OutputKeys.DOCTYPE_PUBLIC, "yes");
+        private static final String INDENT = "  ";
+        private static final Pattern PATTERN_NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
 
-        DOMSource source = new DOMSource(doc);
-        StringWriter writer = new StringWriter();
-        StreamResult result = new StreamResult(writer);
-        transformer.transform(source, result);
-        return writer.getBuffer().toString();
+        private final Reader in;
+        private final Writer out;
+        private final char[] buf = new char[8192];
+        private int pos;
+        private int limit;
+        private long position;
+
+        // open containers, '{' or '['
+        private final StringBuilder stack = new StringBuilder();
+        private boolean justOpened;
+        private final StringBuilder literal = new StringBuilder();
+
+        private JsonFormatter(Reader in, Writer out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        void format() throws IOException {
+            Expect expect = Expect.VALUE;
+            for (int c; (c = nextNonWhitespace()) != -1;) {
+                switch (expect) {
+                    case KEY:
+                    case VALUE:
+                        if (justOpened) {
+                            justOpened = false;
+                            if (c == closing()) {
+                                stack.setLength(stack.length() - 1);
+                                out.write(c);
+                                expect = afterValue();
+                                break;
+                            }
+                            newLine();
+                        }
+                        if (expect == Expect.KEY) {
+                            if (c != '"') {
+                                throw unexpected(c);
+                            }
+                            copyString();
+                            expect = Expect.COLON;
+                        } else {
+                            expect = value(c);
+                        }
+                        break;
+                    case COLON:
+                        if (c != ':') {
+                            throw unexpected(c);
+                        }
+                        out.write(": ");
+                        expect = Expect.VALUE;
+                        break;
+                    case COMMA_OR_CLOSE:
+                        if (c == ',') {
+                            out.write(',');
+                            newLine();
+                            expect = stack.charAt(stack.length() - 1) == '{' ? Expect.KEY : Expect.VALUE;
+                        } else if (c == closing()) {
+                            stack.setLength(stack.length() - 1);
+                            newLine();
+                            out.write(c);
+                            expect = afterValue();
+                        } else {
+                            throw unexpected(c);
+                        }
+                        break;
+                    case END:
+                        throw unexpected(c);
+                }
+            }
+            if (expect != Expect.END) {
+                throw new IllegalArgumentException("Unexpected end of JSON at position " + position);
+            }
+            out.flush();
+        }
+
+        private Expect value(int c) throws IOException {
+            if (c == '{' || c == '[') {
+                out.write(c);
+                stack.append((char) c);
+                justOpened = true;
+                return c == '{' ? Expect.KEY : Expect.VALUE;
+            }
+            if (c == '"') {
+                copyString();
+            } else {
+                copyLiteral(c);
+            }
+            return afterValue();
+        }
+
+        private Expect afterValue() {
+            return stack.length() == 0 ? Expect.END : Expect.COMMA_OR_CLOSE;
+        }
+
+        private int closing() {
+            return stack.charAt(stack.length() - 1) == '{' ? '}' : ']';
+        }
+
+        private void newLine() throws IOException {
+            out.write('\n');
+            for (int i = 0; i < stack.length(); i++) {
+                out.write(INDENT);
+            }
+        }
+
+        /**
+         * Copies the string as is, escapes included, opening quote is already read.
+         */
+        private void copyString() throws IOException {
+            out.write('"');
+            boolean escaped = false;
+            for (;;) {
+                if (pos == limit && !fill()) {
+                    throw new IllegalArgumentException("Unterminated string at position " + position);
+                }
+                int start = pos;
+                while (pos < limit) {
+                    char c = buf[pos++];
+                    if (escaped) {
+                        escaped = false;
+                    } else if (c == '\\') {
+                        escaped = true;
+                    } else if (c == '"') {
+                        out.write(buf, start, pos - start);
+                        position += pos - start;
+                        return;
+                    }
+                }
+                out.write(buf, start, pos - start);
+                position += pos - start;
+            }
+        }
+
+        private void copyLiteral(int first) throws IOException {
+            literal.setLength(0);
+            literal.append((char) first);
+            for (;;) {
+                if (pos == limit && !fill()) {
+                    break;
+                }
+                char c = buf[pos];
+                if (!Character.isLetterOrDigit(c) && c != '-' && c != '+' && c != '.') {
+                    break;
+                }
+                literal.append(c);
+                pos++;
+                position++;
+            }
+            String token = literal.toString();
+            if (!"true".equals(token) && !"false".equals(token) && !"null".equals(token)
+                    && !PATTERN_NUMBER.matcher(token).matches()) {
+                throw new IllegalArgumentException(
+                        "Invalid literal '" + token + "' at position " + (position - token.length()));
+            }
+            out.write(token);
+        }
+
+        private int nextNonWhitespace() throws IOException {
+            for (;;) {
+                if (pos == limit && !fill()) {
+                    return -1;
+                }
+                char c = buf[pos++];
+                position++;
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    return c;
+                }
+            }
+        }
+
+        private boolean fill() throws IOException {
+            int n = in.read(buf);
+            if (n <= 0) {
+                return false;
+            }
+            pos = 0;
+            limit = n;
+            return true;
+        }
+
+        private IllegalArgumentException unexpected(int c) {
+            return new IllegalArgumentException("Unexpected character '" + (char) c + "' at position " + (position - 1));
+        }
+
+    }
+
+    private static final class XmlFormatter {
+
+        private static final String INDENT = "    ";
+
+        private final XMLStreamReader reader;
+        private final Writer out;
+
+        private int depth;
+        // start tag is written without closing '>', as it may become an empty
+        // element tag
+        private boolean startTagOpen;
+        // no child nodes written since the current element start
+        private boolean leaf;
+        private final StringBuilder text = new StringBuilder();
+
+        private XmlFormatter(XMLStreamReader reader, Writer out) {
+            this.reader = reader;
+            this.out = out;
+        }
+
+        void format() throws IOException, XMLStreamException {
+            out.write("<?xml version=\"");
+            out.write(reader.getVersion() == null ? "1.0" : reader.getVersion());
+            out.write("\" encoding=\"UTF-8\" standalone=\"");
+            out.write(reader.standaloneSet() && reader.isStandalone() ? "yes" : "no");
+            out.write("\"?>");
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        startElement();
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        endElement();
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        childNode("<![CDATA[", reader.getText(), "]]>");
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        childNode("<!--", reader.getText(), "-->");
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        childNode("<?", reader.getPITarget() + " " + reader.getPIData(), "?>");
+                        break;
+                    case XMLStreamConstants.DTD:
+                        childNode("", reader.getText(), "");
+                        break;
+                    case XMLStreamConstants.END_DOCUMENT:
+                        out.write('\n');
+                        break;
+                }
+            }
+            out.flush();
+        }
+
+        private void startElement() throws IOException {
+            childNode("", null, "");
+            out.write('<');
+            writeName(reader.getPrefix(), reader.getLocalName());
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                String prefix = reader.getNamespacePrefix(i);
+                out.write(prefix == null || prefix.isEmpty() ? " xmlns" : " xmlns:" + prefix);
+                writeAttributeValue(reader.getNamespaceURI(i));
+            }
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                out.write(' ');
+                writeName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i));
+                writeAttributeValue(reader.getAttributeValue(i));
+            }
+            startTagOpen = true;
+            leaf = true;
+            depth++;
+        }
+
+        private void endElement() throws IOException {
+            depth--;
+            if (leaf) {
+                if (isBlank(text)) {
+                    out.write("/>");
+                } else {
+                    out.write('>');
+                    writeEscaped(text, false);
+                    writeEndTag();
+                }
+                text.setLength(0);
+            } else {
+                flushText();
+                newLine();
+                writeEndTag();
+            }
+            startTagOpen = false;
+            leaf = false;
+        }
+
+        /**
+         * Writes a node on its own line, text collected before it is written on its
+         * own line as well (mixed content).
+         */
+        private void childNode(String prefix, String value, String suffix) throws IOException {
+            flushText();
+            closeStartTag();
+            leaf = false;
+            newLine();
+            out.write(prefix);
+            if (value != null) {
+                out.write(value);
+            }
+            out.write(suffix);
+        }
+
+        private void flushText() throws IOException {
+            if (!isBlank(text)) {
+                closeStartTag();
+                newLine();
+                writeEscaped(text.toString().trim(), false);
+                leaf = false;
+            }
+            text.setLength(0);
+        }
+
+        private void closeStartTag() throws IOException {
+            if (startTagOpen) {
+                out.write('>');
+                startTagOpen = false;
+            }
+        }
+
+        private void writeEndTag() throws IOException {
+            out.write("</");
+            writeName(reader.getPrefix(), reader.getLocalName());
+            out.write('>');
+        }
+
+        private void writeName(String prefix, String localName) throws IOException {
+            if (prefix != null && !prefix.isEmpty()) {
+                out.write(prefix);
+                out.write(':');
+            }
+            out.write(localName);
+        }
+
+        private void writeAttributeValue(String value) throws IOException {
+            out.write("=\"");
+            writeEscaped(value == null ? "" : value, true);
+            out.write('"');
+        }
+
+        private void writeEscaped(CharSequence value, boolean attribute) throws IOException {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '&':
+                        out.write("&amp;");
+                        break;
+                    case '<':
+                        out.write("&lt;");
+                        break;
+                    case '>':
+                        out.write("&gt;");
+                        break;
+                    case '"':
+                        out.write(attribute ? "&quot;" : "\"");
+                        break;
+                    default:
+                        out.write(c);
+                }
+            }
+        }
+
+        private void newLine() throws IOException {
+            out.write('\n');
+            for (int i = 0; i < depth; i++) {
+                out.write(INDENT);
+            }
+        }
+
+        private static boolean isBlank(CharSequence value) {
+            for (int i = 0; i < value.length(); i++) {
+                if (!Character.isWhitespace(value.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+    private static XMLInputFactory createXMLInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // response is only reformatted, no need to resolve anything
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        // JDK parser reports CDATA sections as plain characters unless asked
+        if (factory.isPropertySupported(REPORT_CDATA_PROPERTY)) {
+            factory.setProperty(REPORT_CDATA_PROPERTY, true);
+        }
+        return factory;
     }
 
     private FormatterUtils() {
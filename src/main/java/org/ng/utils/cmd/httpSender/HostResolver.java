@@ -0,0 +1,290 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves host names to all their addresses, caching them for the configured
+ * TTL, and opens TCP connections to them. If a host has several addresses the
+ * connection attempts are raced Happy Eyeballs style (RFC 8305): families are
+ * interleaved, the next address is tried when the previous attempt fails or
+ * does not complete within {@link #ATTEMPT_DELAY_MILLIS}, and the first
+ * connected socket wins. In spread mode new connections go to the addresses in
+ * turn instead, to load every backend behind a round-robin DNS name.
+ * <p>
+ * Connections are opened as plain sockets, or as blocking socket channels for
+ * zero-copy writes. Streams of a channel's socket adaptor serialize reads and
+ * writes, so a channel should be read and written through the channel itself.
+ */
+final class HostResolver {
+
+    interface Lookup {
+        InetAddress[] lookup(String host) throws UnknownHostException;
+    }
+
+    /**
+     * Opens a connection unconnected, so an attempt that lost the race can be
+     * closed while it's still connecting.
+     */
+    private interface Connector<T extends Closeable> {
+        T open() throws IOException;
+
+        void connect(T connection, InetSocketAddress address) throws IOException;
+    }
+
+    private static final Connector<Socket> SOCKETS = new Connector<>() {
+        @Override
+        public Socket open() {
+            return new Socket();
+        }
+
+        @Override
+        public void connect(Socket socket, InetSocketAddress address) throws IOException {
+            socket.connect(address);
+        }
+    };
+
+    private static final Connector<SocketChannel> CHANNELS = new Connector<>() {
+        @Override
+        public SocketChannel open() throws IOException {
+            return SocketChannel.open();
+        }
+
+        @Override
+        public void connect(SocketChannel channel, InetSocketAddress address) throws IOException {
+            channel.connect(address);
+        }
+    };
+
+    private static final class Attempt<T> {
+        final T connection;
+        final IOException failure;
+
+        Attempt(T connection, IOException failure) {
+            this.connection = connection;
+            this.failure = failure;
+        }
+    }
+
+    static final long DEFAULT_TTL_SECONDS = 60;
+    static final long ATTEMPT_DELAY_MILLIS = 250;
+
+    // threads of the raced attempts, reused by the next connections instead of started for every one
+    private static final ExecutorService ATTEMPT_THREADS = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "connect-attempt");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final class Entry {
+        final InetAddress[] addresses;
+        final long expires;
+        // next address for spread mode, kept when the entry is refreshed
+        final AtomicInteger next;
+
+        Entry(InetAddress[] addresses, long expires, AtomicInteger next) {
+            this.addresses = addresses;
+            this.expires = expires;
+            this.next = next;
+        }
+    }
+
+    private final long ttlNanos;
+    private final boolean spread;
+    private final Lookup lookup;
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    /**
+     * @param ttlSeconds how long resolved addresses are used, 0 to resolve for
+     *                   every connection
+     * @param spread     connect to the addresses in turn instead of racing them
+     */
+    HostResolver(long ttlSeconds, boolean spread) {
+        this(ttlSeconds, spread, InetAddress::getAllByName);
+    }
+
+    HostResolver(long ttlSeconds, boolean spread, Lookup lookup) {
+        if (ttlSeconds < 0) {
+            throw new IllegalArgumentException("TTL can't be negative: " + ttlSeconds);
+        }
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.spread = spread;
+        this.lookup = lookup;
+    }
+
+    /**
+     * @return addresses of the host in the order connections are attempted
+     */
+    InetAddress[] resolve(String host) throws UnknownHostException {
+        return getEntry(host).addresses;
+    }
+
+    /**
+     * Opens a connection to the host, recording DNS and connect timings.
+     */
+    Socket connect(String host, int port, PhaseTimings timings) throws IOException {
+        return connect(host, port, timings, SOCKETS);
+    }
+
+    /**
+     * Opens a blocking channel to the host, recording DNS and connect timings.
+     */
+    SocketChannel connectChannel(String host, int port, PhaseTimings timings) throws IOException {
+        return connect(host, port, timings, CHANNELS);
+    }
+
+    /**
+     * @return address for a new connection that is not raced: the next one in
+     *         spread mode, the first one otherwise
+     */
+    InetAddress pick(String host) throws UnknownHostException {
+        Entry entry = getEntry(host);
+        InetAddress[] addresses = entry.addresses;
+        return spread ? addresses[Math.floorMod(entry.next.getAndIncrement(), addresses.length)] : addresses[0];
+    }
+
+    private <T extends Closeable> T connect(String host, int port, PhaseTimings timings, Connector<T> connector)
+            throws IOException {
+        Entry entry = getEntry(host);
+        timings.dnsDone = System.nanoTime();
+        InetAddress[] addresses = entry.addresses;
+        T connection;
+        if (addresses.length == 1 || spread) {
+            connection = connector.open();
+            try {
+                InetAddress address = addresses[Math.floorMod(entry.next.getAndIncrement(), addresses.length)];
+                connector.connect(connection, new InetSocketAddress(address, port));
+            } catch (IOException e) {
+                connection.close();
+                throw e;
+            }
+        } else {
+            connection = race(addresses, port, connector);
+        }
+        timings.connectDone = System.nanoTime();
+        return connection;
+    }
+
+    private Entry getEntry(String host) throws UnknownHostException {
+        long now = System.nanoTime();
+        Entry entry = cache.get(host);
+        if (entry != null && now - entry.expires < 0) {
+            return entry;
+        }
+        // concurrent lookups of the same host are harmless, the last one is kept
+        InetAddress[] addresses = interleave(lookup.lookup(host));
+        Entry refreshed = new Entry(addresses, now + ttlNanos, entry == null ? new AtomicInteger() : entry.next);
+        cache.put(host, refreshed);
+        return refreshed;
+    }
+
+    /**
+     * Orders addresses alternating IPv6 and IPv4, starting with the family of
+     * the first address (RFC 8305 section 4).
+     */
+    static InetAddress[] interleave(InetAddress[] addresses) {
+        if (addresses.length < 2) {
+            return addresses;
+        }
+        boolean firstIpv6 = addresses[0] instanceof Inet6Address;
+        List<InetAddress> first = new ArrayList<>();
+        List<InetAddress> second = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            (address instanceof Inet6Address == firstIpv6 ? first : second).add(address);
+        }
+        InetAddress[] result = new InetAddress[addresses.length];
+        int i = 0;
+        for (int j = 0; j < first.size() || j < second.size(); j++) {
+            if (j < first.size()) {
+                result[i++] = first.get(j);
+            }
+            if (j < second.size()) {
+                result[i++] = second.get(j);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Every attempt connects on a thread of the shared pool, attempts that lost
+     * are closed, which aborts the ones still connecting.
+     */
+    private static <T extends Closeable> T race(InetAddress[] addresses, int port, Connector<T> connector)
+            throws IOException {
+        List<T> attempts = new ArrayList<>(addresses.length);
+        BlockingQueue<Attempt<T>> completed = new LinkedBlockingQueue<>();
+        T winner = null;
+        IOException failure = null;
+        try {
+            int next = 0;
+            int pending = 0;
+            while (winner == null) {
+                if (next < addresses.length) {
+                    T connection = connector.open();
+                    attempts.add(connection);
+                    InetSocketAddress address = new InetSocketAddress(addresses[next++], port);
+                    ATTEMPT_THREADS.execute(() -> {
+                        try {
+                            connector.connect(connection, address);
+                            completed.add(new Attempt<>(connection, null));
+                        } catch (IOException e) {
+                            completed.add(new Attempt<>(connection, e));
+                        }
+                    });
+                    pending++;
+                }
+                // no need to wait for the delay after a failure, the next address is tried right away
+                Attempt<T> attempt = next < addresses.length
+                        ? completed.poll(ATTEMPT_DELAY_MILLIS, TimeUnit.MILLISECONDS)
+                        : completed.take();
+                for (; attempt != null && winner == null; attempt = completed.poll()) {
+                    pending--;
+                    if (attempt.failure == null) {
+                        winner = attempt.connection;
+                    } else {
+                        failure = addFailure(failure, attempt.failure);
+                    }
+                }
+                if (winner == null && pending == 0 && next == addresses.length) {
+                    throw failure;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting");
+        } finally {
+            for (T connection : attempts) {
+                if (connection != winner) {
+                    connection.close();
+                }
+            }
+        }
+        return winner;
+    }
+
+    private static IOException addFailure(IOException failure, IOException e) {
+        if (failure == null) {
+            return e;
+        }
+        failure.addSuppressed(e);
+        return failure;
+    }
+
+}
@@ -0,0 +1,244 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * HPACK (RFC 7541) header block encoder for the raw HTTP/2 engine. Unlike the
+ * Netty encoder used by Vert.x, the indexing decision for literal fields is up
+ * to the caller, so the effect of the dynamic table on the server can be
+ * tested. String literals are not Huffman-coded, the bytes on the wire are
+ * exactly the header text.
+ */
+final class HpackEncoder {
+
+    enum Indexing {
+        /** literals are added to the dynamic table */
+        INCREMENTAL,
+        /** literals are not added to the dynamic table */
+        WITHOUT,
+        /** literals are not added, and intermediaries must not index them either */
+        NEVER
+    }
+
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private static final int ENTRY_OVERHEAD = 32;
+
+    // RFC 7541 Appendix A, index is position + 1
+    private static final String[][] STATIC_TABLE = { //
+            { ":authority", "" }, //
+            { ":method", "GET" }, //
+            { ":method", "POST" }, //
+            { ":path", "/" }, //
+            { ":path", "/index.html" }, //
+            { ":scheme", "http" }, //
+            { ":scheme", "https" }, //
+            { ":status", "200" }, //
+            { ":status", "204" }, //
+            { ":status", "206" }, //
+            { ":status", "304" }, //
+            { ":status", "400" }, //
+            { ":status", "404" }, //
+            { ":status", "500" }, //
+            { "accept-charset", "" }, //
+            { "accept-encoding", "gzip, deflate" }, //
+            { "accept-language", "" }, //
+            { "accept-ranges", "" }, //
+            { "accept", "" }, //
+            { "access-control-allow-origin", "" }, //
+            { "age", "" }, //
+            { "allow", "" }, //
+            { "authorization", "" }, //
+            { "cache-control", "" }, //
+            { "content-disposition", "" }, //
+            { "content-encoding", "" }, //
+            { "content-language", "" }, //
+            { "content-length", "" }, //
+            { "content-location", "" }, //
+            { "content-range", "" }, //
+            { "content-type", "" }, //
+            { "cookie", "" }, //
+            { "date", "" }, //
+            { "etag", "" }, //
+            { "expect", "" }, //
+            { "expires", "" }, //
+            { "from", "" }, //
+            { "host", "" }, //
+            { "if-match", "" }, //
+            { "if-modified-since", "" }, //
+            { "if-none-match", "" }, //
+            { "if-range", "" }, //
+            { "if-unmodified-since", "" }, //
+            { "last-modified", "" }, //
+            { "link", "" }, //
+            { "location", "" }, //
+            { "max-forwards", "" }, //
+            { "proxy-authenticate", "" }, //
+            { "proxy-authorization", "" }, //
+            { "range", "" }, //
+            { "referer", "" }, //
+            { "refresh", "" }, //
+            { "retry-after", "" }, //
+            { "server", "" }, //
+            { "set-cookie", "" }, //
+            { "strict-transport-security", "" }, //
+            { "transfer-encoding", "" }, //
+            { "user-agent", "" }, //
+            { "vary", "" }, //
+            { "via", "" }, //
+            { "www-authenticate", "" } //
+    };
+
+    private final Indexing indexing;
+    // newest entry first, so its index is STATIC_TABLE.length + 1
+    private final Deque<String[]> dynamicTable = new ArrayDeque<>();
+    private int tableSize;
+    private int maxTableSize = DEFAULT_TABLE_SIZE;
+    // table size updates to signal at the start of the next header block: the
+    // smallest size set since the last block, and the final one
+    private int minPendingSize = -1;
+    private int pendingSize = -1;
+
+    HpackEncoder(Indexing indexing) {
+        this.indexing = indexing;
+    }
+
+    /**
+     * Applies SETTINGS_HEADER_TABLE_SIZE received from the peer.
+     */
+    void setMaxTableSize(int size) {
+        if (size == maxTableSize && pendingSize == -1) {
+            return;
+        }
+        minPendingSize = minPendingSize == -1 ? size : Math.min(minPendingSize, size);
+        pendingSize = size;
+        maxTableSize = size;
+        evict(0);
+    }
+
+    int getTableSize() {
+        return tableSize;
+    }
+
+    /**
+     * @param headers name and value pairs, names should be lower case
+     * @return header block fragment, to be sent in HEADERS and CONTINUATION
+     *         frames
+     */
+    byte[] encode(Iterable<String[]> headers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (pendingSize != -1) {
+            if (minPendingSize < pendingSize) {
+                writeInt(out, 0x20, 5, minPendingSize);
+            }
+            writeInt(out, 0x20, 5, pendingSize);
+            minPendingSize = -1;
+            pendingSize = -1;
+        }
+        for (String[] header : headers) {
+            encode(out, header[0], header[1]);
+        }
+        return out.toByteArray();
+    }
+
+    private void encode(ByteArrayOutputStream out, String name, String value) {
+        int nameIndex = 0;
+        int index = 1;
+        for (String[] entry : STATIC_TABLE) {
+            if (entry[0].equals(name)) {
+                if (entry[1].equals(value)) {
+                    writeInt(out, 0x80, 7, index);
+                    return;
+                }
+                if (nameIndex == 0) {
+                    nameIndex = index;
+                }
+            }
+            index++;
+        }
+        for (String[] entry : dynamicTable) {
+            if (entry[0].equals(name)) {
+                if (entry[1].equals(value)) {
+                    writeInt(out, 0x80, 7, index);
+                    return;
+                }
+                if (nameIndex == 0) {
+                    nameIndex = index;
+                }
+            }
+            index++;
+        }
+
+        switch (indexing) {
+            case INCREMENTAL:
+                writeInt(out, 0x40, 6, nameIndex);
+                break;
+            case WITHOUT:
+                writeInt(out, 0x00, 4, nameIndex);
+                break;
+            case NEVER:
+                writeInt(out, 0x10, 4, nameIndex);
+                break;
+        }
+        if (nameIndex == 0) {
+            writeString(out, name);
+        }
+        writeString(out, value);
+        if (indexing == Indexing.INCREMENTAL) {
+            add(name, value);
+        }
+    }
+
+    private void add(String name, String value) {
+        int size = entrySize(name, value);
+        if (size > maxTableSize) {
+            // an entry larger than the table empties it
+            evict(maxTableSize);
+            return;
+        }
+        evict(size);
+        dynamicTable.addFirst(new String[] { name, value });
+        tableSize += size;
+    }
+
+    private void evict(int space) {
+        while (tableSize + space > maxTableSize && !dynamicTable.isEmpty()) {
+            String[] entry = dynamicTable.removeLast();
+            tableSize -= entrySize(entry[0], entry[1]);
+        }
+    }
+
+    private static int entrySize(String name, String value) {
+        return name.getBytes(StandardCharsets.UTF_8).length + value.getBytes(StandardCharsets.UTF_8).length
+                + ENTRY_OVERHEAD;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeInt(out, 0x00, 7, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes integer with N-bit prefix (RFC 7541 section 5.1), {@code mask} holds
+     * the bits of the first byte above the prefix.
+     */
+    private static void writeInt(ByteArrayOutputStream out, int mask, int prefixBits, int value) {
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            out.write(mask | value);
+            return;
+        }
+        out.write(mask | max);
+        value -= max;
+        while (value >= 0x80) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+}
@@ -0,0 +1,205 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of idle keep-alive HTTP/1 connections, one queue per host:port and TLS
+ * flag. The SSL socket factory is created once, so TLS sessions are resumed
+ * from its client session cache by new connections to the same host:port.
+ */
+final class Http1ConnectionPool implements AutoCloseable {
+
+    static final class Connection {
+        final String key;
+        final Socket socket;
+        /** channel of a plain connection, to write bodies with zero copy, null for TLS */
+        final SocketChannel channel;
+        final InputStream in;
+        final OutputStream out;
+        final boolean reused;
+        /**
+         * Buffer for reading responses, kept with the connection to be reused by the
+         * following requests.
+         */
+        final byte[] readBuffer;
+        /**
+         * Timings of this acquisition, DNS, connect and TLS are set for a new
+         * connection only.
+         */
+        final PhaseTimings timings;
+
+        private Connection(String key, Socket socket, SocketChannel channel, boolean reused, byte[] readBuffer,
+                PhaseTimings timings) throws IOException {
+            this.key = key;
+            this.socket = socket;
+            this.channel = channel;
+            // the response is read while the request is written, so a channel is used
+            // directly, streams of its socket would block each other
+            this.in = channel == null ? socket.getInputStream() : new ChannelInputStream(channel);
+            this.out = channel == null ? socket.getOutputStream() : new ChannelOutputStream(channel);
+            this.reused = reused;
+            this.readBuffer = readBuffer;
+            this.timings = timings;
+        }
+
+        private Connection reuse(PhaseTimings timings) throws IOException {
+            timings.reused = true;
+            return new Connection(key, socket, channel, true, readBuffer, timings);
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOG.debug("Failed closing socket", e);
+            }
+        }
+    }
+
+    private static final class ChannelInputStream extends InputStream {
+        private final SocketChannel channel;
+
+        ChannelInputStream(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+        }
+    }
+
+    private static final class ChannelOutputStream extends OutputStream {
+        private final SocketChannel channel;
+
+        ChannelOutputStream(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(Http1ConnectionPool.class);
+
+    // max TLS record size, SSL socket does not return more than one record per read
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final HostResolver resolver;
+    private final SSLSocketFactory sslSocketFactory;
+    private final Map<String, Deque<Connection>> idle = new ConcurrentHashMap<>();
+
+    /**
+     * @param sslSocketFactory factory of TLS sockets; resumed sessions are told
+     *                         from full handshakes by the trust manager of
+     *                         {@link TrustAllSsl#context()}
+     */
+    Http1ConnectionPool(HostResolver resolver, SSLSocketFactory sslSocketFactory) {
+        this.resolver = resolver;
+        this.sslSocketFactory = sslSocketFactory;
+    }
+
+    Connection acquire(boolean useTls, String host, int port) throws Exception {
+        PhaseTimings timings = new PhaseTimings();
+        timings.start = System.nanoTime();
+        String key = (useTls ? "https://" : "http://") + host + ":" + port;
+        Deque<Connection> connections = idle.get(key);
+        if (connections != null) {
+            for (Connection connection = null; (connection = connections.pollFirst()) != null;) {
+                if (!connection.socket.isClosed()) {
+                    return connection.reuse(timings);
+                }
+            }
+        }
+
+        if (useTls) {
+            Socket socket = connect(true, host, port, null, timings);
+            return new Connection(key, socket, null, false, new byte[READ_BUFFER_SIZE], timings);
+        }
+        SocketChannel channel = resolver.connectChannel(host, port, timings);
+        return new Connection(key, channel.socket(), channel, false, new byte[READ_BUFFER_SIZE], timings);
+    }
+
+    /**
+     * Opens a new connection, not pooled, recording DNS, connect and TLS timings.
+     *
+     * @param applicationProtocol protocol to negotiate with ALPN, or {@code null}
+     */
+    Socket connect(boolean useTls, String host, int port, String applicationProtocol, PhaseTimings timings)
+            throws Exception {
+        // phases are done one by one to measure them, TLS is layered over the
+        // connected socket
+        Socket socket = resolver.connect(host, port, timings);
+        try {
+            if (useTls) {
+                SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(socket, host, port, true);
+                socket = sslSocket;
+                if (applicationProtocol != null) {
+                    SSLParameters parameters = sslSocket.getSSLParameters();
+                    parameters.setApplicationProtocols(new String[] { applicationProtocol });
+                    sslSocket.setSSLParameters(parameters);
+                }
+                sslSocket.startHandshake();
+                timings.tlsDone = System.nanoTime();
+                timings.tlsResumed = !TrustAllSsl.isFullHandshake(sslSocket);
+                if (applicationProtocol != null && !applicationProtocol.equals(sslSocket.getApplicationProtocol())) {
+                    throw new IOException("Server did not negotiate " + applicationProtocol + " with ALPN");
+                }
+            }
+        } catch (Exception e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    /**
+     * Returns the connection back to the pool, it should be used only if the whole
+     * response was read and the server did not ask to close the connection.
+     */
+    void release(Connection connection) {
+        idle.computeIfAbsent(connection.key, k -> new ConcurrentLinkedDeque<>()).addFirst(connection);
+    }
+
+    @Override
+    public void close() {
+        idle.values().forEach(connections -> {
+            for (Connection connection = null; (connection = connections.pollFirst()) != null;) {
+                connection.close();
+            }
+        });
+    }
+
+}
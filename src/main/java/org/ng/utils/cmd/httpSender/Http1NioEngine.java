@@ -0,0 +1,689 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * Non-blocking HTTP/1 load engine: a few event loop threads, each with its own
+ * selector, drive thousands of connections at once, so the number of
+ * connections is not limited by the number of threads. Requests are written
+ * byte for byte as given, responses are framed by {@link Http1ResponseFramer}
+ * like in the blocking sender, and TLS goes through an {@link SSLEngine}.
+ * <p>
+ * Every connection is a closed-loop worker, the same as a {@link LoadRunner}
+ * worker: it sends the next request (or batch of pipelined requests) as soon
+ * as the previous one completes, over the same connection while the server
+ * keeps it alive. A batch that finds its kept-alive connection closed by the
+ * server is sent again on a new connection. Host names are resolved on the
+ * event loop with the {@link HostResolver} cache; addresses are not raced, a
+ * new connection goes to the first address, or to the addresses in turn in
+ * spread mode.
+ */
+final class Http1NioEngine {
+
+    /**
+     * Request to send: the template is rendered for every request, the body is
+     * written as is.
+     */
+    static final class Target {
+        final String host;
+        final int port;
+        final boolean useTls;
+        /** response to HEAD has no body whatever its headers say */
+        final boolean headRequest;
+        final Http1Template request;
+        /** body sent after the request, e.g. a mapped file, or {@code null} */
+        final ByteBuffer body;
+        final String key;
+
+        Target(String host, int port, boolean useTls, boolean headRequest, Http1Template request, ByteBuffer body) {
+            this.host = host;
+            this.port = port;
+            this.useTls = useTls;
+            this.headRequest = headRequest;
+            this.request = request;
+            this.body = body;
+            this.key = (useTls ? "https://" : "http://") + host + ":" + port;
+        }
+    }
+
+    interface Listener {
+        /**
+         * Called on an event loop thread for every batch of requests completed.
+         *
+         * @param target index of the target the requests were sent to
+         */
+        void completed(int target, List<ExchangeResult> results) throws IOException;
+    }
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final HostResolver resolver;
+    private final SSLContext sslContext;
+    private final int eventLoops;
+
+    /**
+     * @param sslContext context of TLS connections; resumed sessions are told
+     *                   from full handshakes by the trust manager of
+     *                   {@link TrustAllSsl#context()}
+     * @param eventLoops number of selector threads, connections are spread
+     *                   between them evenly
+     */
+    Http1NioEngine(HostResolver resolver, SSLContext sslContext, int eventLoops) {
+        if (eventLoops < 1) {
+            throw new IllegalArgumentException("Number of event loops should be positive: " + eventLoops);
+        }
+        this.resolver = resolver;
+        this.sslContext = sslContext;
+        this.eventLoops = eventLoops;
+    }
+
+    /**
+     * Sends {@code requests} requests over {@code connections} connections,
+     * picking the targets in round-robin order.
+     *
+     * @param batchSize number of requests pipelined on a connection at once
+     * @param listener  receives results of every batch, or {@code null}
+     * @param log       log of every request, or {@code null}
+     */
+    LoadRunner.Stats run(List<Target> targets, long requests, int connections, int batchSize, Listener listener,
+            ResultsLog log) throws Exception {
+        if (requests < 1) {
+            throw new IllegalArgumentException("Number of requests should be positive: " + requests);
+        }
+        if (connections < 1) {
+            throw new IllegalArgumentException("Number of connections should be positive: " + connections);
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size should be positive: " + batchSize);
+        }
+        Load load = new Load(targets, requests, batchSize, listener, log);
+        connections = (int) Math.min(connections, (requests + batchSize - 1) / batchSize);
+        int loopCount = Math.min(eventLoops, connections);
+        List<EventLoop> loops = new ArrayList<>(loopCount);
+        List<Thread> threads = new ArrayList<>(loopCount);
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < loopCount; i++) {
+                EventLoop loop = new EventLoop(load, connections / loopCount + (i < connections % loopCount ? 1 : 0));
+                loops.add(loop);
+                Thread thread = new Thread(loop, "nio-loop-" + i);
+                thread.setDaemon(true);
+                threads.add(thread);
+            }
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            threads.forEach(Thread::interrupt);
+            throw e;
+        } finally {
+            for (EventLoop loop : loops) {
+                loop.selector.close();
+            }
+        }
+        LoadRunner.Stats total = new LoadRunner.Stats();
+        for (EventLoop loop : loops) {
+            if (loop.failure != null) {
+                throw loop.failure;
+            }
+            total.add(loop.stats);
+        }
+        total.durationNanos = System.nanoTime() - start;
+        total.peakConnections = load.peakOpen.get();
+        return total;
+    }
+
+    /**
+     * State shared by the event loops of one run.
+     */
+    private static final class Load {
+        final List<Target> targets;
+        final AtomicLong remaining;
+        final AtomicLong sequence = new AtomicLong();
+        /** numbers the requests the templates are rendered with */
+        final AtomicLong requestSequence = new AtomicLong();
+        final int batchSize;
+        final Listener listener;
+        final ResultsLog log;
+        final AtomicInteger open = new AtomicInteger();
+        final AtomicInteger peakOpen = new AtomicInteger();
+
+        Load(List<Target> targets, long requests, int batchSize, Listener listener, ResultsLog log) {
+            this.targets = targets;
+            this.remaining = new AtomicLong(requests);
+            this.batchSize = batchSize;
+            this.listener = listener;
+            this.log = log;
+        }
+
+        int claim() {
+            for (;;) {
+                long left = remaining.get();
+                if (left <= 0) {
+                    return 0;
+                }
+                int count = (int) Math.min(left, batchSize);
+                if (remaining.compareAndSet(left, left - count)) {
+                    return count;
+                }
+            }
+        }
+    }
+
+    /**
+     * Connection of an event loop, with the batch of requests in flight on it.
+     */
+    private static final class Slot {
+        SocketChannel channel;
+        SelectionKey key;
+        String connectedKey;
+        String address;
+        /** number of batches completed on the current connection */
+        int exchanges;
+        // TLS, null for a plain connection
+        SSLEngine engine;
+        ByteBuffer netIn;
+        ByteBuffer netOut;
+        boolean handshaking;
+
+        int targetIndex;
+        Target target;
+        int count;
+        long firstSeq;
+        // rendered requests of the batch, reused by the next batches
+        Template.Output[] rendered = new Template.Output[0];
+        final Template.Output renderedBody = new Template.Output();
+        int[] requestLengths;
+        ByteBuffer[] pending;
+        Http1ResponseFramer[] framers;
+        /** index of the response being read */
+        int current;
+        PhaseTimings timings;
+        long writeStart;
+        long writeDone;
+        long[] firstBytes;
+        long[] completions;
+    }
+
+    private final class EventLoop implements Runnable {
+        final Load load;
+        final Selector selector;
+        final Slot[] slots;
+        final LoadRunner.Stats stats;
+        // responses are fed to the framers right away, so one buffer serves all the connections
+        final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        int active;
+        Exception failure;
+
+        EventLoop(Load load, int connections) throws IOException {
+            this.load = load;
+            this.stats = new LoadRunner.Stats(load.log);
+            this.selector = Selector.open();
+            this.slots = new Slot[connections];
+            for (int i = 0; i < connections; i++) {
+                slots[i] = new Slot();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                active = slots.length;
+                for (Slot slot : slots) {
+                    next(slot, false);
+                }
+                while (active > 0) {
+                    selector.select();
+                    for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (key.isValid()) {
+                            handle((Slot) key.attachment(), key);
+                        }
+                    }
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                for (Slot slot : slots) {
+                    close(slot);
+                }
+            }
+        }
+
+        /**
+         * Starts the next batch on the slot: claims requests (unless the current
+         * batch is sent again) and sends them over the open connection, or opens a
+         * new one.
+         */
+        private void next(Slot slot, boolean retry) {
+            for (;;) {
+                if (!retry) {
+                    int count = load.claim();
+                    if (count == 0) {
+                        close(slot);
+                        active--;
+                        return;
+                    }
+                    slot.count = count;
+                    slot.firstSeq = load.requestSequence.getAndAdd(count) + 1;
+                    slot.targetIndex = (int) (load.sequence.getAndIncrement() % load.targets.size());
+                    slot.target = load.targets.get(slot.targetIndex);
+                }
+                retry = false;
+                try {
+                    start(slot);
+                    return;
+                } catch (Exception e) {
+                    recordError(slot, e);
+                    close(slot);
+                }
+            }
+        }
+
+        private void start(Slot slot) throws Exception {
+            Target target = slot.target;
+            int count = slot.count;
+            slot.framers = new Http1ResponseFramer[count];
+            for (int i = 0; i < count; i++) {
+                slot.framers[i] = new Http1ResponseFramer(target.headRequest, false, OutputStream.nullOutputStream());
+            }
+            slot.current = 0;
+            render(slot);
+            slot.writeStart = -1;
+            slot.writeDone = -1;
+            slot.firstBytes = new long[count];
+            slot.completions = new long[count];
+            Arrays.fill(slot.firstBytes, -1);
+            Arrays.fill(slot.completions, -1);
+
+            if (slot.channel != null && !slot.connectedKey.equals(target.key)) {
+                close(slot);
+            }
+            slot.timings = new PhaseTimings();
+            slot.timings.start = System.nanoTime();
+            if (slot.channel != null) {
+                slot.timings.reused = true;
+                // written when the selector reports the socket writable
+                slot.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+
+            InetAddress address = resolver.pick(target.host);
+            slot.timings.dnsDone = System.nanoTime();
+            SocketChannel channel = SocketChannel.open();
+            slot.channel = channel;
+            slot.connectedKey = target.key;
+            slot.address = address.getHostAddress();
+            slot.exchanges = 0;
+            stats.connections++;
+            load.peakOpen.accumulateAndGet(load.open.incrementAndGet(), Math::max);
+            channel.configureBlocking(false);
+            boolean connected = channel.connect(new InetSocketAddress(address, target.port));
+            slot.key = channel.register(selector, SelectionKey.OP_CONNECT, slot);
+            if (connected) {
+                connected(slot);
+            }
+        }
+
+        /**
+         * Fills the pending buffers with the requests of the batch, followed by
+         * the body if there is one.
+         */
+        private void render(Slot slot) {
+            Target target = slot.target;
+            int count = slot.count;
+            if (slot.rendered.length < count) {
+                slot.rendered = Arrays.copyOf(slot.rendered, count);
+            }
+            slot.requestLengths = new int[count];
+            slot.pending = new ByteBuffer[target.body == null ? count : count * 2];
+            for (int i = 0; i < count; i++) {
+                ByteBuffer request = target.request.getConstant();
+                if (request == null) {
+                    if (slot.rendered[i] == null) {
+                        slot.rendered[i] = new Template.Output();
+                    }
+                    target.request.render(slot.firstSeq + i, slot.rendered[i], slot.renderedBody);
+                    request = slot.rendered[i].buffer();
+                }
+                slot.requestLengths[i] = request.remaining();
+                if (target.body == null) {
+                    slot.pending[i] = request;
+                } else {
+                    slot.pending[i * 2] = request;
+                    slot.pending[i * 2 + 1] = target.body.duplicate();
+                }
+            }
+        }
+
+        private void connected(Slot slot) throws Exception {
+            slot.timings.connectDone = System.nanoTime();
+            Target target = slot.target;
+            if (target.useTls) {
+                SSLEngine engine = sslContext.createSSLEngine(target.host, target.port);
+                engine.setUseClientMode(true);
+                slot.engine = engine;
+                slot.netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                slot.netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                engine.beginHandshake();
+                slot.handshaking = true;
+            }
+            slot.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        private void handle(Slot slot, SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    if (!slot.channel.finishConnect()) {
+                        return;
+                    }
+                    connected(slot);
+                }
+                if (slot.handshaking && !handshake(slot)) {
+                    return;
+                }
+                boolean written = write(slot);
+                slot.key.interestOps(SelectionKey.OP_READ | (written ? 0 : SelectionKey.OP_WRITE));
+                read(slot);
+            } catch (Exception e) {
+                failed(slot, e);
+            }
+        }
+
+        /**
+         * @return {@code true} if the handshake is finished, otherwise the key is
+         *         set to wait for the socket
+         */
+        private boolean handshake(Slot slot) throws IOException {
+            SSLEngine engine = slot.engine;
+            for (;;) {
+                if (!flush(slot)) {
+                    slot.key.interestOps(SelectionKey.OP_WRITE);
+                    return false;
+                }
+                switch (engine.getHandshakeStatus()) {
+                    case NEED_TASK:
+                        for (Runnable task; (task = engine.getDelegatedTask()) != null;) {
+                            task.run();
+                        }
+                        break;
+                    case NEED_WRAP:
+                        checkOpen(engine.wrap(EMPTY, slot.netOut));
+                        break;
+                    case NEED_UNWRAP:
+                    case NEED_UNWRAP_AGAIN: {
+                        readBuffer.clear();
+                        slot.netIn.flip();
+                        SSLEngineResult result = engine.unwrap(slot.netIn, readBuffer);
+                        slot.netIn.compact();
+                        checkOpen(result);
+                        if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW
+                                || result.bytesConsumed() == 0
+                                        && result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+                            int n = readNet(slot);
+                            if (n == -1) {
+                                throw new EOFException("Connection closed by the server during TLS handshake");
+                            }
+                            if (n == 0) {
+                                slot.key.interestOps(SelectionKey.OP_READ);
+                                return false;
+                            }
+                        }
+                    }
+                        break;
+                    default:
+                        slot.handshaking = false;
+                        slot.timings.tlsDone = System.nanoTime();
+                        slot.timings.tlsResumed = !TrustAllSsl.isFullHandshake(engine);
+                        return true;
+                }
+            }
+        }
+
+        /**
+         * @return {@code true} if the whole batch is written
+         */
+        private boolean write(Slot slot) throws IOException {
+            if (slot.writeDone != -1) {
+                return true;
+            }
+            if (slot.writeStart == -1) {
+                slot.writeStart = System.nanoTime();
+            }
+            if (slot.engine == null) {
+                slot.channel.write(slot.pending);
+            } else {
+                while (flush(slot) && hasRemaining(slot.pending)) {
+                    checkOpen(slot.engine.wrap(slot.pending, slot.netOut));
+                }
+                if (slot.netOut.position() != 0) {
+                    return false;
+                }
+            }
+            if (hasRemaining(slot.pending)) {
+                return false;
+            }
+            slot.writeDone = System.nanoTime();
+            return true;
+        }
+
+        /**
+         * Feeds whatever the socket has to the framers, completes the batch when
+         * the last response is read.
+         */
+        private void read(Slot slot) throws Exception {
+            for (;;) {
+                readBuffer.clear();
+                int n = slot.engine == null ? slot.channel.read(readBuffer) : unwrap(slot);
+                if (n == 0) {
+                    return;
+                }
+                long now = System.nanoTime();
+                if (n == -1) {
+                    if (slot.current < slot.count) {
+                        Http1ResponseFramer framer = slot.framers[slot.current];
+                        framer.endOfStream();
+                        if (framer.isComplete()) {
+                            slot.completions[slot.current++] = now;
+                        }
+                    }
+                    close(slot);
+                    if (slot.current == slot.count) {
+                        complete(slot);
+                    } else {
+                        failed(slot, new IOException("Connection closed after " + slot.current + " of "
+                                + slot.count + " responses"));
+                    }
+                    return;
+                }
+                byte[] b = readBuffer.array();
+                for (int pos = 0; pos < n && slot.current < slot.count;) {
+                    Http1ResponseFramer framer = slot.framers[slot.current];
+                    if (slot.firstBytes[slot.current] == -1) {
+                        slot.firstBytes[slot.current] = now;
+                    }
+                    pos += framer.feed(b, pos, n - pos);
+                    if (framer.isComplete()) {
+                        slot.completions[slot.current++] = now;
+                        if (!framer.isKeepAlive() && slot.current < slot.count) {
+                            throw new IOException("Connection closed after " + slot.current + " of " + slot.count
+                                    + " responses");
+                        }
+                    }
+                }
+                if (slot.current == slot.count) {
+                    complete(slot);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return number of application bytes unwrapped to the read buffer, 0 if
+         *         there are none yet, -1 if the connection was closed
+         */
+        private int unwrap(Slot slot) throws IOException {
+            for (;;) {
+                slot.netIn.flip();
+                SSLEngineResult result = slot.engine.unwrap(slot.netIn, readBuffer);
+                slot.netIn.compact();
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    return -1;
+                }
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    for (Runnable task; (task = slot.engine.getDelegatedTask()) != null;) {
+                        task.run();
+                    }
+                }
+                if (result.bytesProduced() > 0) {
+                    return result.bytesProduced();
+                }
+                // session tickets and other records without application data are skipped
+                if (result.getStatus() == SSLEngineResult.Status.OK && result.bytesConsumed() > 0) {
+                    continue;
+                }
+                int n = readNet(slot);
+                if (n <= 0) {
+                    return n;
+                }
+            }
+        }
+
+        private int readNet(Slot slot) throws IOException {
+            if (!slot.netIn.hasRemaining()) {
+                // the peer sends larger records than the session announced
+                ByteBuffer larger = ByteBuffer.allocate(slot.netIn.capacity() * 2);
+                slot.netIn.flip();
+                slot.netIn = larger.put(slot.netIn);
+            }
+            return slot.channel.read(slot.netIn);
+        }
+
+        /**
+         * @return {@code true} if nothing is left to write
+         */
+        private boolean flush(Slot slot) throws IOException {
+            if (slot.netOut.position() == 0) {
+                return true;
+            }
+            slot.netOut.flip();
+            slot.channel.write(slot.netOut);
+            slot.netOut.compact();
+            return slot.netOut.position() == 0;
+        }
+
+        private void complete(Slot slot) throws Exception {
+            List<ExchangeResult> results = new ArrayList<>(slot.count);
+            long bodyLength = slot.target.body == null ? 0 : slot.target.body.remaining();
+            for (int i = 0; i < slot.count; i++) {
+                Http1ResponseFramer framer = slot.framers[i];
+                ExchangeResult result = new ExchangeResult();
+                result.address = slot.address;
+                result.statusCode = framer.getStatusCode();
+                result.bytesOut = slot.requestLengths[i] + bodyLength;
+                result.bytesIn = framer.getConsumed();
+                // the first request waits for the connection to be set up, the pipelined ones from the write
+                result.latencyNanos = slot.completions[i] - (i == 0 ? slot.timings.start : slot.writeStart);
+                // pipelined requests after the first one share the connection
+                result.timings = i == 0 ? slot.timings : new PhaseTimings();
+                result.timings.reused |= i != 0;
+                if (i != 0) {
+                    result.timings.start = slot.writeStart;
+                }
+                result.timings.writeDone = slot.writeDone;
+                result.timings.firstByte = slot.firstBytes[i];
+                result.timings.lastByte = slot.completions[i];
+                stats.record(result, result.latencyNanos);
+                results.add(result);
+            }
+            stats.requests += slot.count;
+            slot.exchanges++;
+            if (!slot.framers[slot.count - 1].isKeepAlive()) {
+                close(slot);
+            }
+            if (load.listener != null) {
+                load.listener.completed(slot.targetIndex, results);
+            }
+            next(slot, false);
+        }
+
+        private void failed(Slot slot, Exception e) {
+            boolean stale = slot.exchanges > 0 && !slot.framers[0].hasStarted();
+            close(slot);
+            if (stale && e instanceof IOException) {
+                // idle connection was closed by the server, let's retry with a new one
+                next(slot, true);
+                return;
+            }
+            recordError(slot, e);
+            next(slot, false);
+        }
+
+        private void recordError(Slot slot, Exception e) {
+            stats.recordError(e, slot.count);
+            stats.requests += slot.count;
+        }
+
+        private void close(Slot slot) {
+            if (slot.channel == null) {
+                return;
+            }
+            if (slot.key != null) {
+                slot.key.cancel();
+            }
+            try {
+                slot.channel.close();
+            } catch (IOException e) {
+                // noop
+            }
+            load.open.decrementAndGet();
+            slot.channel = null;
+            slot.key = null;
+            slot.engine = null;
+            slot.netIn = null;
+            slot.netOut = null;
+            slot.handshaking = false;
+        }
+    }
+
+    private static void checkOpen(SSLEngineResult result) throws SSLException {
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+            throw new SSLException("TLS connection was closed by the server");
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (int i = buffers.length - 1; i >= 0; i--) {
+            if (buffers[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,285 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.ng.utils.cmd.httpSender.Main.Header;
+
+/**
+ * Incremental parser finding where an HTTP/1.x response ends: bytes are fed as
+ * they come from the socket, and the framer tells when the response is complete
+ * (by Content-Length, chunked encoding or end of stream). This makes it possible
+ * to keep the connection open for the next request.
+ * <p>
+ * Response body is written to the body sink as it arrives, chunked body is
+ * decoded on the fly, and so is Content-Encoding if asked for.
+ */
+final class Http1ResponseFramer {
+
+    private enum State {
+        HEADERS, BODY_LENGTH, BODY_CHUNKED, BODY_EOF, DONE
+    }
+
+    private static final Pattern PATTERN_COLON = Pattern.compile(":", Pattern.LITERAL);
+    private static final Pattern PATTERN_SPACE = Pattern.compile(" ", Pattern.LITERAL);
+    private static final byte[] LF = { '\n' };
+
+    private final boolean headRequest;
+    private final boolean decodeContent;
+    private final OutputStream bodySink;
+
+    private State state = State.HEADERS;
+    private final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+    private int headersLength;
+    private int headerTail;
+    private long consumed;
+
+    private String version;
+    private int statusCode = -1;
+    private List<Header> headers = new ArrayList<>();
+    private boolean keepAlive;
+
+    private long remaining;
+    private OutputStream contentSink;
+    private ChunkedDecoder chunkedDecoder;
+    private ContentDecoding contentDecoding;
+
+    Http1ResponseFramer(boolean headRequest, OutputStream bodySink) {
+        this(headRequest, false, bodySink);
+    }
+
+    /**
+     * @param decodeContent whether body should be decoded according to
+     *                      Content-Encoding before it is written to the sink
+     */
+    Http1ResponseFramer(boolean headRequest, boolean decodeContent, OutputStream bodySink) {
+        this.headRequest = headRequest;
+        this.decodeContent = decodeContent;
+        this.bodySink = bodySink;
+    }
+
+    /**
+     * @return number of bytes consumed, less than {@code len} only if the response
+     *         is complete and the rest of the bytes belong to the next response
+     */
+    int feed(byte[] b, int off, int len) throws IOException {
+        int pos = off;
+        int end = off + len;
+        while (pos < end && state != State.DONE) {
+            switch (state) {
+                case HEADERS:
+                    pos = feedHeaders(b, pos, end);
+                    break;
+                case BODY_LENGTH: {
+                    int toWrite = (int) Math.min(remaining, end - pos);
+                    contentSink.write(b, pos, toWrite);
+                    pos += toWrite;
+                    remaining -= toWrite;
+                    if (remaining == 0) {
+                        bodyComplete();
+                    }
+                }
+                    break;
+                case BODY_CHUNKED:
+                    pos += chunkedDecoder.decode(b, pos, end - pos);
+                    if (chunkedDecoder.isDone()) {
+                        bodyComplete();
+                    }
+                    break;
+                case BODY_EOF:
+                    contentSink.write(b, pos, end - pos);
+                    pos = end;
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected state " + state);
+            }
+        }
+        consumed += pos - off;
+        return pos - off;
+    }
+
+    /**
+     * Should be called when the connection was closed by the server.
+     */
+    void endOfStream() throws IOException {
+        if (state == State.BODY_EOF) {
+            bodyComplete();
+        } else if (state != State.DONE) {
+            keepAlive = false;
+        }
+    }
+
+    boolean isComplete() {
+        return state == State.DONE;
+    }
+
+    boolean isKeepAlive() {
+        return keepAlive && state == State.DONE;
+    }
+
+    /**
+     * @return true if the final response headers are parsed, body may follow
+     */
+    boolean isHeadersComplete() {
+        return state != State.HEADERS;
+    }
+
+    boolean hasStarted() {
+        return consumed > 0;
+    }
+
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    List<Header> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return length of the status line and headers, including the empty line
+     *         after them
+     */
+    int getHeadersLength() {
+        return headersLength;
+    }
+
+    long getConsumed() {
+        return consumed;
+    }
+
+    boolean isChunked() {
+        return chunkedDecoder != null;
+    }
+
+    /**
+     * @return content codings decoded, in the order of decoding, empty list if
+     *         the body is passed as is
+     */
+    List<String> getContentCodings() {
+        return contentDecoding == null ? List.of() : contentDecoding.getCodings();
+    }
+
+    /**
+     * @return trailer fields of the chunked body, empty list if there are none
+     */
+    List<Header> getTrailers() {
+        return chunkedDecoder == null ? List.of() : chunkedDecoder.getTrailers();
+    }
+
+    private int feedHeaders(byte[] b, int pos, int end) throws IOException {
+        int start = pos;
+        for (; pos < end; pos++) {
+            headerTail = (headerTail << 8) | (b[pos] & 0xFF);
+            if (headerTail == 0x0D0A0D0A || (headerTail & 0xFFFF) == 0x0A0A) {
+                pos++;
+                ByteSlice block;
+                if (headerBytes.size() == 0) {
+                    // the usual case, headers are parsed right from the read buffer
+                    block = ByteSlice.wrap(b, start, pos - start);
+                } else {
+                    headerBytes.write(b, start, pos - start);
+                    block = ByteSlice.wrap(headerBytes.toByteArray());
+                    headerBytes.reset();
+                }
+                headersLength += block.length();
+                parseHeaders(block);
+                return pos;
+            }
+        }
+        // headers continue in the next bytes fed
+        headerBytes.write(b, start, pos - start);
+        return pos;
+    }
+
+    private void parseHeaders(ByteSlice block) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int lineStart = 0; lineStart < block.length();) {
+            int lf = ArraysUtil.indexOf(block, lineStart, LF);
+            int next = lf == -1 ? block.length() : lf + 1;
+            int lineEnd = lf == -1 ? block.length() : lf;
+            if (lineEnd > lineStart && block.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            lines.add(block.slice(lineStart, lineEnd).toString(StandardCharsets.ISO_8859_1));
+            lineStart = next;
+        }
+        headerTail = 0;
+        headers = new ArrayList<>();
+
+        String[] statusLine = PATTERN_SPACE.split(lines.get(0), 3);
+        version = statusLine[0];
+        try {
+            statusCode = statusLine.length > 1 ? Integer.parseInt(statusLine[1]) : -1;
+        } catch (NumberFormatException e) {
+            statusCode = -1;
+        }
+
+        long contentLength = -1;
+        boolean chunked = false;
+        String connection = null;
+        for (int i = 1; i < lines.size(); i++) {
+            String[] lineParts = PATTERN_COLON.split(lines.get(i), 2);
+            if (lineParts.length != 2) {
+                continue;
+            }
+            Header header = new Header();
+            header.name = lineParts[0].trim();
+            header.value = lineParts[1].trim();
+            headers.add(header);
+            switch (header.name.toLowerCase()) {
+                case "content-length":
+                    contentLength = Long.parseLong(header.value);
+                    break;
+                case "transfer-encoding":
+                    chunked = header.value.toLowerCase().endsWith("chunked");
+                    break;
+                case "connection":
+                    connection = header.value.toLowerCase();
+                    break;
+            }
+        }
+
+        if (statusCode >= 100 && statusCode < 200 && statusCode != 101) {
+            // interim response (e.g. 100 Continue), the final one follows
+            return;
+        }
+
+        keepAlive = "HTTP/1.0".equals(version) ? "keep-alive".equals(connection) : !"close".equals(connection);
+        if (headRequest || statusCode == 204 || statusCode == 304) {
+            state = State.DONE;
+            return;
+        }
+        contentSink = bodySink;
+        if (decodeContent) {
+            contentDecoding = ContentDecoding.create(headers, bodySink);
+            contentSink = contentDecoding.getInput();
+        }
+        if (chunked) {
+            state = State.BODY_CHUNKED;
+            chunkedDecoder = new ChunkedDecoder(contentSink);
+        } else if (contentLength != -1) {
+            remaining = contentLength;
+            state = State.BODY_LENGTH;
+            if (contentLength == 0) {
+                bodyComplete();
+            }
+        } else {
+            state = State.BODY_EOF;
+            keepAlive = false;
+        }
+    }
+
+    private void bodyComplete() throws IOException {
+        state = State.DONE;
+        if (contentDecoding != null) {
+            contentDecoding.finish();
+        }
+    }
+
+}
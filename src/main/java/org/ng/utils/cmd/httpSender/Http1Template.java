@@ -0,0 +1,59 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * HTTP/1 request compiled to templates of the head and of the inline body.
+ * The body is rendered first, so Content-Length of the head can be set to
+ * the length of the rendered body.
+ */
+final class Http1Template {
+
+    private final Template head;
+    private final Template body;
+    // the whole request if it has no placeholders
+    private final ByteBuffer constant;
+
+    /**
+     * @param head head with "${bodyLength}" for the value of Content-Length if
+     *             the body has placeholders
+     * @param body inline body, or {@code null}
+     */
+    Http1Template(Template head, Template body) {
+        this.head = head;
+        this.body = body;
+        if (head.isConstant() && (body == null || body.isConstant())) {
+            Template.Output out = new Template.Output();
+            render(1, out, new Template.Output());
+            this.constant = ByteBuffer.wrap(Arrays.copyOf(out.buffer().array(), out.length()));
+        } else {
+            this.constant = null;
+        }
+    }
+
+    /**
+     * @return bytes of the request if it has no placeholders, shared instead of
+     *         rendering it every time (not to be modified), or {@code null}
+     */
+    ByteBuffer getConstant() {
+        return constant == null ? null : constant.duplicate();
+    }
+
+    /**
+     * Renders the request to {@code out}.
+     *
+     * @param seq     number of the request, from 1
+     * @param scratch buffer for the body
+     */
+    void render(long seq, Template.Output out, Template.Output scratch) {
+        if (body == null) {
+            head.render(seq, -1, out);
+            return;
+        }
+        body.render(seq, -1, scratch);
+        head.render(seq, scratch.length(), out);
+        out.append(scratch);
+    }
+
+}
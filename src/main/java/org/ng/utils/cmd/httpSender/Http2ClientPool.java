@@ -0,0 +1,106 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.vertx.core.http.Http2Settings;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.http.HttpClient;
+import io.vertx.mutiny.ext.web.client.WebClient;
+
+/**
+ * Long-lived HTTP/2 clients, one per scheme, host and port, so that requests
+ * are sent as concurrent streams on kept-alive connections instead of a new
+ * connection per request. Counts connections and streams in flight. Clear text
+ * connections (h2c) use prior knowledge, or HTTP/1.1 Upgrade if requested.
+ */
+final class Http2ClientPool implements AutoCloseable {
+
+    private final Vertx vertx;
+    private final WebClientOptions options;
+    private final Map<String, WebClient> clients = new ConcurrentHashMap<>();
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger streams = new AtomicInteger();
+    private final AtomicInteger peakStreams = new AtomicInteger();
+    private volatile long lastConnected = -1;
+
+    /**
+     * @param maxPoolSize       max connections per host:port
+     * @param multiplexingLimit max concurrent streams per connection, -1 to use
+     *                          the limit from the server settings
+     * @param settings          SETTINGS sent to the server with the connection
+     *                          preface
+     * @param connectionWindow  connection receive window, -1 to keep the HTTP/2
+     *                          default of 65535 bytes
+     * @param h2cUpgrade        start clear text connections with HTTP/1.1
+     *                          Upgrade instead of prior knowledge
+     */
+    Http2ClientPool(Vertx vertx, int maxPoolSize, int multiplexingLimit, Http2Settings settings,
+            int connectionWindow, boolean h2cUpgrade) {
+        this.vertx = vertx;
+        this.options = new WebClientOptions() //
+                .setProtocolVersion(HttpVersion.HTTP_2) //
+                .setFollowRedirects(false) //
+                .setKeepAlive(true) //
+                .setHttp2MaxPoolSize(maxPoolSize) //
+                .setHttp2MultiplexingLimit(multiplexingLimit) //
+                .setInitialSettings(settings) //
+                .setHttp2ConnectionWindowSize(connectionWindow) //
+                .setHttp2ClearTextUpgrade(h2cUpgrade) //
+                .setUseAlpn(true) //
+                .setVerifyHost(false) //
+                // Vert.x 3 builds its own Netty TLS context, it can't take the JDK one of TrustAllSsl
+                .setTrustAll(true) //
+                .setLogActivity(true);
+    }
+
+    WebClient get(boolean useTls, String host, int port) {
+        return clients.computeIfAbsent((useTls ? "https://" : "http://") + host + ":" + port, k -> {
+            HttpClient httpClient = vertx.createHttpClient(options);
+            httpClient.connectionHandler(connection -> {
+                connections.incrementAndGet();
+                lastConnected = System.nanoTime();
+            });
+            return WebClient.wrap(httpClient, options);
+        });
+    }
+
+    void streamStarted() {
+        peakStreams.accumulateAndGet(streams.incrementAndGet(), Math::max);
+    }
+
+    void streamFinished() {
+        streams.decrementAndGet();
+    }
+
+    /**
+     * @return max number of streams in flight at the same time, for all the
+     *         connections
+     */
+    int getPeakStreams() {
+        return peakStreams.get();
+    }
+
+    int getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * @return {@link System#nanoTime()} of the last connection established, -1 if
+     *         none
+     */
+    long getLastConnected() {
+        return lastConnected;
+    }
+
+    @Override
+    public void close() {
+        clients.values().forEach(WebClient::close);
+        clients.clear();
+    }
+
+}
@@ -0,0 +1,166 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Counts HTTP/2 DATA and WINDOW_UPDATE frames, and flow-control stalls, from the
+ * Netty frame log (HTTP/2 client is created with activity logging). Vert.x does
+ * not expose flow-control events otherwise.
+ * <p>
+ * Receive windows are tracked per connection and per stream: DATA frames from
+ * the server use the window up, WINDOW_UPDATE frames we send give it back. A
+ * stall is counted each time a window is used up completely, so the server has
+ * to wait for our WINDOW_UPDATE before it can send more.
+ */
+final class Http2FlowControlMonitor extends Handler {
+
+    static final class Counters {
+        long dataFrames;
+        long dataBytes;
+        long windowUpdates;
+        long stalls;
+
+        Counters copy() {
+            Counters result = new Counters();
+            result.dataFrames = dataFrames;
+            result.dataBytes = dataBytes;
+            result.windowUpdates = windowUpdates;
+            result.stalls = stalls;
+            return result;
+        }
+
+        Counters minus(Counters other) {
+            Counters result = new Counters();
+            result.dataFrames = dataFrames - other.dataFrames;
+            result.dataBytes = dataBytes - other.dataBytes;
+            result.windowUpdates = windowUpdates - other.windowUpdates;
+            result.stalls = stalls - other.stalls;
+            return result;
+        }
+    }
+
+    private static final String FRAME_LOGGER = "io.netty.handler.codec.http2.Http2FrameLogger";
+    // default SETTINGS_INITIAL_WINDOW_SIZE, and the initial connection window
+    private static final int DEFAULT_WINDOW = 65535;
+
+    private static final Pattern PATTERN_FRAME = Pattern
+            .compile("^\\[id: (0x[0-9a-f]+)[^\\]]*\\] (INBOUND|OUTBOUND) (DATA|WINDOW_UPDATE): (.*)$");
+    private static final Pattern PATTERN_DATA = Pattern
+            .compile("streamId=(\\d+) padding=(\\d+) endStream=(\\w+) length=(\\d+).*");
+    private static final Pattern PATTERN_WINDOW_UPDATE = Pattern
+            .compile("streamId=(\\d+) windowSizeIncrement=(\\d+).*");
+    private static final Pattern PATTERN_PLACEHOLDER = Pattern.compile("{}", Pattern.LITERAL);
+
+    private final int initialStreamWindow;
+    private final Counters counters = new Counters();
+    // remaining receive window by "channel id/stream id", stream 0 is the
+    // connection window
+    private final Map<String, Long> windows = new HashMap<>();
+    private Logger logger;
+
+    /**
+     * @param initialStreamWindow SETTINGS_INITIAL_WINDOW_SIZE sent by the client,
+     *                            -1 for the default
+     */
+    Http2FlowControlMonitor(int initialStreamWindow) {
+        this.initialStreamWindow = initialStreamWindow == -1 ? DEFAULT_WINDOW : initialStreamWindow;
+        setLevel(Level.ALL);
+    }
+
+    void install() {
+        logger = Logger.getLogger(FRAME_LOGGER);
+        logger.addHandler(this);
+    }
+
+    synchronized Counters snapshot() {
+        return counters.copy();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        String message = formatMessage(record);
+        if (message == null) {
+            return;
+        }
+        Matcher frame = PATTERN_FRAME.matcher(message);
+        if (!frame.matches()) {
+            return;
+        }
+        boolean inbound = "INBOUND".equals(frame.group(2));
+        if ("DATA".equals(frame.group(3)) && inbound) {
+            Matcher data = PATTERN_DATA.matcher(frame.group(4));
+            if (data.matches()) {
+                long length = Long.parseLong(data.group(2)) + Long.parseLong(data.group(4));
+                onData(frame.group(1), data.group(1), length, Boolean.parseBoolean(data.group(3)));
+            }
+        } else if ("WINDOW_UPDATE".equals(frame.group(3)) && !inbound) {
+            Matcher update = PATTERN_WINDOW_UPDATE.matcher(frame.group(4));
+            if (update.matches()) {
+                onWindowUpdate(frame.group(1), update.group(1), Long.parseLong(update.group(2)));
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        // noop
+    }
+
+    @Override
+    public void close() {
+        if (logger != null) {
+            logger.removeHandler(this);
+            logger = null;
+        }
+    }
+
+    private synchronized void onData(String channel, String streamId, long length, boolean endStream) {
+        counters.dataFrames++;
+        counters.dataBytes += length;
+        consume(channel + "/0", DEFAULT_WINDOW, length);
+        consume(channel + "/" + streamId, initialStreamWindow, length);
+        if (endStream) {
+            windows.remove(channel + "/" + streamId);
+        }
+    }
+
+    private synchronized void onWindowUpdate(String channel, String streamId, long increment) {
+        counters.windowUpdates++;
+        String key = channel + "/" + streamId;
+        long initial = "0".equals(streamId) ? DEFAULT_WINDOW : initialStreamWindow;
+        windows.put(key, windows.getOrDefault(key, initial) + increment);
+    }
+
+    private void consume(String key, long initial, long length) {
+        long window = windows.getOrDefault(key, initial);
+        if (length > 0 && window > 0 && window - length <= 0) {
+            counters.stalls++;
+        }
+        windows.put(key, window - length);
+    }
+
+    private static String formatMessage(LogRecord record) {
+        String message = record.getMessage();
+        Object[] parameters = record.getParameters();
+        if (message == null || parameters == null || parameters.length == 0 || !message.contains("{}")) {
+            return message;
+        }
+        StringBuilder result = new StringBuilder();
+        Matcher placeholder = PATTERN_PLACEHOLDER.matcher(message);
+        int i = 0;
+        while (placeholder.find()) {
+            placeholder.appendReplacement(result,
+                    Matcher.quoteReplacement(i < parameters.length ? String.valueOf(parameters[i++]) : "{}"));
+        }
+        placeholder.appendTail(result);
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.net.Socket;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Pool of idle raw HTTP/2 connections, one queue per host:port and TLS flag.
+ * A connection is used by one sender at a time, concurrent streams of a
+ * request are sent on the same connection. Connections are made with
+ * {@link Http1ConnectionPool#connect}, over TLS with "h2" ALPN, or in clear
+ * text (h2c) with prior knowledge or HTTP/1.1 Upgrade.
+ */
+final class Http2RawClient implements AutoCloseable {
+
+    private static final String ALPN_H2 = "h2";
+
+    private final Http1ConnectionPool connector;
+    private final Http2RawConnection.Options options;
+    private final Map<String, Deque<Http2RawConnection>> idle = new ConcurrentHashMap<>();
+
+    Http2RawClient(Http1ConnectionPool connector, Http2RawConnection.Options options) {
+        this.connector = connector;
+        this.options = options;
+    }
+
+    /**
+     * @param timings start should be set, DNS, connect and TLS are set for a new
+     *                connection, reused flag otherwise
+     */
+    Http2RawConnection acquire(boolean useTls, String host, int port, PhaseTimings timings) throws Exception {
+        String key = (useTls ? "https://" : "http://") + host + ":" + port;
+        Deque<Http2RawConnection> connections = idle.get(key);
+        if (connections != null) {
+            for (Http2RawConnection connection = null; (connection = connections.pollFirst()) != null;) {
+                if (connection.isReusable()) {
+                    timings.reused = true;
+                    return connection;
+                }
+                connection.close();
+            }
+        }
+        Socket socket = connector.connect(useTls, host, port, useTls ? ALPN_H2 : null, timings);
+        try {
+            return new Http2RawConnection(key, socket, options);
+        } catch (Exception e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the connection back to the pool, or closes it if no more streams
+     * can be opened on it.
+     */
+    void release(Http2RawConnection connection) {
+        if (connection.isReusable()) {
+            idle.computeIfAbsent(connection.key, k -> new ConcurrentLinkedDeque<>()).addFirst(connection);
+        } else {
+            connection.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        idle.values().forEach(connections -> {
+            for (Http2RawConnection connection = null; (connection = connections.pollFirst()) != null;) {
+                connection.close();
+            }
+        });
+    }
+
+}
@@ -0,0 +1,748 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.SSLSocket;
+
+import org.ng.utils.cmd.httpSender.Main.Header;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersDecoder;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.vertx.core.http.Http2Settings;
+
+/**
+ * Client side of an HTTP/2 connection (RFC 7540) speaking frames directly over
+ * the socket, so frame sizes, HEADERS/CONTINUATION split, HPACK indexing and
+ * DATA frames are under control of the tool and every frame can be logged.
+ * Header blocks from the server are decoded with the Netty HPACK decoder.
+ * <p>
+ * Everything runs on the calling thread: frames of the requests are written,
+ * flushed at once, then frames from the server are read and handled one by
+ * one, until all the streams are complete. Server push is disabled, priorities
+ * are not sent.
+ * <p>
+ * Clear text connection (h2c) starts with the preface right away (prior
+ * knowledge), or the first request is sent as HTTP/1.1 with "Upgrade: h2c",
+ * and its response comes on stream 1 after "101 Switching Protocols".
+ */
+final class Http2RawConnection implements AutoCloseable {
+
+    static final class Options {
+        /** SETTINGS sent to the server, also the receive windows */
+        Http2Settings settings = new Http2Settings();
+        /** connection receive window, -1 for the default */
+        int connectionWindow = -1;
+        /** max header block fragment in HEADERS and CONTINUATION frames, -1 for the server max frame size */
+        int headersFrameSize = -1;
+        /** max DATA frame payload, -1 for the server max frame size */
+        int dataFrameSize = -1;
+        HpackEncoder.Indexing indexing = HpackEncoder.Indexing.INCREMENTAL;
+        /** start clear text connections with HTTP/1.1 Upgrade instead of prior knowledge */
+        boolean h2cUpgrade;
+    }
+
+    static final class Stream {
+        /** request header fields, pseudo-headers first, names in lower case */
+        final List<String[]> headers;
+        /** request body, null if there is none */
+        final ByteSlice body;
+        final OutputStream bodySink;
+        final PhaseTimings timings;
+
+        int id;
+        int statusCode = -1;
+        final List<Header> responseHeaders = new ArrayList<>();
+        final List<Header> trailers = new ArrayList<>();
+        long bytesIn;
+        /** reason the stream failed, null if the response was received */
+        String error;
+
+        private int bodyOffset;
+        private boolean requestSent;
+        private long sendWindow;
+        private int unacknowledged;
+
+        Stream(List<String[]> headers, ByteSlice body, OutputStream bodySink, PhaseTimings timings) {
+            this.headers = headers;
+            this.body = body;
+            this.bodySink = bodySink;
+            this.timings = timings;
+        }
+    }
+
+    static final class Frame {
+        final long nanos;
+        final boolean outbound;
+        final int type;
+        final int flags;
+        final int streamId;
+        final int length;
+
+        private Frame(long nanos, boolean outbound, int type, int flags, int streamId, int length) {
+            this.nanos = nanos;
+            this.outbound = outbound;
+            this.type = type;
+            this.flags = flags;
+            this.streamId = streamId;
+            this.length = length;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            result.append(outbound ? "OUT " : "IN  ");
+            result.append(String.format("%-13s stream=%d length=%d", typeName(type), streamId, length));
+            String separator = " ";
+            for (int flag : new int[] { FLAG_ACK_END_STREAM, FLAG_END_HEADERS, FLAG_PADDED, FLAG_PRIORITY }) {
+                if ((flags & flag) != 0) {
+                    result.append(separator).append(flagName(type, flag));
+                    separator = "|";
+                }
+            }
+            return result.toString();
+        }
+    }
+
+    static final int DEFAULT_WINDOW = 65535;
+    static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int FRAME_HEADER_LENGTH = 9;
+    private static final int MAX_STREAM_ID = Integer.MAX_VALUE;
+
+    private static final int TYPE_DATA = 0x0;
+    private static final int TYPE_HEADERS = 0x1;
+    private static final int TYPE_PRIORITY = 0x2;
+    private static final int TYPE_RST_STREAM = 0x3;
+    private static final int TYPE_SETTINGS = 0x4;
+    private static final int TYPE_PUSH_PROMISE = 0x5;
+    private static final int TYPE_PING = 0x6;
+    private static final int TYPE_GOAWAY = 0x7;
+    private static final int TYPE_WINDOW_UPDATE = 0x8;
+    private static final int TYPE_CONTINUATION = 0x9;
+
+    // END_STREAM for DATA and HEADERS, ACK for SETTINGS and PING
+    private static final int FLAG_ACK_END_STREAM = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    private static final String[] ERROR_CODES = { "NO_ERROR", "PROTOCOL_ERROR", "INTERNAL_ERROR",
+            "FLOW_CONTROL_ERROR", "SETTINGS_TIMEOUT", "STREAM_CLOSED", "FRAME_SIZE_ERROR", "REFUSED_STREAM", "CANCEL",
+            "COMPRESSION_ERROR", "CONNECT_ERROR", "ENHANCE_YOUR_CALM", "INADEQUATE_SECURITY", "HTTP_1_1_REQUIRED" };
+
+    final String key;
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final Options options;
+    private final HpackEncoder encoder;
+    private final DefaultHttp2HeadersDecoder decoder;
+    private final int receiveStreamWindow;
+    private final int receiveConnectionWindow;
+    private final boolean upgrade;
+
+    private boolean prefaceSent;
+    private boolean settingsReceived;
+    private long peerMaxConcurrentStreams = Long.MAX_VALUE;
+    private long peerInitialWindow = DEFAULT_WINDOW;
+    private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private long connectionSendWindow = DEFAULT_WINDOW;
+    private int connectionUnacknowledged;
+
+    private int nextStreamId = 1;
+    private int goAwayLastStreamId = -1;
+    private boolean broken;
+    private final Map<Integer, Stream> active = new LinkedHashMap<>();
+    private final byte[] frameHeader = new byte[FRAME_HEADER_LENGTH];
+    private byte[] payload = new byte[DEFAULT_MAX_FRAME_SIZE];
+    // header block split into HEADERS and CONTINUATION frames
+    private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+    private int headerBlockStreamId;
+    private boolean headerBlockEndStream;
+    private List<Frame> frameLog;
+
+    /**
+     * @param socket connected socket, the connection preface is sent with the
+     *               first exchange
+     */
+    Http2RawConnection(String key, Socket socket, Options options) throws IOException {
+        this.key = key;
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 16 * 1024));
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+        this.options = options;
+        this.encoder = new HpackEncoder(options.indexing);
+        this.decoder = new DefaultHttp2HeadersDecoder(false, options.settings.getMaxHeaderListSize());
+        try {
+            decoder.configuration().maxHeaderTableSize(options.settings.getHeaderTableSize());
+        } catch (Http2Exception e) {
+            throw new IllegalArgumentException(e);
+        }
+        this.receiveStreamWindow = options.settings.getInitialWindowSize();
+        this.receiveConnectionWindow = Math.max(options.connectionWindow, DEFAULT_WINDOW);
+        this.upgrade = options.h2cUpgrade && !(socket instanceof SSLSocket);
+    }
+
+    InetAddress getRemoteAddress() {
+        return socket.getInetAddress();
+    }
+
+    /**
+     * @return {@code true} if new streams can be opened on this connection
+     */
+    boolean isReusable() {
+        return !broken && goAwayLastStreamId == -1 && !socket.isClosed() && nextStreamId < MAX_STREAM_ID - 2;
+    }
+
+    /**
+     * Sends the requests as concurrent streams (up to the server's
+     * SETTINGS_MAX_CONCURRENT_STREAMS) and reads the responses. Failed streams
+     * have {@link Stream#error} set. The first exchange on a connection sends the
+     * preface with SETTINGS (and WINDOW_UPDATE for a larger connection window),
+     * and waits for the server SETTINGS before opening streams. With h2c upgrade
+     * the first stream is sent as the HTTP/1.1 upgrade request, and the other
+     * streams are opened with the default limits until the server SETTINGS
+     * come (some servers answer the upgraded request first).
+     *
+     * @param frameLog list to add sent and received frames to, or {@code null}
+     */
+    void exchange(List<Stream> streams, List<Frame> frameLog) throws IOException {
+        this.frameLog = frameLog;
+        try {
+            Deque<Stream> pending = new ArrayDeque<>(streams);
+            if (!prefaceSent) {
+                if (upgrade) {
+                    upgrade(pending.poll());
+                }
+                out.write(PREFACE);
+                writeSettings();
+                if (receiveConnectionWindow > DEFAULT_WINDOW) {
+                    writeWindowUpdate(0, receiveConnectionWindow - DEFAULT_WINDOW);
+                }
+                out.flush();
+                prefaceSent = true;
+            }
+            while (!settingsReceived && !upgrade) {
+                readFrame();
+            }
+            while (!pending.isEmpty() || !active.isEmpty()) {
+                while (!pending.isEmpty() && active.size() < peerMaxConcurrentStreams) {
+                    Stream stream = pending.poll();
+                    if (goAwayLastStreamId != -1 || nextStreamId >= MAX_STREAM_ID - 2) {
+                        stream.error = "Connection is going away, stream was not opened";
+                        continue;
+                    }
+                    openStream(stream);
+                }
+                writeData();
+                out.flush();
+                long flushed = System.nanoTime();
+                for (Stream stream : active.values()) {
+                    if (stream.requestSent && stream.timings.writeDone == -1) {
+                        stream.timings.writeDone = flushed;
+                    }
+                }
+                if (!active.isEmpty()) {
+                    readFrame();
+                }
+            }
+            out.flush();
+        } catch (IOException | RuntimeException e) {
+            broken = true;
+            throw e;
+        } finally {
+            this.frameLog = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (!broken && !socket.isClosed()) {
+                writeGoAway();
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the connection is closed anyway
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // noop
+        }
+    }
+
+    /**
+     * Sends the stream request as HTTP/1.1 with "Upgrade: h2c" and reads the 101
+     * response, the stream continues as stream 1 of the connection.
+     */
+    private void upgrade(Stream stream) throws IOException {
+        String method = null;
+        String path = null;
+        String authority = null;
+        StringBuilder fields = new StringBuilder();
+        boolean hasContentLength = false;
+        for (String[] header : stream.headers) {
+            switch (header[0]) {
+                case ":method":
+                    method = header[1];
+                    break;
+                case ":path":
+                    path = header[1];
+                    break;
+                case ":authority":
+                    authority = header[1];
+                    break;
+                case ":scheme":
+                    break;
+                default:
+                    hasContentLength |= "content-length".equals(header[0]);
+                    fields.append(header[0]).append(": ").append(header[1]).append("\r\n");
+                    break;
+            }
+        }
+        if (!hasContentLength && stream.body != null) {
+            fields.append("content-length: ").append(stream.body.length()).append("\r\n");
+        }
+        String head = method + " " + path + " HTTP/1.1\r\n" //
+                + "Host: " + authority + "\r\n" //
+                + fields //
+                + "Connection: Upgrade, HTTP2-Settings\r\n" //
+                + "Upgrade: h2c\r\n" //
+                + "HTTP2-Settings: " + Base64.getUrlEncoder().withoutPadding().encodeToString(settingsPayload())
+                + "\r\n\r\n";
+        out.write(head.getBytes(StandardCharsets.UTF_8));
+        if (stream.body != null) {
+            stream.body.writeTo(out);
+        }
+        out.flush();
+        stream.timings.writeDone = System.nanoTime();
+
+        // response head, up to the empty line
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        int last = 0;
+        while (last != 0x0D0A0D0A) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Connection closed by the server during h2c upgrade");
+            }
+            if (response.size() == 64 * 1024) {
+                throw new IOException("Too long response to h2c upgrade request");
+            }
+            response.write(b);
+            last = (last << 8) | b;
+        }
+        stream.timings.firstByte = System.nanoTime();
+        String statusLine = response.toString(StandardCharsets.ISO_8859_1).split("\r\n", 2)[0];
+        if (!statusLine.startsWith("HTTP/1.1 101")) {
+            broken = true;
+            throw new IOException("Server did not switch to h2c: " + statusLine);
+        }
+        stream.id = 1;
+        nextStreamId = 3;
+        stream.sendWindow = peerInitialWindow;
+        stream.requestSent = true;
+        active.put(stream.id, stream);
+    }
+
+    private void openStream(Stream stream) throws IOException {
+        stream.id = nextStreamId;
+        nextStreamId += 2;
+        stream.sendWindow = peerInitialWindow;
+        active.put(stream.id, stream);
+
+        byte[] block = encoder.encode(stream.headers);
+        int fragmentSize = options.headersFrameSize == -1 ? peerMaxFrameSize
+                : Math.min(options.headersFrameSize, peerMaxFrameSize);
+        boolean endStream = stream.body == null || stream.body.length() == 0;
+        int length = Math.min(fragmentSize, block.length);
+        int flags = (endStream ? FLAG_ACK_END_STREAM : 0) | (length == block.length ? FLAG_END_HEADERS : 0);
+        writeFrame(TYPE_HEADERS, flags, stream.id, block, 0, length);
+        for (int pos = length; pos < block.length; pos += length) {
+            length = Math.min(fragmentSize, block.length - pos);
+            writeFrame(TYPE_CONTINUATION, pos + length == block.length ? FLAG_END_HEADERS : 0, stream.id, block, pos,
+                    length);
+        }
+        stream.requestSent = endStream;
+    }
+
+    /**
+     * Writes request bodies of the open streams, as much as the flow-control
+     * windows allow.
+     */
+    private void writeData() throws IOException {
+        int frameSize = options.dataFrameSize == -1 ? peerMaxFrameSize
+                : Math.min(options.dataFrameSize, peerMaxFrameSize);
+        for (Stream stream : active.values()) {
+            while (!stream.requestSent) {
+                long window = Math.min(stream.sendWindow, connectionSendWindow);
+                int length = (int) Math.min(Math.min(frameSize, stream.body.length() - stream.bodyOffset), window);
+                if (length <= 0) {
+                    break;
+                }
+                boolean endStream = stream.bodyOffset + length == stream.body.length();
+                writeFrame(TYPE_DATA, endStream ? FLAG_ACK_END_STREAM : 0, stream.id,
+                        stream.body.slice(stream.bodyOffset, stream.bodyOffset + length));
+                stream.bodyOffset += length;
+                stream.sendWindow -= length;
+                connectionSendWindow -= length;
+                stream.requestSent = endStream;
+            }
+        }
+    }
+
+    private void readFrame() throws IOException {
+        try {
+            in.readFully(frameHeader);
+        } catch (EOFException e) {
+            throw new EOFException("Connection closed by the server");
+        }
+        int length = ((frameHeader[0] & 0xFF) << 16) | ((frameHeader[1] & 0xFF) << 8) | (frameHeader[2] & 0xFF);
+        int type = frameHeader[3] & 0xFF;
+        int flags = frameHeader[4] & 0xFF;
+        int streamId = readInt(frameHeader, 5) & 0x7FFFFFFF;
+        if (length > options.settings.getMaxFrameSize()) {
+            throw new IOException("Frame of " + length + " bytes exceeds SETTINGS_MAX_FRAME_SIZE");
+        }
+        if (payload.length < length) {
+            payload = new byte[length];
+        }
+        in.readFully(payload, 0, length);
+        long now = System.nanoTime();
+        if (frameLog != null) {
+            frameLog.add(new Frame(now, false, type, flags, streamId, length));
+        }
+        if (headerBlockStreamId != 0 && (type != TYPE_CONTINUATION || streamId != headerBlockStreamId)) {
+            throw new IOException("Header block of stream " + headerBlockStreamId + " was interrupted by "
+                    + typeName(type) + " frame");
+        }
+        Stream stream = streamId == 0 ? null : active.get(streamId);
+        if (stream != null && stream.timings.firstByte == -1) {
+            stream.timings.firstByte = now;
+        }
+
+        switch (type) {
+            case TYPE_DATA:
+                onData(stream, flags, length);
+                break;
+            case TYPE_HEADERS: {
+                int padding = (flags & FLAG_PADDED) != 0 ? payload[0] & 0xFF : 0;
+                int offset = ((flags & FLAG_PADDED) != 0 ? 1 : 0) + ((flags & FLAG_PRIORITY) != 0 ? 5 : 0);
+                if (offset + padding > length) {
+                    throw new IOException("Invalid padding of HEADERS frame");
+                }
+                headerBlock.reset();
+                headerBlock.write(payload, offset, length - offset - padding);
+                headerBlockStreamId = streamId;
+                headerBlockEndStream = (flags & FLAG_ACK_END_STREAM) != 0;
+                if ((flags & FLAG_END_HEADERS) != 0) {
+                    onHeaderBlock(now);
+                }
+                break;
+            }
+            case TYPE_CONTINUATION:
+                if (headerBlockStreamId == 0) {
+                    throw new IOException("Unexpected CONTINUATION frame");
+                }
+                headerBlock.write(payload, 0, length);
+                if ((flags & FLAG_END_HEADERS) != 0) {
+                    onHeaderBlock(now);
+                }
+                break;
+            case TYPE_RST_STREAM:
+                if (stream != null) {
+                    stream.error = "Stream reset by the server: " + errorName(readInt(payload, 0));
+                    active.remove(streamId);
+                }
+                break;
+            case TYPE_SETTINGS:
+                if ((flags & FLAG_ACK_END_STREAM) == 0) {
+                    onSettings(length);
+                }
+                break;
+            case TYPE_PING:
+                if ((flags & FLAG_ACK_END_STREAM) == 0) {
+                    writeFrame(TYPE_PING, FLAG_ACK_END_STREAM, 0, payload, 0, length);
+                }
+                break;
+            case TYPE_GOAWAY:
+                onGoAway(readInt(payload, 0) & 0x7FFFFFFF, readInt(payload, 4));
+                break;
+            case TYPE_WINDOW_UPDATE: {
+                int increment = readInt(payload, 0) & 0x7FFFFFFF;
+                if (streamId == 0) {
+                    connectionSendWindow += increment;
+                } else if (stream != null) {
+                    stream.sendWindow += increment;
+                }
+                break;
+            }
+            case TYPE_PUSH_PROMISE:
+                throw new IOException("PUSH_PROMISE received, while push is disabled");
+            default:
+                // PRIORITY and unknown frames are ignored
+                break;
+        }
+    }
+
+    private void onData(Stream stream, int flags, int length) throws IOException {
+        int padding = (flags & FLAG_PADDED) != 0 ? payload[0] & 0xFF : 0;
+        int offset = (flags & FLAG_PADDED) != 0 ? 1 : 0;
+        if (offset + padding > length) {
+            throw new IOException("Invalid padding of DATA frame");
+        }
+        // padding is flow-controlled as well
+        connectionUnacknowledged += length;
+        if (connectionUnacknowledged >= receiveConnectionWindow / 2) {
+            writeWindowUpdate(0, connectionUnacknowledged);
+            connectionUnacknowledged = 0;
+        }
+        if (stream == null) {
+            return;
+        }
+        stream.bytesIn += length - offset - padding;
+        stream.bodySink.write(payload, offset, length - offset - padding);
+        if ((flags & FLAG_ACK_END_STREAM) != 0) {
+            complete(stream);
+            return;
+        }
+        stream.unacknowledged += length;
+        if (stream.unacknowledged >= receiveStreamWindow / 2) {
+            writeWindowUpdate(stream.id, stream.unacknowledged);
+            stream.unacknowledged = 0;
+        }
+    }
+
+    private void onHeaderBlock(long now) throws IOException {
+        int streamId = headerBlockStreamId;
+        headerBlockStreamId = 0;
+        Http2Headers headers;
+        try {
+            // the block is decoded even for an unknown stream, to keep HPACK state in sync
+            headers = decoder.decodeHeaders(streamId, Unpooled.wrappedBuffer(headerBlock.toByteArray()));
+        } catch (Http2Exception e) {
+            throw new IOException("Failed decoding header block: " + e.getMessage(), e);
+        }
+        Stream stream = active.get(streamId);
+        if (stream == null) {
+            return;
+        }
+        if (stream.statusCode == -1) {
+            CharSequence status = headers.status();
+            if (status == null) {
+                throw new IOException("Response of stream " + streamId + " has no :status");
+            }
+            int statusCode = Integer.parseInt(status.toString());
+            if (statusCode >= 200 || headerBlockEndStream) {
+                stream.statusCode = statusCode;
+                addHeaders(headers, stream.responseHeaders);
+            }
+            // informational responses are skipped
+        } else {
+            addHeaders(headers, stream.trailers);
+        }
+        if (headerBlockEndStream) {
+            complete(stream);
+        }
+    }
+
+    private void onSettings(int length) throws IOException {
+        for (int pos = 0; pos + 6 <= length; pos += 6) {
+            int id = ((payload[pos] & 0xFF) << 8) | (payload[pos + 1] & 0xFF);
+            long value = readInt(payload, pos + 2) & 0xFFFFFFFFL;
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    encoder.setMaxTableSize((int) Math.min(value, HpackEncoder.DEFAULT_TABLE_SIZE));
+                    break;
+                case SETTINGS_MAX_CONCURRENT_STREAMS:
+                    peerMaxConcurrentStreams = value;
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    // the difference applies to all the open streams
+                    for (Stream stream : active.values()) {
+                        stream.sendWindow += value - peerInitialWindow;
+                    }
+                    peerInitialWindow = value;
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    peerMaxFrameSize = (int) value;
+                    break;
+                default:
+                    break;
+            }
+        }
+        writeFrame(TYPE_SETTINGS, FLAG_ACK_END_STREAM, 0, payload, 0, 0);
+        settingsReceived = true;
+    }
+
+    private void onGoAway(int lastStreamId, int errorCode) {
+        goAwayLastStreamId = lastStreamId;
+        for (Iterator<Stream> i = active.values().iterator(); i.hasNext();) {
+            Stream stream = i.next();
+            if (stream.id > lastStreamId) {
+                stream.error = "Stream was not processed, GOAWAY received: " + errorName(errorCode);
+                i.remove();
+            }
+        }
+    }
+
+    private void complete(Stream stream) throws IOException {
+        stream.timings.lastByte = System.nanoTime();
+        active.remove(stream.id);
+        if (!stream.requestSent) {
+            // the server responded before the whole request body was sent
+            writeFrame(TYPE_RST_STREAM, 0, stream.id, new byte[4], 0, 4);
+            stream.requestSent = true;
+        }
+    }
+
+    private void writeSettings() throws IOException {
+        byte[] frame = settingsPayload();
+        writeFrame(TYPE_SETTINGS, 0, 0, frame, 0, frame.length);
+    }
+
+    private byte[] settingsPayload() {
+        Http2Settings settings = options.settings;
+        long[][] values = { //
+                { SETTINGS_HEADER_TABLE_SIZE, settings.getHeaderTableSize() }, //
+                { SETTINGS_ENABLE_PUSH, 0 }, //
+                { SETTINGS_MAX_CONCURRENT_STREAMS, settings.getMaxConcurrentStreams() }, //
+                { SETTINGS_INITIAL_WINDOW_SIZE, settings.getInitialWindowSize() }, //
+                { SETTINGS_MAX_FRAME_SIZE, settings.getMaxFrameSize() }, //
+                { SETTINGS_MAX_HEADER_LIST_SIZE, settings.getMaxHeaderListSize() } };
+        byte[] frame = new byte[values.length * 6];
+        for (int i = 0; i < values.length; i++) {
+            frame[i * 6] = (byte) (values[i][0] >>> 8);
+            frame[i * 6 + 1] = (byte) values[i][0];
+            writeInt(frame, i * 6 + 2, (int) values[i][1]);
+        }
+        return frame;
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] frame = new byte[4];
+        writeInt(frame, 0, increment);
+        writeFrame(TYPE_WINDOW_UPDATE, 0, streamId, frame, 0, 4);
+    }
+
+    private void writeGoAway() throws IOException {
+        // last stream id is 0, push is disabled so the server never opens streams
+        writeFrame(TYPE_GOAWAY, 0, 0, new byte[8], 0, 8);
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] b, int off, int len) throws IOException {
+        writeFrame(type, flags, streamId, ByteSlice.wrap(b, off, len));
+    }
+
+    private void writeFrame(int type, int flags, int streamId, ByteSlice payload) throws IOException {
+        int len = payload.length();
+        byte[] header = new byte[FRAME_HEADER_LENGTH];
+        header[0] = (byte) (len >>> 16);
+        header[1] = (byte) (len >>> 8);
+        header[2] = (byte) len;
+        header[3] = (byte) type;
+        header[4] = (byte) flags;
+        writeInt(header, 5, streamId);
+        out.write(header);
+        payload.writeTo(out);
+        if (frameLog != null) {
+            frameLog.add(new Frame(System.nanoTime(), true, type, flags, streamId, len));
+        }
+    }
+
+    private static void addHeaders(Http2Headers headers, List<Header> to) {
+        for (Map.Entry<CharSequence, CharSequence> entry : headers) {
+            if (entry.getKey().length() > 0 && entry.getKey().charAt(0) == ':') {
+                continue;
+            }
+            Header header = new Header();
+            header.name = entry.getKey().toString();
+            header.value = entry.getValue().toString();
+            to.add(header);
+        }
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8)
+                | (b[off + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] b, int off, int value) {
+        b[off] = (byte) (value >>> 24);
+        b[off + 1] = (byte) (value >>> 16);
+        b[off + 2] = (byte) (value >>> 8);
+        b[off + 3] = (byte) value;
+    }
+
+    private static String errorName(int code) {
+        return code >= 0 && code < ERROR_CODES.length ? ERROR_CODES[code] : "0x" + Integer.toHexString(code);
+    }
+
+    private static String typeName(int type) {
+        switch (type) {
+            case TYPE_DATA:
+                return "DATA";
+            case TYPE_HEADERS:
+                return "HEADERS";
+            case TYPE_PRIORITY:
+                return "PRIORITY";
+            case TYPE_RST_STREAM:
+                return "RST_STREAM";
+            case TYPE_SETTINGS:
+                return "SETTINGS";
+            case TYPE_PUSH_PROMISE:
+                return "PUSH_PROMISE";
+            case TYPE_PING:
+                return "PING";
+            case TYPE_GOAWAY:
+                return "GOAWAY";
+            case TYPE_WINDOW_UPDATE:
+                return "WINDOW_UPDATE";
+            case TYPE_CONTINUATION:
+                return "CONTINUATION";
+            default:
+                return "0x" + Integer.toHexString(type);
+        }
+    }
+
+    private static String flagName(int type, int flag) {
+        switch (flag) {
+            case FLAG_ACK_END_STREAM:
+                return type == TYPE_SETTINGS || type == TYPE_PING ? "ACK" : "END_STREAM";
+            case FLAG_END_HEADERS:
+                return "END_HEADERS";
+            case FLAG_PADDED:
+                return "PADDED";
+            default:
+                return "PRIORITY";
+        }
+    }
+
+}
@@ -0,0 +1,285 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Streaming decoder of gzip and deflate content codings: compressed bytes are
+ * written as they arrive, inflated bytes go to the downstream through a small
+ * fixed buffer, so neither compressed nor inflated body is held in memory.
+ * <p>
+ * The inflater works in raw (nowrap) mode, gzip header and trailer are parsed
+ * here. Deflate coding is zlib format according to the spec, but some servers
+ * send raw deflate data, both are accepted. {@link Inflater} instances are
+ * pooled, because their native state is expensive to create.
+ */
+final class InflatingOutputStream extends OutputStream {
+
+    enum Format {
+        GZIP, DEFLATE
+    }
+
+    private enum State {
+        HEADER, INFLATE, TRAILER, DONE
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int GZIP_FEXTRA = 4;
+    private static final int GZIP_FNAME = 8;
+    private static final int GZIP_FCOMMENT = 16;
+    private static final int GZIP_FHCRC = 2;
+
+    private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(64);
+
+    private final Format format;
+    private final OutputStream out;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private Inflater inflater;
+    private Checksum checksum;
+
+    private State state = State.HEADER;
+    private boolean started;
+    // gzip header is parsed byte by byte: position in the current header part,
+    // flags left to process and length of the extra field
+    private int headerPos;
+    private int gzipFlags;
+    private int extraLength;
+    private int firstByte;
+    private long trailer;
+    private int trailerPos;
+    private long inflatedSize;
+
+    InflatingOutputStream(Format format, OutputStream out) {
+        this.format = format;
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int pos = off;
+        int end = off + len;
+        if (len > 0) {
+            started = true;
+        }
+        while (pos < end) {
+            switch (state) {
+                case HEADER:
+                    if (format == Format.GZIP) {
+                        gzipHeaderByte(b[pos++] & 0xFF);
+                    } else {
+                        pos = deflateHeader(b, pos, end);
+                    }
+                    break;
+                case INFLATE:
+                    pos += inflate(b, pos, end - pos);
+                    break;
+                case TRAILER:
+                    trailerByte(b[pos++] & 0xFF);
+                    break;
+                case DONE:
+                    if (format != Format.GZIP) {
+                        throw new ZipException("Unexpected data after the end of deflate stream");
+                    }
+                    // next gzip member
+                    state = State.HEADER;
+                    headerPos = 0;
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Should be called after the whole body was written, it checks that the
+     * compressed stream is complete. Downstream is not closed.
+     */
+    void finish() throws IOException {
+        try {
+            if (started && state != State.DONE) {
+                throw new EOFException("Unexpected end of " + format.name().toLowerCase() + " stream");
+            }
+        } finally {
+            releaseInflater();
+        }
+    }
+
+    long getInflatedSize() {
+        return inflatedSize;
+    }
+
+    private void gzipHeaderByte(int b) throws IOException {
+        if (headerPos < 10) {
+            if ((headerPos == 0 && b != 0x1F) || (headerPos == 1 && b != 0x8B)) {
+                throw new ZipException("Not in gzip format");
+            }
+            if (headerPos == 2 && b != 8) {
+                throw new ZipException("Unsupported gzip compression method: " + b);
+            }
+            if (headerPos == 3) {
+                gzipFlags = b;
+            }
+            headerPos++;
+            if (headerPos == 10) {
+                nextGzipHeaderPart();
+            }
+        } else if ((gzipFlags & GZIP_FEXTRA) != 0) {
+            if (headerPos < 12) {
+                extraLength |= b << ((headerPos - 10) * 8);
+                headerPos++;
+            } else {
+                extraLength--;
+            }
+            if (headerPos == 12 && extraLength == 0) {
+                gzipFlags &= ~GZIP_FEXTRA;
+                nextGzipHeaderPart();
+            }
+        } else if ((gzipFlags & GZIP_FNAME) != 0) {
+            if (b == 0) {
+                gzipFlags &= ~GZIP_FNAME;
+                nextGzipHeaderPart();
+            }
+        } else if ((gzipFlags & GZIP_FCOMMENT) != 0) {
+            if (b == 0) {
+                gzipFlags &= ~GZIP_FCOMMENT;
+                nextGzipHeaderPart();
+            }
+        } else if ((gzipFlags & GZIP_FHCRC) != 0) {
+            // header CRC is not verified
+            if (++headerPos == 12) {
+                gzipFlags &= ~GZIP_FHCRC;
+                nextGzipHeaderPart();
+            }
+        }
+    }
+
+    private void nextGzipHeaderPart() {
+        headerPos = 10;
+        extraLength = 0;
+        if ((gzipFlags & (GZIP_FEXTRA | GZIP_FNAME | GZIP_FCOMMENT | GZIP_FHCRC)) == 0) {
+            startInflating(new CRC32());
+        }
+    }
+
+    private int deflateHeader(byte[] b, int pos, int end) throws IOException {
+        if (headerPos == 0) {
+            firstByte = b[pos] & 0xFF;
+            headerPos++;
+            return pos + 1;
+        }
+        int secondByte = b[pos] & 0xFF;
+        boolean zlib = (firstByte & 0x0F) == 8 && ((firstByte << 8) | secondByte) % 31 == 0;
+        if (zlib) {
+            if ((secondByte & 0x20) != 0) {
+                throw new ZipException("Preset dictionary is not supported");
+            }
+            startInflating(new Adler32());
+            return pos + 1;
+        }
+        // raw deflate, first byte is already consumed, so it is inflated separately
+        startInflating(null);
+        int consumed = inflate(new byte[] { (byte) firstByte }, 0, 1);
+        if (consumed != 1 || state != State.INFLATE) {
+            throw new ZipException("Invalid deflate stream");
+        }
+        return pos;
+    }
+
+    private void startInflating(Checksum checksum) {
+        if (inflater == null) {
+            inflater = INFLATERS.poll();
+            if (inflater == null) {
+                inflater = new Inflater(true);
+            }
+        } else {
+            inflater.reset();
+        }
+        this.checksum = checksum;
+        trailer = 0;
+        trailerPos = 0;
+        state = State.INFLATE;
+    }
+
+    private int inflate(byte[] b, int off, int len) throws IOException {
+        inflater.setInput(b, off, len);
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n > 0) {
+                    if (checksum != null) {
+                        checksum.update(buf, 0, n);
+                    }
+                    inflatedSize += n;
+                    out.write(buf, 0, n);
+                } else if (inflater.needsDictionary()) {
+                    throw new ZipException("Preset dictionary is not supported");
+                } else {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+        if (!inflater.finished()) {
+            return len;
+        }
+        state = checksum == null ? State.DONE : State.TRAILER;
+        return len - inflater.getRemaining();
+    }
+
+    private void trailerByte(int b) throws IOException {
+        if (format == Format.GZIP) {
+            // CRC32 and size of the member, both little-endian
+            trailer |= ((long) b) << ((trailerPos % 4) * 8);
+            trailerPos++;
+            if (trailerPos == 4) {
+                if (trailer != checksum.getValue()) {
+                    throw new ZipException("Corrupt gzip stream, CRC32 does not match");
+                }
+                trailer = 0;
+            } else if (trailerPos == 8) {
+                if (trailer != (inflater.getBytesWritten() & 0xFFFFFFFFL)) {
+                    throw new ZipException("Corrupt gzip stream, size does not match");
+                }
+                state = State.DONE;
+            }
+        } else {
+            // Adler-32, big-endian
+            trailer = (trailer << 8) | b;
+            if (++trailerPos == 4) {
+                if (trailer != checksum.getValue()) {
+                    throw new ZipException("Corrupt deflate stream, Adler-32 does not match");
+                }
+                state = State.DONE;
+            }
+        }
+    }
+
+    private void releaseInflater() {
+        if (inflater != null) {
+            inflater.reset();
+            if (!INFLATERS.offer(inflater)) {
+                inflater.end();
+            }
+            inflater = null;
+        }
+    }
+
+}
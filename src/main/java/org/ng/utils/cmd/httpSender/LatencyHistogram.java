@@ -0,0 +1,166 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Log-linear latency histogram (in the spirit of HdrHistogram), values are
+ * nanoseconds. Each power-of-two range is split into equal sub-buckets, which
+ * gives a relative error below 1% for any recorded value.
+ * <p>
+ * Not thread safe - callers synchronize externally: load senders record into
+ * the stripes of {@link LoadRunner.StripedStats} while holding the stripe's
+ * lock, and the stripes are merged with {@link #add(LatencyHistogram)}.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+    private static final int BUCKETS_LENGTH = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF;
+
+    private final long[] counts = new long[BUCKETS_LENGTH];
+    private long totalCount;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private double sum;
+
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[indexOf(value)]++;
+        totalCount++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    long getTotalCount() {
+        return totalCount;
+    }
+
+    long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    double getMean() {
+        return totalCount == 0 ? 0 : sum / totalCount;
+    }
+
+    /**
+     * @param percentile value in range [0, 100]
+     * @return highest value equivalent to the bucket the percentile falls into,
+     *         but never more than the max recorded value
+     */
+    long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= countAtPercentile) {
+                return Math.min(max, highestValueOf(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Encodes the histogram to a compact text that can be stored and merged
+     * later: base64 of variable-length numbers, min, max, sum and then pairs
+     * of the index distance from the previous non-empty bucket and its count.
+     */
+    String encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarLong(out, getMin());
+        writeVarLong(out, max);
+        writeVarLong(out, (long) sum);
+        for (int i = 0, previous = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                writeVarLong(out, i - previous);
+                writeVarLong(out, counts[i]);
+                previous = i;
+            }
+        }
+        return Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+
+    /**
+     * @param encoded text from {@link #encode()}
+     */
+    static LatencyHistogram decode(String encoded) {
+        ByteBuffer in = ByteBuffer.wrap(Base64.getDecoder().decode(encoded));
+        LatencyHistogram histogram = new LatencyHistogram();
+        long min = readVarLong(in);
+        histogram.max = readVarLong(in);
+        histogram.sum = readVarLong(in);
+        for (int i = 0; in.hasRemaining();) {
+            i += (int) readVarLong(in);
+            long count = readVarLong(in);
+            histogram.counts[i] += count;
+            histogram.totalCount += count;
+        }
+        if (histogram.totalCount != 0) {
+            histogram.min = min;
+        }
+        return histogram;
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        for (; (value & ~0x7FL) != 0; value >>>= 7) {
+            out.write((int) (value & 0x7F) | 0x80);
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (int) ((value >>> shift) - SUB_BUCKET_HALF);
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+}
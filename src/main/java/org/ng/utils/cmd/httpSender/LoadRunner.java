@@ -0,0 +1,260 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load generator: fires the same exchange {@code requests} times
+ * from {@code concurrency} workers, each worker sending the next request (or
+ * batch of pipelined requests) as soon as the previous one completes.
+ */
+final class LoadRunner {
+
+    interface Exchange {
+        /**
+         * @param count number of requests to send in one batch (pipelined)
+         */
+        List<ExchangeResult> send(int count) throws Exception;
+    }
+
+    static final class Stats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final Map<String, LatencyHistogram> latencyByAddress = new TreeMap<>();
+        final Map<String, Long> errors = new TreeMap<>();
+        final Map<Integer, Long> statusCodes = new TreeMap<>();
+        long requests;
+        long bytesOut;
+        long bytesIn;
+        long durationNanos;
+        // TLS handshakes of new connections and their total time
+        long tlsFull;
+        long tlsFullNanos;
+        long tlsResumed;
+        long tlsResumedNanos;
+        // connections opened and the max open at once, set by the NIO engine only
+        long connections;
+        int peakConnections;
+        // set by the rate runner only: latency is measured from the time a request was due, service time
+        // from the time it was sent; requests started over RateRunner.LATE_NANOS behind the schedule
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+        final LatencyHistogram startLag = new LatencyHistogram();
+        long late;
+        /** log every recorded request goes to, or {@code null}; not merged by add() */
+        private final ResultsLog log;
+
+        Stats() {
+            this(null);
+        }
+
+        Stats(ResultsLog log) {
+            this.log = log;
+        }
+
+        void add(Stats other) {
+            latency.add(other.latency);
+            other.latencyByAddress.forEach((k, v) -> latencyByAddress.computeIfAbsent(k, a -> new LatencyHistogram())
+                    .add(v));
+            other.errors.forEach((k, v) -> errors.merge(k, v, Long::sum));
+            other.statusCodes.forEach((k, v) -> statusCodes.merge(k, v, Long::sum));
+            requests += other.requests;
+            bytesOut += other.bytesOut;
+            bytesIn += other.bytesIn;
+            tlsFull += other.tlsFull;
+            tlsFullNanos += other.tlsFullNanos;
+            tlsResumed += other.tlsResumed;
+            tlsResumedNanos += other.tlsResumedNanos;
+            connections += other.connections;
+            serviceTime.add(other.serviceTime);
+            startLag.add(other.startLag);
+            late += other.late;
+        }
+
+        void record(ExchangeResult result, long latency) {
+            this.latency.record(latency);
+            if (result.address != null) {
+                latencyByAddress.computeIfAbsent(result.address, a -> new LatencyHistogram()).record(latency);
+            }
+            statusCodes.merge(result.statusCode, 1L, Long::sum);
+            bytesOut += result.bytesOut;
+            bytesIn += result.bytesIn;
+            recordHandshake(result.timings);
+            if (log != null) {
+                log.completed(result, latency);
+            }
+        }
+
+        void recordError(Exception e, long count) {
+            errors.merge(e.getClass().getName(), count, Long::sum);
+            if (log != null) {
+                log.failed(e.getClass().getName(), count);
+            }
+        }
+
+        void recordHandshake(PhaseTimings timings) {
+            if (timings == null || timings.tlsDone == -1 || timings.reused) {
+                return;
+            }
+            if (timings.tlsResumed) {
+                tlsResumed++;
+                tlsResumedNanos += timings.getTls();
+            } else {
+                tlsFull++;
+                tlsFullNanos += timings.getTls();
+            }
+        }
+
+        long getErrorCount() {
+            return errors.values().stream().mapToLong(Long::longValue).sum();
+        }
+    }
+
+    /**
+     * Stats the sender threads record to: a thread records to one of a few
+     * stripes, picked by its ID and locked while recording, so that thousands
+     * of (virtual) senders don't cost a set of histograms each.
+     */
+    static final class StripedStats {
+        private final Stats[] stripes;
+
+        /**
+         * @param log log of every request, or {@code null}
+         */
+        StripedStats(ResultsLog log) {
+            // a power of two, a few times the number of cores the senders run on
+            int count = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+            this.stripes = new Stats[count];
+            for (int i = 0; i < count; i++) {
+                stripes[i] = new Stats(log);
+            }
+        }
+
+        /**
+         * @return stats of the current thread, to be recorded to while
+         *         synchronized on them
+         */
+        Stats stripe() {
+            return stripes[(int) (Thread.currentThread().getId() & (stripes.length - 1))];
+        }
+
+        /**
+         * @return stats of all the stripes
+         */
+        Stats merge() {
+            Stats total = new Stats();
+            for (Stats stripe : stripes) {
+                synchronized (stripe) {
+                    total.add(stripe);
+                }
+            }
+            return total;
+        }
+    }
+
+    /** daemon platform threads for the workers */
+    static final ThreadFactory WORKER_THREADS = r -> {
+        Thread thread = new Thread(r, "load-worker");
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    private final long requests;
+    private final int concurrency;
+    private final int batchSize;
+    private final Exchange exchange;
+    private final ThreadFactory threadFactory;
+    private final ResultsLog log;
+
+    LoadRunner(long requests, int concurrency, int batchSize, Exchange exchange) {
+        this(requests, concurrency, batchSize, exchange, WORKER_THREADS, null);
+    }
+
+    /**
+     * @param threadFactory creates the worker threads, e.g. virtual ones
+     * @param log           log of every request, or {@code null}
+     */
+    LoadRunner(long requests, int concurrency, int batchSize, Exchange exchange, ThreadFactory threadFactory,
+            ResultsLog log) {
+        if (requests < 1) {
+            throw new IllegalArgumentException("Number of requests should be positive: " + requests);
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency should be positive: " + concurrency);
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size should be positive: " + batchSize);
+        }
+        this.requests = requests;
+        this.concurrency = (int) Math.min(concurrency, (requests + batchSize - 1) / batchSize);
+        this.batchSize = batchSize;
+        this.exchange = exchange;
+        this.threadFactory = threadFactory;
+        this.log = log;
+    }
+
+    Stats run() throws Exception {
+        AtomicLong remaining = new AtomicLong(requests);
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, threadFactory);
+        try {
+            StripedStats stats = new StripedStats(log);
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                futures.add(executor.submit(() -> runWorker(remaining, stats)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            Stats total = stats.merge();
+            total.durationNanos = System.nanoTime() - start;
+            return total;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void runWorker(AtomicLong remaining, StripedStats stats) {
+        for (int count = 0; (count = claim(remaining)) > 0;) {
+            long start = System.nanoTime();
+            List<ExchangeResult> results = null;
+            Exception failure = null;
+            try {
+                results = exchange.send(count);
+            } catch (Exception e) {
+                failure = e;
+            }
+            long elapsed = System.nanoTime() - start;
+            Stats stripe = stats.stripe();
+            synchronized (stripe) {
+                if (failure != null) {
+                    stripe.recordError(failure, count);
+                } else {
+                    for (ExchangeResult result : results) {
+                        stripe.record(result, result.latencyNanos == -1 ? elapsed : result.latencyNanos);
+                    }
+                }
+                stripe.requests += count;
+            }
+        }
+    }
+
+    private int claim(AtomicLong remaining) {
+        for (;;) {
+            long left = remaining.get();
+            if (left <= 0) {
+                return 0;
+            }
+            int count = (int) Math.min(left, batchSize);
+            if (remaining.compareAndSet(left, left - count)) {
+                return count;
+            }
+        }
+    }
+
+}
@@ -1,32 +1,53 @@
 package org.ng.utils.cmd.httpSender;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.FilterReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
 import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.security.SecureRandom;
-import java.security.cert.X509Certificate;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.InflaterInputStream;
 
 import javax.inject.Inject;
-import javax.net.SocketFactory;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
+import javax.xml.stream.XMLStreamException;
 
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,23 +55,54 @@ import io.netty.util.internal.logging.InternalLoggerFactory;
 import io.netty.util.internal.logging.Slf4JLoggerFactory;
 import io.quarkus.runtime.QuarkusApplication;
 import io.quarkus.runtime.annotations.QuarkusMain;
-import io.vertx.core.http.HttpVersion;
-import io.vertx.ext.web.client.WebClientOptions;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.Http2Settings;
+import io.vertx.mutiny.core.MultiMap;
 import io.vertx.mutiny.core.Vertx;
 import io.vertx.mutiny.core.buffer.Buffer;
+import io.vertx.mutiny.core.file.AsyncFile;
+import io.vertx.mutiny.core.streams.WriteStream;
 import io.vertx.mutiny.ext.web.client.HttpRequest;
 import io.vertx.mutiny.ext.web.client.HttpResponse;
 import io.vertx.mutiny.ext.web.client.WebClient;
+import io.vertx.mutiny.ext.web.codec.BodyCodec;
 
 @QuarkusMain
 public class Main implements QuarkusApplication {
 
-    private static final class Header {
+    static final class Header {
         String name;
         String value;
         String raw;
     }
 
+    static final class Request {
+        HttpType protocol;
+        boolean useTls;
+        String host;
+        int port = -1;
+        String path;
+        String method;
+        final List<Header> headers = new ArrayList<>();
+        byte[] body;
+        /** file the body is streamed from, set instead of the body for "@file" */
+        Path bodyFile;
+        /** HTTP/1 request compiled when it's parsed, before it's sent from the load threads */
+        volatile Http1Template http1Template;
+
+        /**
+         * @return length of the body or of the body file, -1 if there is no body
+         */
+        long bodyLength() throws IOException {
+            if (bodyFile != null) {
+                return Files.size(bodyFile);
+            }
+            return body == null ? -1 : body.length;
+        }
+    }
+
     private static final class MirroredOut {
         private final OutputStream outPrimary;
         private final OutputStream outSecondary;
@@ -65,21 +117,21 @@ public class Main implements QuarkusApplication {
         }
 
         void write(byte[] b) throws IOException {
-            outPrimary.write(b);
-            if (secondaryLimit == -1 || writtenToSecondary < secondaryLimit) {
-                outSecondary.write(b);
-                writtenToSecondary += b.length;
-            } else if (secondaryLimit != -1) {
-                writeSecondaryLimitMessage();
-            }
+            write(b, 0, b.length);
         }
 
-        void write(int b) throws IOException {
-            outPrimary.write(b);
-            if (secondaryLimit == -1 || writtenToSecondary < secondaryLimit) {
-                outSecondary.write(b);
-                writtenToSecondary++;
-            } else if (secondaryLimit != -1) {
+        void write(byte[] b, int off, int len) throws IOException {
+            outPrimary.write(b, off, len);
+            if (secondaryLimit == -1) {
+                outSecondary.write(b, off, len);
+                return;
+            }
+            int toSecondary = Math.min(len, secondaryLimit - writtenToSecondary);
+            if (toSecondary > 0) {
+                outSecondary.write(b, off, toSecondary);
+                writtenToSecondary += toSecondary;
+            }
+            if (toSecondary < len) {
                 writeSecondaryLimitMessage();
             }
         }
@@ -94,10 +146,52 @@ public class Main implements QuarkusApplication {
         }
     }
 
-    private enum HttpType {
+    enum HttpType {
         HTTP_1, HTTP_2
     }
 
+    private static final class FlushingOutputStream extends FilterOutputStream {
+        FlushingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            out.flush();
+        }
+    }
+
+    /**
+     * Keeps a copy of the characters read.
+     */
+    private static final class CapturingReader extends FilterReader {
+        private final StringBuilder copy;
+
+        CapturingReader(Reader in, StringBuilder copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = in.read();
+            if (c != -1) {
+                copy.append((char) c);
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int read = in.read(cbuf, off, len);
+            if (read > 0) {
+                copy.append(cbuf, off, read);
+            }
+            return read;
+        }
+    }
+
     @Inject
     Vertx vertx;
 
@@ -105,15 +199,58 @@ public class Main implements QuarkusApplication {
 
     private static final Charset CONVERSION_CHARSET = Charset.defaultCharset();
     private static final byte[] LS = "\r\n".getBytes(StandardCharsets.ISO_8859_1);
-    private static final byte[] HEADERS_SEP = "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final String BATCH_DELIMITER = "###";
+    private static final int UPLOAD_BUFFER_SIZE = 256 * 1024;
+    // templates are rendered to buffers of the sending thread, reused for every request
+    private static final ThreadLocal<Template.Output> RENDERED_REQUEST = ThreadLocal.withInitial(Template.Output::new);
+    private static final ThreadLocal<Template.Output> RENDERED_BODY = ThreadLocal.withInitial(Template.Output::new);
     private static final Pattern PATTERN_COLON_NOT_FIRST = Pattern.compile("(?<!^):");
-    private static final Pattern PATTERN_COLON = Pattern.compile(":", Pattern.LITERAL);
     private static final Pattern PATTERN_SPACE = Pattern.compile(" ", Pattern.LITERAL);
     private static final Pattern PATTERN_SEMICOLON = Pattern.compile(";", Pattern.LITERAL);
+    // arguments of the coordinator replaced with the share of every worker
+    private static final Set<String> COORDINATOR_ARGS = Set.of("-workers", "-token", "-n", "-c", "-rate",
+            "-stages");
+    // the only arguments a worker runs jobs with, and whether they take a value: the load
+    // profile and the shape of the requests, none that reads or writes files
+    private static final Map<String, Boolean> WORKER_ARGS = Map.ofEntries(Map.entry("-n", true),
+            Map.entry("-c", true), Map.entry("-rate", true), Map.entry("-stages", true), Map.entry("-tls", false),
+            Map.entry("-h2", false), Map.entry("-nio", true), Map.entry("-pipeline", true),
+            Map.entry("-virtual-threads", false), Map.entry("-stream", false), Map.entry("-h2-pool-size", true),
+            Map.entry("-h2-multiplexing", true), Map.entry("-h2-window", true), Map.entry("-h2-conn-window", true),
+            Map.entry("-h2-max-frame", true), Map.entry("-h2-header-table", true),
+            Map.entry("-h2-max-streams", true), Map.entry("-h2-flow-report", false),
+            Map.entry("-h2c-upgrade", false), Map.entry("-h2-raw", false), Map.entry("-h2-raw-headers-frame", true),
+            Map.entry("-h2-raw-data-frame", true), Map.entry("-h2-raw-hpack", true),
+            Map.entry("-spill-threshold", true), Map.entry("-dns-ttl", true), Map.entry("-spread-ips", false),
+            Map.entry("-timings", false));
 
     private InputStream systemIn;
     private PrintStream systemOut;
 
+    private Http1ConnectionPool http1Pool;
+    private Http1NioEngine http1Nio;
+    private boolean spreadIps;
+    private int pipelineDepth = 1;
+    private Http2ClientPool http2Pool;
+    private Http2RawClient http2RawClient;
+    private boolean streamBody;
+    private int spillThreshold = BodyCapture.DEFAULT_THRESHOLD;
+    private boolean printTimings;
+    private Writer timingsJson;
+    private ResultsLog resultsLog;
+    private Http2FlowControlMonitor flowControl;
+    private boolean virtualThreads;
+    private ThreadFactory workerThreads = LoadRunner.WORKER_THREADS;
+    private ThreadFactory readerThreads = Thread::new;
+    private Feeder feeder;
+    private RateRunner.Schedule rateSchedule;
+    /** numbers the requests for "${seq}" and the feeder rows */
+    private final AtomicLong requestSequence = new AtomicLong();
+    /** set for a job of a worker: awaited before the load starts */
+    private DistributedLoad.StartBarrier startBarrier;
+    /** stats of the last load, returned by a job of a worker */
+    private LoadRunner.Stats loadStats;
+
     public void setSystemStreams(InputStream in, PrintStream out) {
         this.systemIn = in;
         this.systemOut = out;
@@ -133,198 +270,1033 @@ public class Main implements QuarkusApplication {
 
         HttpType protocol = null;
 
+        long requestsCount = -1;
+        int concurrency = -1;
+        Path batchFile = null;
+        Path timingsJsonFile = null;
+        Path resultsFile = null;
+        Path histogramLogFile = null;
+        long histogramInterval = 1000;
+        Path feederFile = null;
+        String rate = null;
+        String stages = null;
+        InetSocketAddress workerAddress = null;
+        List<InetSocketAddress> workers = null;
+        String token = null;
+        int h2PoolSize = 1;
+        int h2MultiplexingLimit = -1;
+        Http2Settings h2Settings = new Http2Settings();
+        int h2ConnectionWindow = -1;
+        boolean h2FlowReport = false;
+        boolean h2cUpgrade = false;
+        boolean h2Raw = false;
+        long dnsTtl = HostResolver.DEFAULT_TTL_SECONDS;
+        int nioLoops = -1;
+        Http2RawConnection.Options h2RawOptions = new Http2RawConnection.Options();
+
         // parse arguments
-        for (String arg : args) {
-            switch (arg) {
-                case "-tls":
-                    useTls = true;
-                    break;
-                case "-h2":
-                    protocol = HttpType.HTTP_2;
-                    break;
-                default:
-                    printUsage();
-                    return 100;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-tls":
+                        useTls = true;
+                        break;
+                    case "-h2":
+                        protocol = HttpType.HTTP_2;
+                        break;
+                    case "-n":
+                        requestsCount = Long.parseLong(argValue(args, ++i));
+                        break;
+                    case "-c":
+                        concurrency = Integer.parseInt(argValue(args, ++i));
+                        break;
+                    case "-nio":
+                        nioLoops = positive(Integer.parseInt(argValue(args, ++i)));
+                        break;
+                    case "-rate":
+                        rate = argValue(args, ++i);
+                        break;
+                    case "-stages":
+                        stages = argValue(args, ++i);
+                        break;
+                    case "-worker":
+                        workerAddress = parseWorkerAddress(argValue(args, ++i));
+                        break;
+                    case "-workers":
+                        workers = parseWorkers(argValue(args, ++i));
+                        break;
+                    case "-token":
+                        token = argValue(args, ++i);
+                        break;
+                    case "-virtual-threads":
+                        virtualThreads = true;
+                        break;
+                    case "-stream":
+                        streamBody = true;
+                        break;
+                    case "-h2-pool-size":
+                        h2PoolSize = Integer.parseInt(argValue(args, ++i));
+                        break;
+                    case "-h2-multiplexing":
+                        h2MultiplexingLimit = Integer.parseInt(argValue(args, ++i));
+                        break;
+                    case "-h2-window":
+                        h2Settings.setInitialWindowSize(Integer.parseInt(argValue(args, ++i)));
+                        break;
+                    case "-h2-conn-window":
+                        h2ConnectionWindow = Integer.parseInt(argValue(args, ++i));
+                        if (h2ConnectionWindow < Http2Settings.DEFAULT_INITIAL_WINDOW_SIZE) {
+                            throw new IllegalArgumentException("Connection window can't be less than the default");
+                        }
+                        break;
+                    case "-h2-max-frame":
+                        h2Settings.setMaxFrameSize(Integer.parseInt(argValue(args, ++i)));
+                        break;
+                    case "-h2-header-table":
+                        h2Settings.setHeaderTableSize(Long.parseLong(argValue(args, ++i)));
+                        break;
+                    case "-h2-max-streams":
+                        h2Settings.setMaxConcurrentStreams(Long.parseLong(argValue(args, ++i)));
+                        break;
+                    case "-h2-flow-report":
+                        h2FlowReport = true;
+                        break;
+                    case "-h2c-upgrade":
+                        h2cUpgrade = true;
+                        break;
+                    case "-h2-raw":
+                        h2Raw = true;
+                        break;
+                    case "-h2-raw-headers-frame":
+                        h2RawOptions.headersFrameSize = positive(Integer.parseInt(argValue(args, ++i)));
+                        break;
+                    case "-h2-raw-data-frame":
+                        h2RawOptions.dataFrameSize = positive(Integer.parseInt(argValue(args, ++i)));
+                        break;
+                    case "-h2-raw-hpack":
+                        h2RawOptions.indexing = HpackEncoder.Indexing.valueOf(argValue(args, ++i).toUpperCase());
+                        break;
+                    case "-spill-threshold":
+                        spillThreshold = Integer.parseInt(argValue(args, ++i));
+                        if (spillThreshold < 0) {
+                            throw new IllegalArgumentException("Spill threshold can't be negative");
+                        }
+                        break;
+                    case "-dns-ttl":
+                        dnsTtl = Long.parseLong(argValue(args, ++i));
+                        if (dnsTtl < 0) {
+                            throw new IllegalArgumentException("DNS TTL can't be negative");
+                        }
+                        break;
+                    case "-spread-ips":
+                        spreadIps = true;
+                        break;
+                    case "-timings":
+                        printTimings = true;
+                        break;
+                    case "-timings-json":
+                        timingsJsonFile = Paths.get(argValue(args, ++i));
+                        break;
+                    case "-results":
+                        resultsFile = Paths.get(argValue(args, ++i));
+                        break;
+                    case "-histogram-log":
+                        histogramLogFile = Paths.get(argValue(args, ++i));
+                        break;
+                    case "-histogram-interval":
+                        histogramInterval = positive(Integer.parseInt(argValue(args, ++i)));
+                        break;
+                    case "-batch":
+                        batchFile = Paths.get(argValue(args, ++i));
+                        break;
+                    case "-feeder":
+                        feederFile = Paths.get(argValue(args, ++i));
+                        break;
+                    case "-pipeline":
+                        pipelineDepth = Integer.parseInt(argValue(args, ++i));
+                        if (pipelineDepth < 1) {
+                            throw new IllegalArgumentException("Pipeline depth should be positive");
+                        }
+                        break;
+                    default:
+                        printUsage();
+                        return 100;
+                }
             }
+            if (stages != null) {
+                rateSchedule = RateRunner.Schedule.parse(stages);
+                requestsCount = requestsCount == -1 ? rateSchedule.requests()
+                        : Math.min(requestsCount, rateSchedule.requests());
+            } else if (rate != null) {
+                if (requestsCount == -1) {
+                    throw new IllegalArgumentException("-rate needs -n");
+                }
+                rateSchedule = RateRunner.Schedule.constant(RateRunner.Schedule.parseRate(rate), requestsCount,
+                        rate);
+            }
+            if (rateSchedule != null) {
+                if (pipelineDepth > 1 || nioLoops != -1) {
+                    throw new IllegalArgumentException("-rate and -stages send requests one by one");
+                }
+                concurrency = concurrency == -1 ? RateRunner.DEFAULT_MAX_IN_FLIGHT : concurrency;
+            }
+            if (workers != null && (batchFile != null || requestsCount < workers.size())) {
+                throw new IllegalArgumentException("-workers needs at least a request per worker, and no -batch");
+            }
+            if (workers != null && (feederFile != null || resultsFile != null || histogramLogFile != null
+                    || timingsJsonFile != null)) {
+                throw new IllegalArgumentException("Workers don't read or write files");
+            }
+            if ((workerAddress != null || workers != null) && (token == null || token.isEmpty())) {
+                throw new IllegalArgumentException("-worker and -workers need -token");
+            }
+        } catch (IllegalArgumentException e) {
+            printUsage();
+            return 100;
         }
 
-        String host = null;
-        int port = -1;
-        String path = null;
-        String method = null;
+        if (workerAddress != null) {
+            ServerSocket server = new ServerSocket();
+            server.bind(workerAddress);
+            systemOut.println("Worker listening on " + server.getInetAddress().getHostAddress() + ":"
+                    + server.getLocalPort());
+            runWorker(server, token);
+            return 0;
+        }
 
-        List<Header> headers = new ArrayList<>();
-        StringBuilder body = null;
+        if (virtualThreads) {
+            if (!VirtualThreads.isSupported()) {
+                systemOut.println("-virtual-threads needs JDK 21 or newer, running on " + Runtime.version());
+                return 100;
+            }
+            workerThreads = VirtualThreads.factory("load-worker-");
+            readerThreads = VirtualThreads.factory("http1-reader-");
+        }
+        feeder = feederFile == null ? null : Feeder.load(feederFile, CONVERSION_CHARSET);
+        requestSequence.set(0);
+        HostResolver resolver = new HostResolver(dnsTtl, spreadIps);
+        // one context for all the HTTP/1 senders, so they resume each other's TLS sessions
+        SSLContext sslContext = TrustAllSsl.context();
+        http1Pool = new Http1ConnectionPool(resolver, sslContext.getSocketFactory());
+        if (nioLoops != -1) {
+            http1Nio = new Http1NioEngine(resolver, sslContext, nioLoops);
+        }
+        http2Pool = new Http2ClientPool(vertx, h2PoolSize, h2MultiplexingLimit, h2Settings, h2ConnectionWindow,
+                h2cUpgrade);
+        if (h2Raw) {
+            h2RawOptions.settings = h2Settings;
+            h2RawOptions.connectionWindow = h2ConnectionWindow;
+            h2RawOptions.h2cUpgrade = h2cUpgrade;
+            http2RawClient = new Http2RawClient(http1Pool, h2RawOptions);
+        }
+        if (h2FlowReport) {
+            flowControl = new Http2FlowControlMonitor(h2Settings.getInitialWindowSize());
+            flowControl.install();
+        }
+        try {
+            if (timingsJsonFile != null) {
+                timingsJson = Files.newBufferedWriter(timingsJsonFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            if (resultsFile != null || histogramLogFile != null) {
+                resultsLog = new ResultsLog(resultsFile, histogramLogFile,
+                        TimeUnit.MILLISECONDS.toNanos(histogramInterval), ResultsLog.DEFAULT_CAPACITY);
+            }
+            if (batchFile != null) {
+                runBatch(batchFile, protocol, useTls, requestsCount, concurrency);
+                return 0;
+            }
 
-        // intentionally using non-optimal buffer to react on each byte
-        try (LineNumberReader in = new LineNumberReader(new InputStreamReader(systemIn, StandardCharsets.UTF_8), 1)) {
-            boolean needFirstLineRead = protocol == null || protocol == HttpType.HTTP_1;
-            boolean headersRead = false;
-            for (String line = null; (line = in.readLine()) != null;) {
-                boolean altEnterPressed = false;
-                if (line.endsWith("\u001b")) {
-                    line = line.substring(0, line.length() - 1);
-                    altEnterPressed = true;
-                }
-                if (needFirstLineRead) {
-                    String[] headerParts = PATTERN_SPACE.split(line);
-                    if (headerParts.length == 3 && headerParts[2].startsWith("HTTP/")) {
-                        method = headerParts[0].trim();
-                        path = headerParts[1].trim();
-                        protocol = HttpType.HTTP_1;
-                    }
-                    needFirstLineRead = false;
-                }
-                boolean bodySeparator = false;
-                if (!headersRead && "".equals(line)) {
-                    headersRead = true;
-                    bodySeparator = true;
-                }
-                if (!headersRead) {
-                    String[] headerPair = PATTERN_COLON_NOT_FIRST.split(line, 2);
-                    Header header = new Header();
-                    header.raw = line;
-                    header.name = headerPair[0].trim();
-                    if (headerPair.length > 1) {
-                        header.value = headerPair[1].trim();
-                    }
+            Request request;
+            // the text of the request is sent to the workers as is
+            StringBuilder requestText = new StringBuilder();
+            Reader reader = new InputStreamReader(systemIn, StandardCharsets.UTF_8);
+            // intentionally using non-optimal buffer to react on each byte
+            try (LineNumberReader in = new LineNumberReader(
+                    workers == null ? reader : new CapturingReader(reader, requestText), 1)) {
+                request = parseRequest(in, protocol, useTls, false);
+            }
+            Objects.requireNonNull(request, "Request is empty");
+            if (workers != null && request.bodyFile != null) {
+                systemOut.println("-workers can't send the body of a file, workers don't read files");
+                return 100;
+            }
 
-                    boolean skipHeaderSending = false;
-                    // special cases for headers
-                    switch (header.name.toLowerCase()) {
-                        case ":authority": // HTTP/2
-                            protocol = HttpType.HTTP_2;
-                            skipHeaderSending = true;
-                            // fall-through
-                        case "host": // HTTP/1
-                        {
-                            // TODO: support case for user:password@
-                            int colonIdx = header.value.indexOf(':');
-                            if (colonIdx != -1) {
-                                port = Integer.parseInt(header.value.substring(colonIdx + 1));
-                                host = header.value.substring(0, colonIdx);
-                            } else {
-                                host = header.value;
-                            }
-                        }
-                            break;
-                        case ":scheme": // HTTP/2
-                            protocol = HttpType.HTTP_2;
-                            if ("https".equals(header.value)) {
-                                useTls = true;
-                            }
-                            skipHeaderSending = true;
-                            break;
-                        case ":method": // HTTP/2
-                            protocol = HttpType.HTTP_2;
-                            method = header.value;
-                            skipHeaderSending = true;
-                            break;
-                        case ":path": // HTTP/2
-                            protocol = HttpType.HTTP_2;
-                            path = header.value;
-                            skipHeaderSending = true;
+            printLine("Protocol: " + request.protocol);
+
+            if (workers != null) {
+                runDistributedLoad(List.of(request), requestsCount, workers, token, workerJobs(args,
+                        requestText.toString(), workers.size(), requestsCount,
+                        concurrency == -1 ? 1 : concurrency, stages, rate));
+            } else if (requestsCount != -1 || concurrency != -1) {
+                runLoad(List.of(request), requestsCount == -1 ? 1 : requestsCount,
+                        concurrency == -1 ? 1 : concurrency);
+            } else {
+                send(request, pipelineDepth, true);
+            }
+        } finally {
+            http1Pool.close();
+            http2Pool.close();
+            if (http2RawClient != null) {
+                http2RawClient.close();
+            }
+            if (flowControl != null) {
+                flowControl.close();
+            }
+            if (timingsJson != null) {
+                timingsJson.close();
+            }
+            if (resultsLog != null) {
+                resultsLog.close();
+                if (resultsLog.getDropped() > 0) {
+                    systemOut.println(String.format("Results log dropped %d records, the writer could not keep up",
+                            resultsLog.getDropped()));
+                }
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Sends all requests from the file one after another. Two file formats are
+     * supported: raw request blocks separated by "###" lines (or Alt+Enter
+     * symbols), and JSON lines (*.jsonl, *.ndjson) with the raw request text in
+     * the "request" field and optional "id" field.
+     * <p>
+     * In load mode requests are loaded in memory and sent in round-robin order.
+     */
+    private void runBatch(Path batchFile, HttpType protocol, boolean useTls, long requestsCount, int concurrency)
+            throws Exception {
+        String fileName = batchFile.getFileName().toString();
+        boolean jsonLines = fileName.endsWith(".jsonl") || fileName.endsWith(".ndjson");
+        boolean loadMode = requestsCount != -1 || concurrency != -1;
+        List<Request> loadRequests = new ArrayList<>();
+        int sent = 0;
+        int failed = 0;
+        long start = System.nanoTime();
+        try (LineNumberReader in = new LineNumberReader(Files.newBufferedReader(batchFile, StandardCharsets.UTF_8))) {
+            for (int index = 1;; index++) {
+                Request request;
+                String id = null;
+                int lineNumber = in.getLineNumber() + 1;
+                try {
+                    if (jsonLines) {
+                        String line = in.readLine();
+                        if (line == null) {
                             break;
-                    }
-                    if (!skipHeaderSending) {
-                        headers.add(header);
-                    }
-                } else if (!bodySeparator) {
-                    if (body == null) {
-                        body = new StringBuilder();
+                        }
+                        if (line.isBlank()) {
+                            index--;
+                            continue;
+                        }
+                        JSONObject json = new JSONObject(line);
+                        id = json.has("id") ? json.get("id").toString() : null;
+                        request = parseRequest(new LineNumberReader(new StringReader(json.getString("request"))),
+                                protocol, useTls, false);
                     } else {
-                        body.append('\n');
+                        request = parseRequest(in, protocol, useTls, true);
+                    }
+                } catch (Exception e) {
+                    LOG.error("Failed parsing request #" + index + " at line " + lineNumber, e);
+                    failed++;
+                    continue;
+                }
+                if (request == null) {
+                    if (jsonLines) {
+                        index--;
+                        continue;
                     }
-                    body.append(line);
+                    break;
+                }
+
+                if (loadMode) {
+                    loadRequests.add(request);
+                    continue;
+                }
+
+                printLine("REQUEST #" + index + (id == null ? "" : " " + id));
+                printLine("Protocol: " + request.protocol);
+                try {
+                    send(request, pipelineDepth, true);
+                    sent++;
+                } catch (Exception e) {
+                    LOG.error("Failed sending request #" + index, e);
+                    failed++;
                 }
+            }
+        }
+
+        if (loadMode) {
+            if (loadRequests.isEmpty()) {
+                throw new IllegalArgumentException("No requests found in " + batchFile);
+            }
+            runLoad(loadRequests, requestsCount == -1 ? loadRequests.size() : requestsCount,
+                    concurrency == -1 ? 1 : concurrency);
+            return;
+        }
+
+        printLine("BATCH RESULTS");
+        systemOut.println(String.format("Sent:         %d", sent));
+        systemOut.println(String.format("Failed:       %d", failed));
+        systemOut.println(String.format("Duration:     %.3f s", (System.nanoTime() - start) / 1e9));
+        printLine("END");
+    }
 
+    /**
+     * @param stopAtDelimiter stop reading at "###" line, used to separate requests
+     *                        in batch files
+     * @return parsed request, or {@code null} if there was nothing to read
+     */
+    private Request parseRequest(LineNumberReader in, HttpType forcedProtocol, boolean forceTls,
+            boolean stopAtDelimiter) throws IOException {
+        Request request = new Request();
+        request.protocol = forcedProtocol;
+        request.useTls = forceTls;
+        StringBuilder body = null;
+
+        boolean needFirstLineRead = forcedProtocol == null || forcedProtocol == HttpType.HTTP_1;
+        boolean headersRead = false;
+        boolean anyLineRead = false;
+        for (String line = null; (line = in.readLine()) != null;) {
+            if (stopAtDelimiter && line.startsWith(BATCH_DELIMITER)) {
+                if (anyLineRead) {
+                    break;
+                }
+                continue;
+            }
+            boolean altEnterPressed = false;
+            if (line.endsWith("\u001b")) {
+                line = line.substring(0, line.length() - 1);
+                altEnterPressed = true;
+            }
+            if (!anyLineRead && line.isBlank()) {
+                // skip empty lines before the request
                 if (altEnterPressed) {
                     break;
                 }
+                continue;
+            }
+            anyLineRead = true;
+            if (needFirstLineRead) {
+                String[] headerParts = PATTERN_SPACE.split(line);
+                if (headerParts.length == 3 && headerParts[2].startsWith("HTTP/")) {
+                    request.method = headerParts[0].trim();
+                    request.path = headerParts[1].trim();
+                    request.protocol = HttpType.HTTP_1;
+                }
+                needFirstLineRead = false;
+            }
+            boolean bodySeparator = false;
+            if (!headersRead && "".equals(line)) {
+                headersRead = true;
+                bodySeparator = true;
+            }
+            if (!headersRead) {
+                String[] headerPair = PATTERN_COLON_NOT_FIRST.split(line, 2);
+                Header header = new Header();
+                header.raw = line;
+                header.name = headerPair[0].trim();
+                if (headerPair.length > 1) {
+                    header.value = headerPair[1].trim();
+                }
+
+                boolean skipHeaderSending = false;
+                // special cases for headers
+                switch (header.name.toLowerCase()) {
+                    case ":authority": // HTTP/2
+                        request.protocol = HttpType.HTTP_2;
+                        skipHeaderSending = true;
+                        // fall-through
+                    case "host": // HTTP/1
+                    {
+                        // TODO: support case for user:password@
+                        int colonIdx = header.value.indexOf(':');
+                        if (colonIdx != -1) {
+                            request.port = Integer.parseInt(header.value.substring(colonIdx + 1));
+                            request.host = header.value.substring(0, colonIdx);
+                        } else {
+                            request.host = header.value;
+                        }
+                    }
+                        break;
+                    case ":scheme": // HTTP/2
+                        request.protocol = HttpType.HTTP_2;
+                        if ("https".equals(header.value)) {
+                            request.useTls = true;
+                        }
+                        skipHeaderSending = true;
+                        break;
+                    case ":method": // HTTP/2
+                        request.protocol = HttpType.HTTP_2;
+                        request.method = header.value;
+                        skipHeaderSending = true;
+                        break;
+                    case ":path": // HTTP/2
+                        request.protocol = HttpType.HTTP_2;
+                        request.path = header.value;
+                        skipHeaderSending = true;
+                        break;
+                }
+                if (!skipHeaderSending) {
+                    request.headers.add(header);
+                }
+            } else if (!bodySeparator) {
+                if (body == null) {
+                    body = new StringBuilder();
+                } else {
+                    body.append('\n');
+                }
+                body.append(line);
+            }
+
+            if (altEnterPressed) {
+                break;
             }
         }
 
-        Objects.requireNonNull(protocol, "Protocol not detected from headers or not set explicitly");
-        Objects.requireNonNull(host,
+        if (!anyLineRead) {
+            return null;
+        }
+
+        Objects.requireNonNull(request.protocol, "Protocol not detected from headers or not set explicitly");
+        Objects.requireNonNull(request.host,
                 "Host header (for HTTP/1.1) or :authority pseudo-header field (for HTTP/2) not present");
-        Objects.requireNonNull(path,
+        Objects.requireNonNull(request.path,
                 "Method not present in first line (HTTP/1.1) or :method pseudo-header field not present (HTTP/2)");
-        Objects.requireNonNull(method,
+        Objects.requireNonNull(request.method,
                 "Method not present in first line (HTTP/1.1) or :path pseudo-header field not present (HTTP/2)");
-        if (port == -1) {
-            port = useTls ? 443 : 80;
+        if (request.port == -1) {
+            request.port = request.useTls ? 443 : 80;
+        }
+        if (body != null && body.length() > 1 && body.charAt(0) == '@' && body.indexOf("\n") == -1) {
+            // a job of a worker comes from the network, its request can't have the worker's files sent
+            if (startBarrier != null) {
+                throw new IllegalArgumentException("Body files are not accepted from a coordinator");
+            }
+            request.bodyFile = Paths.get(body.substring(1));
+            if (!Files.isRegularFile(request.bodyFile) || !Files.isReadable(request.bodyFile)) {
+                throw new NoSuchFileException(request.bodyFile.toString(), null, "Body file is not readable");
+            }
+        } else if (body != null) {
+            request.body = body.toString().getBytes(CONVERSION_CHARSET);
+        }
+        if (request.protocol == HttpType.HTTP_1) {
+            request.http1Template = compileHttp1(request);
+        } else if (feeder != null || hasPlaceholders(request)) {
+            // HTTP/2 requests are sent as they are parsed
+            throw new IllegalArgumentException("Placeholders and -feeder are supported for HTTP/1 requests only");
         }
+        return request;
+    }
 
-        printLine("Protocol: " + protocol);
+    private List<ExchangeResult> send(Request request, int count, boolean verbose) throws Exception {
+        List<ExchangeResult> results;
+        try {
+            switch (request.protocol) {
+                case HTTP_1:
+                    results = sendHttp1(request, count, verbose);
+                    break;
+                case HTTP_2:
+                    results = http2RawClient != null ? sendHttp2Raw(request, count, verbose)
+                            : sendHttp2(request, count, verbose);
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported protocol: " + request.protocol);
+            }
+        } catch (Exception e) {
+            if (verbose && resultsLog != null) {
+                resultsLog.failed(e.getClass().getName(), count);
+            }
+            throw e;
+        }
+        // load mode logs the results through the stats, with the latency the runner measured
+        if (verbose && resultsLog != null) {
+            for (ExchangeResult result : results) {
+                resultsLog.completed(result, result.latencyNanos != -1 ? result.latencyNanos
+                        : result.timings == null ? -1 : result.timings.getTotal());
+            }
+        }
+        if (timingsJson != null) {
+            writeTimingsJson(request, results);
+        }
+        if (verbose && printTimings && !results.isEmpty()) {
+            printTimings(results.get(0).timings);
+        }
+        return results;
+    }
 
-        switch (protocol) {
-            case HTTP_1:
-                sendHttp1(useTls, host, port, headers,
-                        body == null ? null : body.toString().getBytes(CONVERSION_CHARSET));
-                break;
-            case HTTP_2:
-                sendHttp2(method, host, port, path, headers,
-                        body == null ? null : body.toString().getBytes(CONVERSION_CHARSET));
-                break;
+    private void writeTimingsJson(Request request, List<ExchangeResult> results) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (ExchangeResult result : results) {
+            String json = result.timings.toJson();
+            lines.append("{\"protocol\":\"").append(request.protocol) //
+                    .append("\",\"method\":").append(JSONObject.quote(request.method)) //
+                    .append(",\"host\":").append(JSONObject.quote(request.host)) //
+                    .append(",\"port\":").append(request.port) //
+                    .append(",\"path\":").append(JSONObject.quote(request.path)) //
+                    .append(",\"status\":").append(result.statusCode) //
+                    .append(',').append(json, 1, json.length()) //
+                    .append('\n');
+        }
+        synchronized (timingsJson) {
+            timingsJson.write(lines.toString());
         }
+    }
 
-        return 0;
+    private void printTimings(PhaseTimings timings) {
+        printLine("TIMINGS");
+        systemOut.println("Connection:   " + (timings.reused ? "reused" : "new"));
+        printTiming("DNS:          ", timings.getDns());
+        printTiming("Connect:      ", timings.getConnect());
+        printTiming("TLS:          ", timings.getTls(),
+                timings.tlsDone == -1 ? "" : timings.tlsResumed ? " (resumed)" : " (full handshake)");
+        printTiming("Write:        ", timings.getWrite());
+        printTiming("TTFB:         ", timings.getTtfb());
+        printTiming("Transfer:     ", timings.getTransfer());
+        printTiming("Total:        ", timings.getTotal());
+        printLine("END");
     }
 
-    private void sendHttp1(boolean useTls, String host, int port, List<Header> requestHeaders, byte[] requestBody)
-            throws Exception {
-        SocketFactory socketFactory;
-        if (useTls) {
-            socketFactory = buildTrustAllSSLContext().getSocketFactory();
+    private void printAverage(String label, long count, long nanos) {
+        systemOut.println(label + count + (count == 0 ? "" : String.format(", avg %.3f ms", nanos / 1e6 / count)));
+    }
+
+    private void printTiming(String label, long nanos) {
+        printTiming(label, nanos, "");
+    }
+
+    private void printTiming(String label, long nanos, String note) {
+        systemOut.println(label + (nanos == -1 ? "-" : String.format("%.3f ms", nanos / 1e6) + note));
+    }
+
+    private void runLoad(List<Request> requests, long requestsCount, int concurrency) throws Exception {
+        LoadRunner.Stats stats;
+        PinningMonitor pinning = null;
+        PinningMonitor.Report pins = null;
+        Http2FlowControlMonitor.Counters flowBefore = flowControl == null ? null : flowControl.snapshot();
+        if (http1Nio != null) {
+            printLine("LOAD: " + requestsCount + " REQUESTS, " + concurrency + " CONNECTIONS");
+            awaitStart();
+            stats = runNioLoad(requests, requestsCount, concurrency);
         } else {
-            socketFactory = SocketFactory.getDefault();
+            if (rateSchedule != null) {
+                printLine("LOAD: " + requestsCount + " REQUESTS AT " + rateSchedule + ", " + concurrency
+                        + " MAX IN FLIGHT");
+            } else {
+                printLine("LOAD: " + requestsCount + " REQUESTS, " + concurrency
+                        + (virtualThreads ? " VIRTUAL WORKERS" : " WORKERS"));
+            }
+            if (virtualThreads) {
+                pinning = new PinningMonitor();
+                pinning.start();
+            }
+            AtomicLong sequence = new AtomicLong();
+            LoadRunner.Exchange exchange = count -> {
+                Request request = requests.get((int) (sequence.getAndIncrement() % requests.size()));
+                return send(request, count, false);
+            };
+            try {
+                awaitStart();
+                if (rateSchedule != null) {
+                    stats = new RateRunner(rateSchedule, requestsCount, concurrency, exchange, workerThreads,
+                            resultsLog).run();
+                } else {
+                    stats = new LoadRunner(requestsCount, concurrency, pipelineDepth, exchange, workerThreads,
+                            resultsLog).run();
+                }
+                if (pinning != null) {
+                    pins = pinning.stop();
+                }
+            } finally {
+                if (pinning != null) {
+                    pinning.close();
+                }
+            }
         }
+        loadStats = stats;
+        printLoadResults(requests, stats, flowBefore, pins, null);
+    }
 
-        Socket socket = socketFactory.createSocket(InetAddress.getByName(host), port);
+    /**
+     * Sends the request and the share of the load of every worker to the
+     * workers, and prints the merged stats.
+     */
+    private void runDistributedLoad(List<Request> requests, long requestsCount, List<InetSocketAddress> workers,
+            String token, List<DistributedLoad.Job> jobs) throws Exception {
+        printLine("DISTRIBUTED LOAD: " + requestsCount + " REQUESTS, " + workers.size() + " WORKERS");
+        List<DistributedLoad.WorkerStats> results = DistributedLoad.coordinate(workers, token, jobs);
+        LoadRunner.Stats stats = new LoadRunner.Stats();
+        for (DistributedLoad.WorkerStats result : results) {
+            stats.add(result.stats);
+            // the workers started together, the load took as long as the slowest one
+            stats.durationNanos = Math.max(stats.durationNanos, result.stats.durationNanos);
+            stats.peakConnections += result.stats.peakConnections;
+        }
+        printLoadResults(requests, stats, null, null, results);
+    }
 
-        Thread readerThread = new Thread(() -> {
-            try {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                try (InputStream in = socket.getInputStream()) {
-                    MirroredOut out = new MirroredOut(baos, systemOut, 1000);
-                    // I intentionally did not use buffer here to skip waiting for the buffer to be
-                    // filled
-                    for (int b = -1; (b = in.read()) != -1;) {
-                        out.write(b);
-                    }
+    /**
+     * @return jobs for the workers: the arguments of the coordinator with the
+     *         number of requests, concurrency and rate split between the
+     *         workers
+     */
+    private static List<DistributedLoad.Job> workerJobs(String[] args, String request, int workers,
+            long requestsCount, int concurrency, String stages, String rate) {
+        List<String> common = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (COORDINATOR_ARGS.contains(args[i])) {
+                i++;
+            } else {
+                common.add(args[i]);
+            }
+        }
+        List<DistributedLoad.Job> jobs = new ArrayList<>(workers);
+        for (int worker = 0; worker < workers; worker++) {
+            List<String> jobArgs = new ArrayList<>(common);
+            jobArgs.add("-n");
+            jobArgs.add(Long.toString(share(requestsCount, workers, worker)));
+            jobArgs.add("-c");
+            jobArgs.add(Long.toString(Math.max(1, share(concurrency, workers, worker))));
+            long durationNanos = 0;
+            if (stages != null) {
+                String spec = RateRunner.Schedule.parse(stages).scaledSpec(1.0 / workers);
+                jobArgs.add("-stages");
+                jobArgs.add(spec);
+                durationNanos = RateRunner.Schedule.parse(spec).durationNanos();
+            } else if (rate != null) {
+                double rateShare = RateRunner.Schedule.parseRate(rate) / workers;
+                jobArgs.add("-rate");
+                jobArgs.add(RateRunner.Schedule.formatRate(rateShare));
+                durationNanos = RateRunner.Schedule.constant(rateShare, share(requestsCount, workers, worker), rate)
+                        .durationNanos();
+            }
+            jobs.add(new DistributedLoad.Job(jobArgs, request, durationNanos));
+        }
+        return jobs;
+    }
+
+    /**
+     * @return share of the worker of {@code total}, the first workers get the
+     *         remainder
+     */
+    private static long share(long total, int workers, int worker) {
+        return total / workers + (worker < total % workers ? 1 : 0);
+    }
+
+    /**
+     * Runs the distributed load jobs of the coordinators that connect to the
+     * server, until it is closed.
+     *
+     * @param token the jobs should come with
+     */
+    void runWorker(ServerSocket server, String token) throws IOException {
+        try (server) {
+            DistributedLoad.serve(server, token, (job, start) -> {
+                checkWorkerArgs(job.args);
+                Main main = new Main();
+                main.vertx = vertx;
+                main.setSystemStreams(new ByteArrayInputStream(job.request.getBytes(StandardCharsets.UTF_8)),
+                        systemOut);
+                main.startBarrier = start;
+                if (main.run(job.args.toArray(new String[0])) != 0 || main.loadStats == null) {
+                    throw new IllegalArgumentException("Load can't be run with arguments " + job.args);
                 }
+                return main.loadStats;
+            });
+        }
+    }
 
-                printLine();
-                printLine("RESPONSE RECEIVED");
+    private static void checkWorkerArgs(List<String> args) {
+        for (int i = 0; i < args.size(); i++) {
+            Boolean hasValue = WORKER_ARGS.get(args.get(i));
+            if (hasValue == null) {
+                throw new IllegalArgumentException("Argument " + args.get(i) + " is not accepted from a coordinator");
+            }
+            if (hasValue) {
+                i++;
+            }
+        }
+    }
+
+    private void awaitStart() throws IOException {
+        if (startBarrier != null) {
+            startBarrier.await();
+        }
+    }
 
-                byte[] response = baos.toByteArray();
-                int headersSepIdx = ArraysUtil.indexOf(response, 0, HEADERS_SEP);
-                if (headersSepIdx == -1) {
-                    return;
+    /**
+     * @param worker "[host:]port" to listen on, the loopback interface if the
+     *               host is not set
+     */
+    private static InetSocketAddress parseWorkerAddress(String worker) {
+        if (worker.lastIndexOf(':') == -1) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(worker.trim()));
+        }
+        return parseWorkers(worker).get(0);
+    }
+
+    private static List<InetSocketAddress> parseWorkers(String workers) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String worker : workers.split(",")) {
+            int colon = worker.lastIndexOf(':');
+            if (colon == -1) {
+                throw new IllegalArgumentException("Worker should be <host>:<port>: " + worker);
+            }
+            String host = worker.substring(0, colon).trim();
+            if (host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1);
+            }
+            addresses.add(new InetSocketAddress(host, Integer.parseInt(worker.substring(colon + 1).trim())));
+        }
+        return addresses;
+    }
+
+    /**
+     * @param flowBefore flow-control counters before the load, or {@code null}
+     * @param pins       pinning of the virtual threads, or {@code null}
+     * @param workers    stats of every worker of the distributed load, or
+     *                   {@code null}
+     */
+    private void printLoadResults(List<Request> requests, LoadRunner.Stats stats,
+            Http2FlowControlMonitor.Counters flowBefore, PinningMonitor.Report pins,
+            List<DistributedLoad.WorkerStats> workers) {
+        printLine("LOAD RESULTS");
+        double seconds = stats.durationNanos / 1e9;
+        systemOut.println(String.format("Requests:     %d", stats.requests));
+        if (workers != null) {
+            systemOut.println(String.format("Workers:      %d", workers.size()));
+        }
+        if (pipelineDepth > 1) {
+            systemOut.println(String.format("Pipeline:     %d", pipelineDepth));
+        }
+        if (http1Nio != null) {
+            systemOut.println(String.format("Connections:  %d", stats.connections));
+            systemOut.println(String.format("Peak open:    %d", stats.peakConnections));
+        }
+        // streams and connections of the HTTP/2 pool of the workers aren't collected
+        if (http2RawClient == null && workers == null
+                && requests.stream().anyMatch(r -> r.protocol == HttpType.HTTP_2)) {
+            systemOut.println(String.format("Peak streams: %d", http2Pool.getPeakStreams()));
+            systemOut.println(String.format("Connections:  %d", http2Pool.getConnectionCount()));
+            if (flowControl != null) {
+                printFlowControl(flowControl.snapshot().minus(flowBefore));
+            }
+        }
+        systemOut.println(String.format("Duration:     %.3f s", seconds));
+        systemOut.println(String.format("Throughput:   %.1f req/s", stats.requests / seconds));
+        if (rateSchedule != null) {
+            systemOut.println(String.format("Late starts:  %d", stats.late));
+            systemOut.println(String.format("Max lag:      %.3f ms", stats.startLag.getMax() / 1e6));
+            if (stats.late > 0) {
+                systemOut.println(String.format("  client fell behind the schedule: %d requests started over %d ms"
+                        + " late, raise -c or lower the rate", stats.late, RateRunner.LATE_NANOS / 1_000_000));
+            }
+        }
+        systemOut.println(String.format("Bytes out:    %d", stats.bytesOut));
+        systemOut.println(String.format("Bytes in:     %d", stats.bytesIn));
+        if (stats.tlsFull + stats.tlsResumed > 0) {
+            printAverage("TLS full:     ", stats.tlsFull, stats.tlsFullNanos);
+            printAverage("TLS resumed:  ", stats.tlsResumed, stats.tlsResumedNanos);
+        }
+        if (pins != null) {
+            // carrier threads held by virtual threads blocked where they can't unmount
+            printAverage("Pinned:       ", pins.pins, pins.pinnedNanos);
+            pins.byFrame.forEach((frame, count) -> systemOut.println("  " + frame + ": " + count));
+        }
+        systemOut.println(String.format("Errors:       %d", stats.getErrorCount()));
+        stats.errors.forEach((error, count) -> systemOut.println("  " + error + ": " + count));
+        systemOut.println("Status codes:");
+        stats.statusCodes.forEach((code, count) -> systemOut.println("  " + code + ": " + count));
+        printLatencyHistogram("Latency (ms):", stats.latency);
+        if (rateSchedule != null) {
+            // latency above is from the time a request was due, this is from the time it was sent
+            printLatencyHistogram("Service time (ms):", stats.serviceTime);
+        }
+        if (spreadIps || stats.latencyByAddress.size() > 1) {
+            printLatencyTable("Latency by address (ms):", "address", stats.latencyByAddress);
+        }
+        if (workers != null) {
+            Map<String, LatencyHistogram> byWorker = new LinkedHashMap<>();
+            workers.forEach(w -> byWorker.put(w.worker, w.stats.latency));
+            printLatencyTable("Latency by worker (ms):", "worker", byWorker);
+        }
+        printLine("END");
+    }
+
+    /**
+     * Sends HTTP/1 requests with the non-blocking engine, every connection of
+     * {@code connections} sends the next request as soon as the previous one
+     * completes.
+     */
+    private LoadRunner.Stats runNioLoad(List<Request> requests, long requestsCount, int connections)
+            throws Exception {
+        List<Http1NioEngine.Target> targets = new ArrayList<>(requests.size());
+        for (Request request : requests) {
+            if (request.protocol != HttpType.HTTP_1) {
+                throw new IllegalArgumentException("Only HTTP/1 requests can be sent with -nio");
+            }
+            long bodyLength = request.bodyLength();
+            ByteBuffer body = null;
+            if (request.bodyFile != null) {
+                try (FileChannel file = FileChannel.open(request.bodyFile, StandardOpenOption.READ)) {
+                    if (bodyLength > Integer.MAX_VALUE) {
+                        throw new IOException("Body file is too large for -nio: " + request.bodyFile);
+                    }
+                    // shared by all the connections, written straight from the page cache
+                    body = file.map(FileChannel.MapMode.READ_ONLY, 0, bodyLength);
                 }
+            }
+            targets.add(new Http1NioEngine.Target(request.host, request.port, request.useTls,
+                    "HEAD".equals(request.method), request.http1Template, body));
+        }
+        return http1Nio.run(targets, requestsCount, connections, pipelineDepth,
+                timingsJson == null ? null : (index, results) -> writeTimingsJson(requests.get(index), results),
+                resultsLog);
+    }
 
-                List<Header> headersParsed = new ArrayList<>();
+    private void printLatencyTable(String title, String column, Map<String, LatencyHistogram> histograms) {
+        systemOut.println(title);
+        systemOut.println(String.format("  %-39s %8s %10s %10s %10s", column, "requests", "p50", "p99", "max"));
+        histograms.forEach((key, histogram) -> systemOut.println(String.format("  %-39s %8d %10.3f %10.3f %10.3f",
+                key, histogram.getTotalCount(), histogram.getValueAtPercentile(50) / 1e6,
+                histogram.getValueAtPercentile(99) / 1e6, histogram.getMax() / 1e6)));
+    }
 
-                try (LineNumberReader lnr = new LineNumberReader(
-                        new InputStreamReader(new ByteArrayInputStream(response, 0, headersSepIdx)))) {
-                    for (String line = null; (line = lnr.readLine()) != null;) {
-                        String[] lineParts = PATTERN_COLON.split(line, 2);
-                        if (lineParts.length != 2) {
-                            continue;
+    private void printLatencyHistogram(String title, LatencyHistogram histogram) {
+        systemOut.println(title);
+        systemOut.println(String.format("  min    %10.3f", histogram.getMin() / 1e6));
+        systemOut.println(String.format("  mean   %10.3f", histogram.getMean() / 1e6));
+        systemOut.println(String.format("  p50    %10.3f", histogram.getValueAtPercentile(50) / 1e6));
+        systemOut.println(String.format("  p90    %10.3f", histogram.getValueAtPercentile(90) / 1e6));
+        systemOut.println(String.format("  p99    %10.3f", histogram.getValueAtPercentile(99) / 1e6));
+        systemOut.println(String.format("  p99.9  %10.3f", histogram.getValueAtPercentile(99.9) / 1e6));
+        systemOut.println(String.format("  max    %10.3f", histogram.getMax() / 1e6));
+    }
+
+    private List<ExchangeResult> sendHttp1(Request request, int pipelineDepth, boolean verbose) throws Exception {
+        // a retry sends the same requests again
+        long firstSeq = requestSequence.getAndAdd(pipelineDepth) + 1;
+        for (;;) {
+            Http1ConnectionPool.Connection connection = http1Pool.acquire(request.useTls, request.host,
+                    request.port);
+            List<ExchangeResult> results = sendHttp1(connection, request, firstSeq, pipelineDepth, verbose);
+            if (results != null) {
+                return results;
+            }
+            // idle connection was closed by the server, let's retry with a new one
+        }
+    }
+
+    /**
+     * Writes {@code pipelineDepth} copies of the request back-to-back, and then
+     * reads the responses in order.
+     *
+     * @param firstSeq number of the first request, the templates are rendered
+     *                 with
+     *
+     * @return exchange results, or {@code null} if reused connection turned out to
+     *         be closed by the server before any response byte was received
+     */
+    private List<ExchangeResult> sendHttp1(Http1ConnectionPool.Connection connection, Request request,
+            long firstSeq, int pipelineDepth, boolean verbose) throws Exception {
+        OutputStream echoOut = verbose ? systemOut : OutputStream.nullOutputStream();
+
+        long bodyLength = request.bodyLength();
+        Http1Template template = request.http1Template;
+        long[] requestLengths = new long[pipelineDepth];
+        long[] writeStarts = new long[pipelineDepth];
+        Http1ResponseFramer[] framers = new Http1ResponseFramer[pipelineDepth];
+        long[] writeDones = new long[pipelineDepth];
+        long[] firstBytes = new long[pipelineDepth];
+        long[] completions = new long[pipelineDepth];
+        AtomicReference<Exception> readerError = new AtomicReference<>();
+        Thread readerThread = readerThreads.newThread(() -> {
+            try {
+                // read() returns as soon as any bytes are available, so the output is still
+                // live, while big bodies are read in bulk
+                byte[] buf = connection.readBuffer;
+                int bufPos = 0;
+                int bufLength = 0;
+                long readNanos = 0;
+                for (int i = 0; i < pipelineDepth; i++) {
+                    // in stream mode decoded body goes directly to the output instead of raw bytes
+                    boolean streamToOutput = verbose && streamBody;
+                    OutputStream bodySink;
+                    if (streamToOutput) {
+                        bodySink = new FlushingOutputStream(systemOut);
+                    } else {
+                        bodySink = verbose ? new BodyCapture(spillThreshold) : OutputStream.nullOutputStream();
+                    }
+                    Http1ResponseFramer framer = new Http1ResponseFramer("HEAD".equals(request.method), verbose,
+                            bodySink);
+                    framers[i] = framer;
+                    MirroredOut out = new MirroredOut(OutputStream.nullOutputStream(), echoOut, 1000);
+                    while (!framer.isComplete()) {
+                        if (bufPos == bufLength) {
+                            bufPos = 0;
+                            bufLength = connection.in.read(buf);
+                            readNanos = System.nanoTime();
+                            if (bufLength == -1) {
+                                bufLength = 0;
+                                framer.endOfStream();
+                                break;
+                            }
+                        }
+                        if (firstBytes[i] == 0) {
+                            // the bytes may be left from the previous read
+                            firstBytes[i] = readNanos;
                         }
-                        Header header = new Header();
-                        header.name = lineParts[0].trim();
-                        header.value = lineParts[1].trim();
-                        headersParsed.add(header);
+                        // in stream mode headers are fed byte by byte to echo them before the body
+                        boolean inHeaders = !framer.isHeadersComplete();
+                        int consumed = framer.feed(buf, bufPos,
+                                streamToOutput && inHeaders ? 1 : bufLength - bufPos);
+                        if (!streamToOutput || inHeaders) {
+                            out.write(buf, bufPos, consumed);
+                        }
+                        bufPos += consumed;
                     }
-                }
+                    completions[i] = System.nanoTime();
 
-                byte[] body = new byte[response.length - headersSepIdx - HEADERS_SEP.length];
-                System.arraycopy(response, headersSepIdx + HEADERS_SEP.length, body, 0, body.length);
+                    if (connection.reused && !framers[0].hasStarted()) {
+                        return;
+                    }
+                    if (verbose) {
+                        printLine();
+                        printLine(pipelineDepth == 1 ? "RESPONSE RECEIVED"
+                                : "RESPONSE " + (i + 1) + " OF " + pipelineDepth + " RECEIVED");
+                        if (!framer.isComplete()) {
+                            LOG.warn("Connection closed before the response was complete");
+                        }
 
-                analyzeHttpsResponse(headersParsed, body, false);
+                        if (framer.getHeadersLength() != 0) {
+                            if (framer.isChunked()) {
+                                printLine("CONVERTING FROM CHUNKED FORMAT");
+                                if (!framer.getTrailers().isEmpty()) {
+                                    printLine("TRAILERS");
+                                    framer.getTrailers().forEach(h -> systemOut.println(h.name + ": " + h.value));
+                                }
+                            }
+                            printContentDecoding(framer.getContentCodings());
+                            if (streamToOutput) {
+                                printLine("END");
+                            } else {
+                                try (BodyCapture body = (BodyCapture) bodySink) {
+                                    analyzeHttpsResponse(framer.getHeaders(), body);
+                                }
+                            }
+                        }
+                    }
+                    if (!framer.isKeepAlive()) {
+                        // server closed the connection, the rest of the responses will not come
+                        break;
+                    }
+                }
             } catch (Exception e) {
-                LOG.error("Failed parse and print response", e);
+                readerError.set(e);
+                if (verbose && !(connection.reused && !framers[0].hasStarted())) {
+                    LOG.error("Failed parse and print response", e);
+                }
             }
         });
         readerThread.setUncaughtExceptionHandler((thread, e) -> {
@@ -332,94 +1304,504 @@ public class Main implements QuarkusApplication {
         });
         readerThread.start();
 
-        try (OutputStream outStream = socket.getOutputStream()) {
-            MirroredOut out = new MirroredOut(outStream, systemOut, -1);
-            printLine("SENDING REQUEST");
-            requestHeaders.stream().map(h -> {
-                if (requestBody != null && "content-length".equals(h.name.toLowerCase())) {
-                    return h.name + ": " + requestBody.length;
+        try {
+            if (verbose) {
+                printLine("SENDING REQUEST");
+            }
+            for (int i = 0; i < pipelineDepth; i++) {
+                writeStarts[i] = System.nanoTime();
+                ByteBuffer requestBytes = template.getConstant();
+                if (requestBytes == null) {
+                    Template.Output rendered = RENDERED_REQUEST.get();
+                    template.render(firstSeq + i, rendered, RENDERED_BODY.get());
+                    requestBytes = rendered.buffer();
                 }
-                return h.raw;
-            }).map(s -> s.getBytes(CONVERSION_CHARSET)).forEach(s -> {
-                try {
-                    out.write(s);
-                    out.write(LS);
-                } catch (Exception e) {
-                    throw new IllegalStateException("Failed writing to socket", e);
+                requestLengths[i] = requestBytes.remaining();
+                write(connection.out, requestBytes);
+                if (request.bodyFile != null) {
+                    writeBodyFile(connection, request.bodyFile, bodyLength);
+                }
+                writeDones[i] = System.nanoTime();
+                if (i == 0) {
+                    write(echoOut, requestBytes);
+                    if (request.bodyFile != null) {
+                        echoOut.write(("[... " + bodyLength + " bytes from " + request.bodyFile + " ...]")
+                                .getBytes(CONVERSION_CHARSET));
+                    }
                 }
-            });
-            out.write(LS);
-            if (requestBody != null) {
-                out.write(requestBody);
             }
+            connection.out.flush();
 
-            printLine();
-            printLine("REQUEST SENT");
+            if (verbose) {
+                printLine();
+                printLine(pipelineDepth == 1 ? "REQUEST SENT" : "REQUEST SENT " + pipelineDepth + " TIMES");
+            }
+        } catch (Exception e) {
+            if (!connection.reused) {
+                connection.close();
+                throw e;
+            }
+            // will be handled below as stale connection
+        }
+
+        readerThread.join();
 
-            readerThread.join();
+        Http1ResponseFramer lastFramer = framers[pipelineDepth - 1];
+        if (lastFramer != null && lastFramer.isKeepAlive() && readerError.get() == null) {
+            http1Pool.release(connection);
+        } else {
+            connection.close();
+        }
+
+        if (connection.reused && (framers[0] == null || !framers[0].hasStarted())) {
+            return null;
+        }
+
+        List<ExchangeResult> results = new ArrayList<>(pipelineDepth);
+        String address = connection.socket.getInetAddress().getHostAddress();
+        for (int i = 0; i < pipelineDepth && framers[i] != null && framers[i].isComplete(); i++) {
+            ExchangeResult result = new ExchangeResult();
+            result.address = address;
+            result.statusCode = framers[i].getStatusCode();
+            result.bytesOut = requestLengths[i] + (request.bodyFile == null ? 0 : bodyLength);
+            result.bytesIn = framers[i].getConsumed();
+            // the first request waits for the connection to be set up, the pipelined ones from their write
+            result.latencyNanos = completions[i] - (i == 0 ? connection.timings.start : writeStarts[i]);
+            // pipelined requests after the first one share the connection
+            result.timings = i == 0 ? connection.timings : new PhaseTimings();
+            result.timings.reused |= i != 0;
+            if (i != 0) {
+                result.timings.start = writeStarts[i];
+            }
+            result.timings.writeDone = writeDones[i];
+            result.timings.firstByte = firstBytes[i];
+            result.timings.lastByte = completions[i];
+            results.add(result);
         }
+
+        if (verbose && pipelineDepth > 1) {
+            long duration = results.isEmpty() ? 0 : completions[results.size() - 1] - writeStarts[0];
+            printPipelineResults("PIPELINE RESULTS", results, pipelineDepth, duration);
+            printLine("END");
+        }
+        if (!verbose) {
+            if (readerError.get() != null) {
+                throw readerError.get();
+            }
+            if (results.size() != pipelineDepth) {
+                throw new IOException("Connection closed after " + results.size() + " of " + pipelineDepth
+                        + " pipelined responses");
+            }
+        }
+        return results;
     }
 
-    private void sendHttp2(String method, String host, int port, String path, List<Header> requestHeaders,
-            byte[] requestBody) throws Exception {
-        WebClient client = WebClient.create(vertx, new WebClientOptions() //
-                .setProtocolVersion(HttpVersion.HTTP_2) //
-                .setFollowRedirects(false) //
-                .setKeepAlive(false) //
-                .setUseAlpn(true) //
-                .setVerifyHost(false) //
-                .setTrustAll(true) //
-                .setLogActivity(true) //
-        );
-        HttpRequest<Buffer> request = client.raw(method, port, host, path).ssl(true);
-        requestHeaders.stream().filter(h -> h.name != null && h.value != null).forEach(h -> {
-            request.headers().add(h.name, h.value);
-        });
-        HttpResponse<Buffer> response;
-        if (requestBody == null) {
-            response = request.sendAndAwait();
+    /**
+     * @return template of the request, compiled once: request line, headers and
+     *         the inline body may have placeholders, see {@link Template}
+     */
+    private Http1Template compileHttp1(Request request) throws IOException {
+        Template body = request.body == null ? null : Template.compile(request.body, feeder);
+        String contentLength;
+        if (body != null && !body.isConstant()) {
+            // the length of every rendered body
+            contentLength = Template.BODY_LENGTH;
         } else {
-            response = request.sendBufferAndAwait(Buffer.buffer(requestBody));
+            long bodyLength = request.bodyLength();
+            contentLength = bodyLength == -1 ? null : String.valueOf(bodyLength);
+        }
+        return new Http1Template(Template.compile(buildHttp1Head(request, contentLength), feeder), body);
+    }
+
+    /**
+     * @return {@code true} if the path, a header or the body of the request
+     *         has placeholders of {@link Template}, e.g. "${seq}"
+     */
+    private static boolean hasPlaceholders(Request request) {
+        List<byte[]> parts = new ArrayList<>();
+        parts.add(request.path.getBytes(StandardCharsets.UTF_8));
+        for (Header header : request.headers) {
+            parts.add((header.name + ": " + header.value).getBytes(StandardCharsets.UTF_8));
+        }
+        if (request.body != null) {
+            parts.add(request.body);
+        }
+        return parts.stream().anyMatch(part -> !Template.compile(part, null).isConstant());
+    }
+
+    /**
+     * @param contentLength value of Content-Length, or {@code null} if there is
+     *                      no body
+     * @return request head, with the empty line
+     */
+    private static byte[] buildHttp1Head(Request request, String contentLength) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean hasContentLength = false;
+        for (Header h : request.headers) {
+            String line = h.raw;
+            if (contentLength != null && "content-length".equals(h.name.toLowerCase())) {
+                if (hasContentLength) {
+                    // servers reject repeated Content-Length
+                    continue;
+                }
+                line = h.name + ": " + contentLength;
+                hasContentLength = true;
+            }
+            out.write(line.getBytes(CONVERSION_CHARSET));
+            out.write(LS);
+        }
+        if (request.bodyFile != null && !hasContentLength) {
+            out.write(("Content-Length: " + contentLength).getBytes(CONVERSION_CHARSET));
+            out.write(LS);
         }
+        out.write(LS);
+        return out.toByteArray();
+    }
+
+    private static void write(OutputStream out, ByteBuffer bytes) throws IOException {
+        out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+    }
 
-        List<Header> responseHeaders = new ArrayList<>();
+    /**
+     * Streams {@code length} bytes of the file to the connection: with
+     * {@link FileChannel#transferTo} (sendfile) to a plain connection, so the
+     * bytes don't pass through the heap, and through a large buffer to TLS.
+     */
+    private static void writeBodyFile(Http1ConnectionPool.Connection connection, Path path, long length)
+            throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (connection.channel != null) {
+                for (long position = 0; position < length;) {
+                    long written = file.transferTo(position, length - position, connection.channel);
+                    if (written == 0 && position >= file.size()) {
+                        throw new EOFException("Body file was truncated: " + path);
+                    }
+                    position += written;
+                }
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(UPLOAD_BUFFER_SIZE);
+            for (long remaining = length; remaining > 0;) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+                if (file.read(buffer) == -1) {
+                    throw new EOFException("Body file was truncated: " + path);
+                }
+                connection.out.write(buffer.array(), 0, buffer.position());
+                remaining -= buffer.position();
+            }
+        }
+    }
+
+    private void printPipelineResults(String title, List<ExchangeResult> results, int pipelineDepth,
+            long durationNanos) {
+        printLine(title);
+        for (int i = 0; i < results.size(); i++) {
+            ExchangeResult result = results.get(i);
+            systemOut.println(String.format("#%-4d %3d %10.3f ms", i + 1, result.statusCode,
+                    result.latencyNanos / 1e6));
+        }
+        double seconds = durationNanos / 1e9;
+        systemOut.println(String.format("Responses:    %d of %d", results.size(), pipelineDepth));
+        systemOut.println(String.format("Duration:     %.3f ms", seconds * 1000));
+        systemOut.println(String.format("Throughput:   %.1f req/s", results.size() / seconds));
+    }
+
+    /**
+     * Sends {@code count} copies of the request as concurrent streams, on the
+     * connections shared with the other requests to the same host and port.
+     */
+    private List<ExchangeResult> sendHttp2(Request request, int count, boolean verbose) throws Exception {
+        WebClient client = http2Pool.get(request.useTls, request.host, request.port);
+        Http2FlowControlMonitor.Counters flowBefore = flowControl == null || !verbose ? null : flowControl.snapshot();
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        BodyCapture body = verbose ? new BodyCapture(spillThreshold) : null;
+        // bodies are piped as they arrive, the first one is kept for the output
+        OutputWriteStream[] bodyStreams = new OutputWriteStream[count];
+        long bodyLength = request.bodyLength();
+        List<CompletableFuture<HttpResponse<Void>>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            bodyStreams[i] = new OutputWriteStream(verbose && i == 0 ? body : OutputStream.nullOutputStream());
+            HttpRequest<Void> httpRequest = client.raw(request.method, request.port, request.host, request.path)
+                    .ssl(request.useTls).as(BodyCodec.pipe(WriteStream.newInstance(bodyStreams[i])));
+            request.headers.stream().filter(h -> h.name != null && h.value != null).forEach(h -> {
+                httpRequest.headers().add(h.name, h.value);
+            });
+            if (request.bodyFile != null) {
+                httpRequest.headers().remove("content-length").add("content-length", String.valueOf(bodyLength));
+            }
+            int idx = i;
+            starts[i] = System.nanoTime();
+            http2Pool.streamStarted();
+            // streamed from the file by the event loop, in DATA frames as the window allows
+            AsyncFile bodyFile = request.bodyFile == null ? null
+                    : vertx.fileSystem().openAndAwait(request.bodyFile.toString(), new OpenOptions().setRead(true))
+                            .setReadBufferSize(UPLOAD_BUFFER_SIZE);
+            Uni<HttpResponse<Void>> response;
+            if (bodyFile != null) {
+                response = httpRequest.sendStream(bodyFile);
+            } else {
+                response = request.body == null ? httpRequest.send()
+                        : httpRequest.sendBuffer(Buffer.buffer(request.body));
+            }
+            futures.add(response.subscribeAsCompletionStage().whenComplete((r, e) -> {
+                ends[idx] = System.nanoTime();
+                http2Pool.streamFinished();
+                if (bodyFile != null) {
+                    bodyFile.closeAndForget();
+                }
+            }));
+        }
+
+        List<HttpResponse<Void>> responses = new ArrayList<>(count);
+        Exception error = null;
+        for (CompletableFuture<HttpResponse<Void>> future : futures) {
+            try {
+                responses.add(future.get());
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        if (error != null && (!verbose || responses.isEmpty())) {
+            if (body != null) {
+                body.close();
+            }
+            throw error;
+        }
+
+        List<ExchangeResult> results = new ArrayList<>(count);
+        long lastConnected = http2Pool.getLastConnected();
+        for (int i = 0; i < responses.size(); i++) {
+            HttpResponse<Void> response = responses.get(i);
+            ExchangeResult result = new ExchangeResult();
+            // the client does not expose DNS, TLS and first byte events, connect time
+            // includes TLS handshake and HTTP/2 preface, and it's known only if the
+            // connection was established during the request
+            result.timings = new PhaseTimings();
+            result.timings.start = starts[i];
+            result.timings.lastByte = ends[i];
+            if (lastConnected > starts[i] && lastConnected < ends[i]) {
+                result.timings.connectDone = lastConnected;
+            } else {
+                result.timings.reused = true;
+            }
+            result.statusCode = response.statusCode();
+            result.bytesOut = Math.max(bodyLength, 0);
+            result.bytesIn = bodyStreams[i].getBytesWritten();
+            result.latencyNanos = ends[i] - starts[i];
+            results.add(result);
+        }
+        if (!verbose) {
+            return results;
+        }
+
+        HttpResponse<Void> response = responses.get(0);
+        try (body) {
+            printHttp2Response(response.statusCode() + " " + response.statusMessage() + " " + response.version(),
+                    toHeaders(response.headers()), toHeaders(response.trailers()), body.size() == 0 ? null : body);
+        }
+
+        if (count > 1) {
+            long duration = Arrays.stream(ends).max().getAsLong() - starts[0];
+            printPipelineResults("STREAMS RESULTS", results, count, duration);
+            systemOut.println(String.format("Peak streams: %d", http2Pool.getPeakStreams()));
+            systemOut.println(String.format("Connections:  %d", http2Pool.getConnectionCount()));
+            printLine("END");
+        }
+        if (flowBefore != null) {
+            printLine("FLOW CONTROL");
+            printFlowControl(flowControl.snapshot().minus(flowBefore));
+            printLine("END");
+        }
+        if (error != null) {
+            LOG.error("Failed sending request", error);
+        }
+        return results;
+    }
+
+    /**
+     * Sends {@code count} copies of the request as concurrent streams on a raw
+     * HTTP/2 connection, and prints the frames sent and received.
+     */
+    private List<ExchangeResult> sendHttp2Raw(Request request, int count, boolean verbose) throws Exception {
+        long bodyLength = request.bodyLength();
+        List<String[]> headers = buildHttp2Headers(request, bodyLength);
+        ByteSlice requestBody = null;
+        if (request.bodyFile != null) {
+            try (FileChannel file = FileChannel.open(request.bodyFile, StandardOpenOption.READ)) {
+                if (bodyLength > Integer.MAX_VALUE) {
+                    throw new IOException("Body file is too large for -h2-raw: " + request.bodyFile);
+                }
+                // DATA frames are written straight from the page cache
+                requestBody = ByteSlice.wrap(file.map(FileChannel.MapMode.READ_ONLY, 0, bodyLength));
+            }
+        } else if (request.body != null) {
+            requestBody = ByteSlice.wrap(request.body);
+        }
+        for (;;) {
+            PhaseTimings timings = new PhaseTimings();
+            timings.start = System.nanoTime();
+            Http2RawConnection connection = http2RawClient.acquire(request.useTls, request.host, request.port,
+                    timings);
+            BodyCapture body = new BodyCapture(spillThreshold);
+            List<Http2RawConnection.Stream> streams = new ArrayList<>(count);
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                // streams after the first one share the connection
+                PhaseTimings streamTimings = timings;
+                if (i != 0) {
+                    streamTimings = new PhaseTimings();
+                    streamTimings.start = start;
+                    streamTimings.reused = true;
+                }
+                streams.add(new Http2RawConnection.Stream(headers, requestBody,
+                        verbose && i == 0 ? body : OutputStream.nullOutputStream(), streamTimings));
+            }
+            List<Http2RawConnection.Frame> frames = verbose ? new ArrayList<>() : null;
+            try {
+                connection.exchange(streams, frames);
+            } catch (IOException e) {
+                connection.close();
+                body.close();
+                if (timings.reused && streams.stream().allMatch(stream -> stream.timings.firstByte == -1)) {
+                    // idle connection was closed by the server, let's retry with a new one
+                    continue;
+                }
+                throw e;
+            }
+            String address = connection.getRemoteAddress().getHostAddress();
+            http2RawClient.release(connection);
+
+            List<ExchangeResult> results = new ArrayList<>(count);
+            String error = null;
+            for (Http2RawConnection.Stream stream : streams) {
+                if (stream.error != null) {
+                    error = error == null ? stream.error : error;
+                    continue;
+                }
+                ExchangeResult result = new ExchangeResult();
+                result.statusCode = stream.statusCode;
+                result.bytesOut = Math.max(bodyLength, 0);
+                result.bytesIn = stream.bytesIn;
+                result.latencyNanos = stream.timings.lastByte - stream.timings.start;
+                result.timings = stream.timings;
+                result.address = address;
+                results.add(result);
+            }
+            if (error != null && (!verbose || streams.get(0).error != null)) {
+                body.close();
+                throw new IOException(error);
+            }
+            if (!verbose) {
+                return results;
+            }
+
+            Http2RawConnection.Stream stream = streams.get(0);
+            try (body) {
+                printHttp2Response(stream.statusCode + " "
+                        + HttpResponseStatus.valueOf(stream.statusCode).reasonPhrase() + " " + HttpType.HTTP_2,
+                        stream.responseHeaders, stream.trailers, stream.bytesIn == 0 ? null : body);
+            }
+
+            printLine("FRAMES");
+            for (Http2RawConnection.Frame frame : frames) {
+                systemOut.println(String.format("%10.3f ms  %s", (frame.nanos - timings.start) / 1e6, frame));
+            }
+            printLine("END");
+            if (count > 1) {
+                long end = streams.stream().mapToLong(s -> s.timings.lastByte).max().getAsLong();
+                printPipelineResults("STREAMS RESULTS", results, count, end - start);
+                printLine("END");
+            }
+            if (error != null) {
+                LOG.error("Failed sending request: {}", error);
+            }
+            return results;
+        }
+    }
+
+    private static List<String[]> buildHttp2Headers(Request request, long bodyLength) {
+        List<String[]> headers = new ArrayList<>();
+        boolean defaultPort = request.port == (request.useTls ? 443 : 80);
+        headers.add(new String[] { ":method", request.method });
+        headers.add(new String[] { ":scheme", request.useTls ? "https" : "http" });
+        headers.add(new String[] { ":authority", defaultPort ? request.host : request.host + ":" + request.port });
+        headers.add(new String[] { ":path", request.path });
+        for (Header h : request.headers) {
+            if (h.name == null || h.value == null) {
+                continue;
+            }
+            String name = h.name.toLowerCase();
+            String value = bodyLength != -1 && "content-length".equals(name) ? String.valueOf(bodyLength) : h.value;
+            headers.add(new String[] { name, value });
+        }
+        return headers;
+    }
+
+    private void printHttp2Response(String statusLine, List<Header> headers, List<Header> trailers,
+            BodyCapture body) throws Exception {
         printLine("RESPONSE HEADERS");
-        systemOut.println(response.statusCode() + " " + response.statusMessage() + " " + response.version());
-        response.headers().forEach(e -> {
-            Header header = new Header();
-            header.name = e.getKey();
-            header.value = e.getValue();
-            responseHeaders.add(header);
-            systemOut.println(e.getKey() + ": " + e.getValue());
-        });
+        systemOut.println(statusLine);
+        headers.forEach(h -> systemOut.println(h.name + ": " + h.value));
 
-        byte[] body;
-        if (response.body() == null) {
+        if (body == null) {
             printLine("RESPONSE HAS NO BODY");
-            body = new byte[0];
         } else {
-            body = response.body().getBytes();
             printLine("RESPONSE BODY");
             int bodyOutLimit = 500;
-            if (body.length <= bodyOutLimit) {
-                systemOut.write(body);
-            } else {
-                systemOut.write(body, 0, bodyOutLimit);
+            // mapped windows of a spilled body are larger than the limit
+            ByteSlice first = body.slices().get(0);
+            first.slice(0, Math.min(first.length(), bodyOutLimit)).writeTo(systemOut);
+            if (body.size() > bodyOutLimit) {
                 systemOut.println("\n[... cropped data over the length of " + bodyOutLimit + " ...]");
             }
             printLine();
         }
+        if (!trailers.isEmpty()) {
+            printLine("TRAILERS");
+            trailers.forEach(h -> systemOut.println(h.name + ": " + h.value));
+        }
+
+        try (BodyCapture decoded = new BodyCapture(spillThreshold)) {
+            ContentDecoding contentDecoding = ContentDecoding.create(headers, decoded);
+            if (contentDecoding.getCodings().isEmpty()) {
+                // nothing to decode, the body is analyzed as it was captured
+                analyzeHttpsResponse(headers, body == null ? decoded : body);
+                return;
+            }
+            for (ByteSlice slice : body == null ? List.<ByteSlice>of() : body.slices()) {
+                slice.writeTo(contentDecoding.getInput());
+            }
+            contentDecoding.finish();
+            printContentDecoding(contentDecoding.getCodings());
+
+            analyzeHttpsResponse(headers, decoded);
+        }
+    }
+
+    private static List<Header> toHeaders(MultiMap multiMap) {
+        List<Header> headers = new ArrayList<>();
+        multiMap.forEach(e -> {
+            Header header = new Header();
+            header.name = e.getKey();
+            header.value = e.getValue();
+            headers.add(header);
+        });
+        return headers;
+    }
 
-        analyzeHttpsResponse(responseHeaders, body, true);
+    private void printFlowControl(Http2FlowControlMonitor.Counters counters) {
+        systemOut.println(String.format("Data frames:  %d", counters.dataFrames));
+        systemOut.println(String.format("Data bytes:   %d", counters.dataBytes));
+        systemOut.println(String.format("Win updates:  %d", counters.windowUpdates));
+        systemOut.println(String.format("Stalls:       %d", counters.stalls));
     }
 
     // ========================== UTILS ========================
 
-    private void analyzeHttpsResponse(List<Header> headers, byte[] body, boolean ignoreChunkedProcessing)
-            throws Exception {
-        boolean isChunkedResponse = false;
-        boolean isGzipped = false;
-        boolean isDeflated = false;
+    private void analyzeHttpsResponse(List<Header> headers, BodyCapture body) throws Exception {
         boolean isJSON = false;
         boolean isXML = false;
         boolean isText = false;
@@ -429,18 +1811,6 @@ public class Main implements QuarkusApplication {
             String headerName = headerParsed.name.trim().toLowerCase();
             String headerValue = headerParsed.value.trim().toLowerCase();
             switch (headerName) {
-                case "transfer-encoding":
-                    if ("chunked".equals(headerValue) && !ignoreChunkedProcessing) {
-                        isChunkedResponse = true;
-                    }
-                    break;
-                case "content-encoding":
-                    if ("gzip".equals(headerValue)) {
-                        isGzipped = true;
-                    } else if ("deflate".equals(headerValue)) {
-                        isDeflated = true;
-                    }
-                    break;
                 case "content-type": //
                 {
                     String[] parts = PATTERN_SEMICOLON.split(headerValue);
@@ -478,82 +1848,81 @@ public class Main implements QuarkusApplication {
             }
         }
 
-        if (isChunkedResponse) {
-            printLine("CONVERTING FROM CHUNKED FORMAT");
-            body = ArraysUtil.parseChunkedResponse(body);
-        }
-        if (isGzipped) {
-            printLine("UNGZIPPING");
-            body = unGzip(body);
-        } else if (isDeflated) {
-            printLine("UNDEFLATING");
-            body = unDeflate(body);
-        }
         if (isText) {
             Objects.requireNonNull(charset, "Charset not detected");
-            String responseText = new String(body, charset);
             if (isJSON) {
                 printLine("JSON");
-                String parsed;
+                // formatted straight from the body bytes, the text is decoded only if it's
+                // not valid JSON
+                Writer out = new BufferedWriter(new OutputStreamWriter(systemOut, Charset.defaultCharset()));
                 try {
-                    parsed = FormatterUtils.formatJSON(responseText);
-                } catch (Exception e) {
+                    FormatterUtils.formatJSON(new InputStreamReader(body.openStream(), charset), out);
+                    systemOut.println();
+                } catch (IllegalArgumentException e) {
+                    out.flush();
+                    systemOut.println();
                     LOG.error("Error during JSON pretty-print", e);
                     printLine("TEXT");
-                    parsed = responseText;
+                    printText(body, charset);
                 }
-                systemOut.println(parsed);
             } else if (isXML) {
                 printLine("XML");
-                String parsed;
+                Writer out = new BufferedWriter(new OutputStreamWriter(systemOut, Charset.defaultCharset()));
                 try {
-                    parsed = FormatterUtils.formatXML(responseText);
-                } catch (Exception e) {
+                    FormatterUtils.formatXML(new InputStreamReader(body.openStream(), charset), out);
+                    systemOut.println();
+                } catch (XMLStreamException e) {
+                    out.flush();
+                    systemOut.println();
                     LOG.error("Error during XML pretty-print", e);
                     printLine("TEXT");
-                    parsed = responseText;
+                    printText(body, charset);
                 }
-                systemOut.println(parsed);
             } else {
                 printLine("TEXT");
-                systemOut.println(responseText);
+                printText(body, charset);
             }
         } else {
             printLine("RAW");
-            systemOut.write(body);
+            for (ByteSlice slice : body.slices()) {
+                slice.writeTo(systemOut);
+            }
             systemOut.println();
         }
 
         printLine("END");
     }
 
-    private static SSLContext buildTrustAllSSLContext() throws Exception {
-        TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
-            public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-                return null;
-            }
-
-            public void checkClientTrusted(X509Certificate[] certs, String authType) {
-            }
+    /**
+     * Prints the body as text, decoding it on the fly instead of into a string.
+     */
+    private void printText(BodyCapture body, Charset charset) throws IOException {
+        Writer out = new OutputStreamWriter(systemOut, Charset.defaultCharset());
+        try (Reader in = new InputStreamReader(body.openStream(), charset)) {
+            in.transferTo(out);
+        }
+        out.flush();
+        systemOut.println();
+    }
 
-            public void checkServerTrusted(X509Certificate[] certs, String authType) {
-            }
-        } };
-        SSLContext sc = SSLContext.getInstance("SSL");
-        sc.init(null, trustAllCerts, new SecureRandom());
-        return sc;
+    private static String argValue(String[] args, int idx) {
+        if (idx >= args.length) {
+            throw new IllegalArgumentException("Value is missing for argument " + args[idx - 1]);
+        }
+        return args[idx];
     }
 
-    private static byte[] unGzip(byte[] src) throws Exception {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        new GZIPInputStream(new ByteArrayInputStream(src)).transferTo(baos);
-        return baos.toByteArray();
+    private static int positive(int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("Value should be positive: " + value);
+        }
+        return value;
     }
 
-    private static byte[] unDeflate(byte[] src) throws Exception {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        new InflaterInputStream(new ByteArrayInputStream(src)).transferTo(baos);
-        return baos.toByteArray();
+    private void printContentDecoding(List<String> codings) {
+        for (String coding : codings) {
+            printLine("deflate".equals(coding) ? "UNDEFLATING" : "UNGZIPPING");
+        }
     }
 
     private void printLine() {
@@ -586,11 +1955,66 @@ public class Main implements QuarkusApplication {
                 + "from the request and send it to host and URL specified in the headers (host from\n" //
                 + "\"host\" header, and URL from the first line of the HTTP request). Port to connect\n" //
                 + "to will be taken from the host, if set. Otherwise port 433 will be used for SSL/TLS,\n" //
-                + "and 80 for non-SSL/TLS connection." //
+                + "and 80 for non-SSL/TLS connection. Body of a single \"@<file>\" line is streamed\n" //
+                + "from the file." //
                 + "\n\n" //
                 + "Params:\n" //
                 + "\t -tls - force use SSL/TLS\n" //
-                + "\t -h2 - force use of HTTP/2" //
+                + "\t -h2 - force use of HTTP/2\n" //
+                + "\t -n <count> - load mode: send the request <count> times\n" //
+                + "\t -c <workers> - load mode: number of concurrent workers sending the request\n" //
+                + "\t -virtual-threads - HTTP/1 load mode on JDK 21+: run workers and response readers as virtual\n" //
+                + "\t\t threads, and report carrier thread pinning\n" //
+                + "\t -rate <requests>[/s] - load mode: start -n requests at this rate whatever the responses,\n" //
+                + "\t\t latency is measured from the time a request was due; -c is the max requests in flight\n" //
+                + "\t -stages <duration>:<rate>[-<rate>],... - load mode: -rate with ramps and holds,\n" //
+                + "\t\t e.g. 30s:0-500,2m:500,30s:500-0\n" //
+                + "\t -worker [<host>:]<port> - run load jobs of -workers coordinators, listening on the port\n" //
+                + "\t\t of the host, default is the loopback interface\n" //
+                + "\t -workers <host>:<port>,... - distributed load: split -n, -c and the rate between the workers\n" //
+                + "\t\t (-worker processes), start them together and merge their results; no files are sent\n" //
+                + "\t -token <secret> - shared secret of -worker and -workers, jobs with another one are refused\n" //
+                + "\t -nio <event loops> - HTTP/1 load mode: drive the -c connections from this many selector\n" //
+                + "\t\t threads with non-blocking sockets, for thousands of connections\n" //
+                + "\t -pipeline <depth> - HTTP/1 pipelining: write <depth> copies of the request back-to-back\n" //
+                + "\t\t on one connection, then read the responses in order;\n" //
+                + "\t\t HTTP/2: send <depth> copies of the request as concurrent streams\n" //
+                + "\t -h2-pool-size <connections> - HTTP/2: max connections per host (default 1)\n" //
+                + "\t -h2-multiplexing <streams> - HTTP/2: max concurrent streams per connection\n" //
+                + "\t\t (default is the server's SETTINGS_MAX_CONCURRENT_STREAMS)\n" //
+                + "\t -h2-window <bytes> - HTTP/2: initial stream receive window (SETTINGS_INITIAL_WINDOW_SIZE)\n" //
+                + "\t -h2-conn-window <bytes> - HTTP/2: connection receive window (default 65535)\n" //
+                + "\t -h2-max-frame <bytes> - HTTP/2: max frame size the server may send (SETTINGS_MAX_FRAME_SIZE)\n" //
+                + "\t -h2-header-table <bytes> - HTTP/2: HPACK table size (SETTINGS_HEADER_TABLE_SIZE)\n" //
+                + "\t -h2-max-streams <streams> - HTTP/2: SETTINGS_MAX_CONCURRENT_STREAMS sent to the server\n" //
+                + "\t -h2-flow-report - HTTP/2: print DATA frames, WINDOW_UPDATEs sent and flow-control stalls\n" //
+                + "\t -h2c-upgrade - HTTP/2 over clear text (\":scheme: http\"): start connection with HTTP/1.1\n" //
+                + "\t\t \"Upgrade: h2c\" request instead of prior knowledge\n" //
+                + "\t -h2-raw - HTTP/2: send frames directly over the socket instead of Vert.x client,\n" //
+                + "\t\t print every frame sent and received with its time; \":scheme: http\" means h2c\n" //
+                + "\t -h2-raw-headers-frame <bytes> - raw HTTP/2: split header block into HEADERS and CONTINUATION\n" //
+                + "\t\t frames of this size\n" //
+                + "\t -h2-raw-data-frame <bytes> - raw HTTP/2: max DATA frame size for the request body\n" //
+                + "\t -h2-raw-hpack <incremental|without|never> - raw HTTP/2: HPACK indexing of header fields\n" //
+                + "\t -results <file> - write timings, status, bytes and error of every request as it completes,\n" //
+                + "\t\t CSV or binary (*.bin), through a bounded queue that never stalls the senders\n" //
+                + "\t -histogram-log <file> - write mergeable latency histograms of every interval\n" //
+                + "\t -histogram-interval <ms> - interval of -histogram-log (default 1000)\n" //
+                + "\t -batch <file> - send all requests from the file in one process; requests are separated\n" //
+                + "\t\t by \"###\" lines, or the file is JSON lines (*.jsonl) with the raw request in \"request\" field\n" //
+                + "\t -feeder <file> - HTTP/1: CSV or JSON lines (*.jsonl) file with values for \"${<column>}\"\n" //
+                + "\t\t placeholders, request N gets row N; \"${seq}\", \"${uuid}\" and \"${random}\" work without it\n" //
+                + "\t -stream - HTTP/1: print decoded response body as it arrives, instead of raw response bytes;\n" //
+                + "\t\t useful for long-polling and streaming endpoints\n" //
+                + "\t -spill-threshold <bytes> - response bodies over this size are kept in a temporary file\n" //
+                + "\t\t instead of memory, default is 16777216\n" //
+                + "\t -dns-ttl <seconds> - cache resolved addresses for this time, default is 60, 0 disables\n" //
+                + "\t -spread-ips - open new connections to all addresses of the host in turn and print latency\n" //
+                + "\t\t per address in load mode, instead of racing the addresses (Happy Eyeballs)\n" //
+                + "\t -timings - print DNS, connect, TLS, write, time to first byte and transfer timings\n" //
+                + "\t\t of the request\n" //
+                + "\t -timings-json <file> - append the timings of every request (load mode included) to the file,\n" //
+                + "\t\t one JSON object per line" //
         );
     }
 }
\ No newline at end of file
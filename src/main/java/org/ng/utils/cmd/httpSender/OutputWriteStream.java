@@ -0,0 +1,92 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.WriteStream;
+
+/**
+ * Vert.x write stream over an output stream, so the HTTP/2 client can pipe a
+ * response body into a {@link BodyCapture}, or just count its bytes, instead of
+ * collecting it into a buffer. Writes are done right away on the event loop.
+ */
+final class OutputWriteStream implements WriteStream<Buffer> {
+
+    private final OutputStream out;
+    private Handler<Throwable> exceptionHandler;
+    private volatile long bytesWritten;
+
+    OutputWriteStream(OutputStream out) {
+        this.out = out;
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public OutputWriteStream exceptionHandler(Handler<Throwable> handler) {
+        this.exceptionHandler = handler;
+        return this;
+    }
+
+    @Override
+    public OutputWriteStream write(Buffer data) {
+        return write(data, null);
+    }
+
+    @Override
+    public OutputWriteStream write(Buffer data, Handler<AsyncResult<Void>> handler) {
+        ByteBuf buf = data.getByteBuf();
+        int length = buf.readableBytes();
+        try {
+            buf.getBytes(buf.readerIndex(), out, length);
+            bytesWritten += length;
+        } catch (IOException e) {
+            if (exceptionHandler != null) {
+                exceptionHandler.handle(e);
+            }
+            if (handler != null) {
+                handler.handle(Future.failedFuture(e));
+            }
+            return this;
+        }
+        if (handler != null) {
+            handler.handle(Future.succeededFuture());
+        }
+        return this;
+    }
+
+    @Override
+    public void end() {
+        end((Handler<AsyncResult<Void>>) null);
+    }
+
+    @Override
+    public void end(Handler<AsyncResult<Void>> handler) {
+        if (handler != null) {
+            handler.handle(Future.succeededFuture());
+        }
+    }
+
+    @Override
+    public OutputWriteStream setWriteQueueMaxSize(int maxSize) {
+        return this;
+    }
+
+    @Override
+    public boolean writeQueueFull() {
+        return false;
+    }
+
+    @Override
+    public OutputWriteStream drainHandler(Handler<Void> handler) {
+        return this;
+    }
+
+}
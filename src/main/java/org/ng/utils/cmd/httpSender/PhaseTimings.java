@@ -0,0 +1,93 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.util.Locale;
+
+/**
+ * Timestamps ({@link System#nanoTime()}) of the request phases. A timestamp is
+ * -1 if the phase did not happen, e.g. DNS, connect and TLS for a reused
+ * connection, or could not be observed.
+ */
+final class PhaseTimings {
+
+    long start = -1;
+    long dnsDone = -1;
+    long connectDone = -1;
+    long tlsDone = -1;
+    long writeDone = -1;
+    long firstByte = -1;
+    long lastByte = -1;
+    boolean reused;
+    /**
+     * TLS handshake was abbreviated, with a session resumed from the client
+     * cache; valid if {@link #tlsDone} is set.
+     */
+    boolean tlsResumed;
+
+    long getDns() {
+        return since(dnsDone, start);
+    }
+
+    long getConnect() {
+        return since(connectDone, dnsDone, start);
+    }
+
+    long getTls() {
+        return since(tlsDone, connectDone);
+    }
+
+    long getWrite() {
+        return since(writeDone, tlsDone, connectDone, start);
+    }
+
+    /**
+     * @return time from the request written to the first response byte
+     */
+    long getTtfb() {
+        return since(firstByte, writeDone);
+    }
+
+    long getTransfer() {
+        return since(lastByte, firstByte);
+    }
+
+    long getTotal() {
+        return since(lastByte, start);
+    }
+
+    /**
+     * @return single line JSON object with durations in milliseconds, null for
+     *         phases not available
+     */
+    String toJson() {
+        return "{\"connection\":\"" + (reused ? "reused" : "new") + "\"" //
+                + ",\"dns_ms\":" + toJsonMillis(getDns()) //
+                + ",\"connect_ms\":" + toJsonMillis(getConnect()) //
+                + ",\"tls_ms\":" + toJsonMillis(getTls()) //
+                + ",\"tls_resumed\":" + (tlsDone == -1 ? "null" : Boolean.toString(tlsResumed)) //
+                + ",\"write_ms\":" + toJsonMillis(getWrite()) //
+                + ",\"ttfb_ms\":" + toJsonMillis(getTtfb()) //
+                + ",\"transfer_ms\":" + toJsonMillis(getTransfer()) //
+                + ",\"total_ms\":" + toJsonMillis(getTotal()) + "}";
+    }
+
+    /**
+     * @return duration from the first available of {@code from} timestamps to
+     *         {@code to}, -1 if not available
+     */
+    private static long since(long to, long... from) {
+        if (to == -1) {
+            return -1;
+        }
+        for (long timestamp : from) {
+            if (timestamp != -1) {
+                return to - timestamp;
+            }
+        }
+        return -1;
+    }
+
+    private static String toJsonMillis(long nanos) {
+        return nanos == -1 ? "null" : String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+}
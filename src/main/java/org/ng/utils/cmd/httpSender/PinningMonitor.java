@@ -0,0 +1,95 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Records JFR "jdk.VirtualThreadPinned" events: a virtual thread that blocks
+ * while it can't unmount (e.g. inside {@code synchronized}, which is where
+ * blocking {@code SSLSocket} I/O usually pins) holds its carrier thread, so
+ * other virtual threads can't run on it. Pins are counted by the frame the
+ * thread blocked at.
+ */
+final class PinningMonitor implements AutoCloseable {
+
+    static final String EVENT = "jdk.VirtualThreadPinned";
+
+    static final class Report {
+        long pins;
+        long pinnedNanos;
+        /** number of pins by the first application frame of the stack */
+        final Map<String, Long> byFrame = new TreeMap<>();
+    }
+
+    private final Recording recording = new Recording();
+
+    PinningMonitor() {
+        // every pin is recorded, not only those over the default 20 ms
+        recording.enable(EVENT).withStackTrace().withThreshold(Duration.ZERO);
+        recording.setName("httpSender pinning");
+    }
+
+    void start() {
+        recording.start();
+    }
+
+    /**
+     * Stops the recording and reads the pins from it.
+     */
+    Report stop() throws IOException {
+        recording.stop();
+        Path file = Files.createTempFile("httpSender", ".jfr");
+        try {
+            recording.dump(file);
+            Report report = new Report();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                if (!EVENT.equals(event.getEventType().getName())) {
+                    continue;
+                }
+                report.pins++;
+                report.pinnedNanos += event.getDuration().toNanos();
+                report.byFrame.merge(blockedAt(event.getStackTrace()), 1L, Long::sum);
+            }
+            return report;
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Override
+    public void close() {
+        recording.close();
+    }
+
+    /**
+     * @return first frame below the virtual thread parking machinery
+     */
+    private static String blockedAt(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return "unknown";
+        }
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            if (!frame.isJavaFrame()) {
+                continue;
+            }
+            String type = frame.getMethod().getType().getName();
+            if (type.startsWith("java.lang.VirtualThread") || type.startsWith("java.lang.Thread")
+                    || type.startsWith("jdk.internal.") || type.startsWith("java.util.concurrent.locks.")) {
+                continue;
+            }
+            return type + "." + frame.getMethod().getName();
+        }
+        return "unknown";
+    }
+
+}
@@ -0,0 +1,306 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-model load generator: starts requests on a fixed timetable of arrival
+ * rates whether or not the previous responses came, and measures latency from
+ * the time a request was due to start. A closed loop sends less while the
+ * server stalls, so the stall hides in a few slow samples (coordinated
+ * omission); here every request due during the stall waits for it and the
+ * percentiles show it.
+ * <p>
+ * At most {@code maxInFlight} requests are outstanding. When they are all
+ * taken, or the thread that starts them can't keep up, requests start late:
+ * such starts are counted, and their latency still includes the wait.
+ */
+final class RateRunner {
+
+    /** requests started later than this behind the schedule are counted as late */
+    static final long LATE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    static final int DEFAULT_MAX_IN_FLIGHT = 1000;
+
+    /**
+     * Part of the schedule where the rate changes linearly from one value to
+     * another, or stays the same.
+     */
+    static final class Stage {
+        final long durationNanos;
+        /** requests per second */
+        final double fromRate;
+        final double toRate;
+
+        Stage(long durationNanos, double fromRate, double toRate) {
+            if (durationNanos <= 0 || fromRate < 0 || toRate < 0) {
+                throw new IllegalArgumentException("Stage should have positive duration and non-negative rates");
+            }
+            this.durationNanos = durationNanos;
+            this.fromRate = fromRate;
+            this.toRate = toRate;
+        }
+
+        double requests() {
+            return (fromRate + toRate) / 2 * durationNanos / 1e9;
+        }
+
+        /**
+         * @return seconds from the start of the stage until {@code count}
+         *         requests are due
+         */
+        double secondsUntil(double count) {
+            if (count <= 0) {
+                return 0;
+            }
+            // count(t) = fromRate * t + a * t^2, solved for t in the form that
+            // is stable for a constant rate (a = 0) too
+            double a = (toRate - fromRate) / (2 * durationNanos / 1e9);
+            double root = Math.sqrt(Math.max(0, fromRate * fromRate + 4 * a * count));
+            return 2 * count / (fromRate + root);
+        }
+    }
+
+    /**
+     * Stages of the load, e.g. ramp-up, hold and ramp-down.
+     */
+    static final class Schedule {
+        final List<Stage> stages;
+        private final String description;
+        // number of requests due before each stage
+        private final double[] stageStarts;
+        private final long[] stageStartNanos;
+        private final long requests;
+
+        Schedule(List<Stage> stages, String description) {
+            if (stages.isEmpty()) {
+                throw new IllegalArgumentException("Schedule should have stages");
+            }
+            this.stages = stages;
+            this.description = description;
+            this.stageStarts = new double[stages.size() + 1];
+            this.stageStartNanos = new long[stages.size() + 1];
+            for (int i = 0; i < stages.size(); i++) {
+                stageStarts[i + 1] = stageStarts[i] + stages.get(i).requests();
+                stageStartNanos[i + 1] = stageStartNanos[i] + stages.get(i).durationNanos;
+            }
+            // rounding errors of the sum shouldn't lose the last request
+            this.requests = (long) Math.floor(stageStarts[stages.size()] + 1e-9);
+        }
+
+        /**
+         * @return schedule of {@code requests} requests at the same rate
+         */
+        static Schedule constant(double rate, long requests, String description) {
+            if (rate <= 0) {
+                throw new IllegalArgumentException("Rate should be positive: " + rate);
+            }
+            return new Schedule(List.of(new Stage((long) Math.ceil(requests / rate * 1e9), rate, rate)),
+                    description);
+        }
+
+        /**
+         * Parses stages separated by commas, each "duration:rate" for a constant
+         * rate or "duration:from-to" for a linear ramp, e.g.
+         * "30s:0-5000,2m:5000,30s:5000-0". Durations are in ms, s or m, rates
+         * are per second.
+         */
+        static Schedule parse(String spec) {
+            List<Stage> stages = new ArrayList<>();
+            for (String stage : spec.split(",")) {
+                int colon = stage.indexOf(':');
+                if (colon == -1) {
+                    throw new IllegalArgumentException("Stage should be <duration>:<rate>: " + stage);
+                }
+                String rates = stage.substring(colon + 1).trim();
+                int dash = rates.indexOf('-');
+                double from = parseRate(dash == -1 ? rates : rates.substring(0, dash));
+                double to = dash == -1 ? from : parseRate(rates.substring(dash + 1));
+                stages.add(new Stage(parseDuration(stage.substring(0, colon).trim()), from, to));
+            }
+            return new Schedule(stages, spec);
+        }
+
+        /**
+         * @param rate requests per second, with optional "/s" or "/m" for per
+         *             minute
+         */
+        static double parseRate(String rate) {
+            rate = rate.trim();
+            double perSecond = 1;
+            if (rate.endsWith("/s")) {
+                rate = rate.substring(0, rate.length() - 2);
+            } else if (rate.endsWith("/m")) {
+                rate = rate.substring(0, rate.length() - 2);
+                perSecond = 1 / 60.0;
+            }
+            return Double.parseDouble(rate) * perSecond;
+        }
+
+        /**
+         * @return the rate as {@link #parseRate(String)} reads it back, without
+         *         an exponent, whose minus sign would be taken for a stage's
+         *         rate range
+         */
+        static String formatRate(double rate) {
+            return BigDecimal.valueOf(rate).stripTrailingZeros().toPlainString();
+        }
+
+        private static long parseDuration(String duration) {
+            if (duration.endsWith("ms")) {
+                return TimeUnit.MILLISECONDS.toNanos(Long.parseLong(duration.substring(0, duration.length() - 2)));
+            } else if (duration.endsWith("s")) {
+                return TimeUnit.SECONDS.toNanos(Long.parseLong(duration.substring(0, duration.length() - 1)));
+            } else if (duration.endsWith("m")) {
+                return TimeUnit.MINUTES.toNanos(Long.parseLong(duration.substring(0, duration.length() - 1)));
+            }
+            throw new IllegalArgumentException("Duration should end with ms, s or m: " + duration);
+        }
+
+        /**
+         * @return spec of the stages with the rates multiplied by
+         *         {@code factor}, for {@link #parse(String)}, e.g. the share of a
+         *         worker of the distributed load
+         */
+        String scaledSpec(double factor) {
+            StringJoiner spec = new StringJoiner(",");
+            for (Stage stage : stages) {
+                spec.add(TimeUnit.NANOSECONDS.toMillis(stage.durationNanos) + "ms:"
+                        + formatRate(stage.fromRate * factor) + "-" + formatRate(stage.toRate * factor));
+            }
+            return spec.toString();
+        }
+
+        /**
+         * @return nanoseconds from the start of the first stage until the end
+         *         of the last one
+         */
+        long durationNanos() {
+            return stageStartNanos[stages.size()];
+        }
+
+        /**
+         * @return number of requests in the schedule
+         */
+        long requests() {
+            return requests;
+        }
+
+        /**
+         * @param index number of the request, from 0
+         * @return nanoseconds from the start of the load until the request is due
+         */
+        long startNanos(long index) {
+            int stage = 0;
+            while (stage < stages.size() - 1 && stageStarts[stage + 1] <= index) {
+                stage++;
+            }
+            double seconds = stages.get(stage).secondsUntil(index - stageStarts[stage]);
+            return stageStartNanos[stage] + Math.min((long) (seconds * 1e9), stages.get(stage).durationNanos);
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    private final Schedule schedule;
+    private final long requests;
+    private final int maxInFlight;
+    private final LoadRunner.Exchange exchange;
+    private final ThreadFactory threadFactory;
+    private final ResultsLog log;
+
+    /**
+     * @param requests      number of requests to send, no more than the schedule
+     *                      has
+     * @param threadFactory creates the threads the requests are sent from, e.g.
+     *                      virtual ones
+     * @param log           log of every request, or {@code null}
+     */
+    RateRunner(Schedule schedule, long requests, int maxInFlight, LoadRunner.Exchange exchange,
+            ThreadFactory threadFactory, ResultsLog log) {
+        if (requests < 1) {
+            throw new IllegalArgumentException("Number of requests should be positive: " + requests);
+        }
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Max requests in flight should be positive: " + maxInFlight);
+        }
+        this.schedule = schedule;
+        this.requests = Math.min(requests, schedule.requests());
+        this.maxInFlight = maxInFlight;
+        this.exchange = exchange;
+        this.threadFactory = threadFactory;
+        this.log = log;
+    }
+
+    LoadRunner.Stats run() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool(threadFactory);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        LoadRunner.StripedStats stats = new LoadRunner.StripedStats(log);
+        // start lag is recorded by this thread only
+        LoadRunner.Stats total = new LoadRunner.Stats();
+        try {
+            long start = System.nanoTime();
+            for (long i = 0; i < requests; i++) {
+                long due = start + schedule.startNanos(i);
+                for (long now; (now = System.nanoTime()) < due;) {
+                    LockSupport.parkNanos(due - now);
+                }
+                inFlight.acquire();
+                long lag = System.nanoTime() - due;
+                total.startLag.record(lag);
+                if (lag > LATE_NANOS) {
+                    total.late++;
+                }
+                executor.execute(() -> {
+                    try {
+                        send(due, stats);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            // all the permits are back when the last response came
+            inFlight.acquire(maxInFlight);
+            total.durationNanos = System.nanoTime() - start;
+            total.add(stats.merge());
+            return total;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void send(long due, LoadRunner.StripedStats stats) {
+        long start = System.nanoTime();
+        List<ExchangeResult> results = null;
+        Exception failure = null;
+        try {
+            results = exchange.send(1);
+        } catch (Exception e) {
+            failure = e;
+        }
+        long end = System.nanoTime();
+        LoadRunner.Stats stripe = stats.stripe();
+        synchronized (stripe) {
+            if (failure != null) {
+                stripe.recordError(failure, 1);
+            } else {
+                for (ExchangeResult result : results) {
+                    stripe.record(result, end - due);
+                    stripe.serviceTime.record(result.latencyNanos == -1 ? end - start : result.latencyNanos);
+                }
+            }
+            stripe.requests++;
+        }
+    }
+
+}
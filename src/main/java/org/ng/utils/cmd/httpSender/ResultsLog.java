@@ -0,0 +1,305 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes a record of every request as it completes, and the latency histogram
+ * of every interval, for runs to be compared offline. Sender threads only put
+ * the records to a bounded queue, the files are written by a thread of the
+ * log: if it can't keep up and the queue is full, records are dropped and
+ * counted instead of holding the senders up.
+ * <p>
+ * Records are CSV, or binary for a "*.bin" file: the magic "HSR1", then per
+ * record start time (epoch microseconds, long), DNS, connect, TLS, write,
+ * TTFB, transfer, total and latency (microseconds, int each), status (short),
+ * flags (byte, 1 - reused connection), bytes out and in (long each) and the
+ * error class ({@link DataOutputStream#writeUTF}, empty if none), big-endian;
+ * missing values are -1.
+ * <p>
+ * The histogram log has a line per interval with the interval start and
+ * length, count, p50, p99, max and the histogram encoded with
+ * {@link LatencyHistogram#encode()}, so the intervals of one or several runs
+ * can be merged.
+ */
+final class ResultsLog implements AutoCloseable {
+
+    static final String CSV_HEADER = "start_us,connection,dns_us,connect_us,tls_us,write_us,ttfb_us,transfer_us,"
+            + "total_us,latency_us,status,bytes_out,bytes_in,error";
+    static final String HISTOGRAM_HEADER = "start_s,interval_s,count,p50_ms,p99_ms,max_ms,histogram";
+    static final int BINARY_MAGIC = 0x48535231;
+    static final int DEFAULT_CAPACITY = 65536;
+
+    private static final class Record {
+        final long endNanos;
+        /** -1 for a failed request */
+        final long latencyNanos;
+        final ExchangeResult result;
+        final String error;
+
+        Record(long endNanos, long latencyNanos, ExchangeResult result, String error) {
+            this.endNanos = endNanos;
+            this.latencyNanos = latencyNanos;
+            this.result = result;
+            this.error = error;
+        }
+    }
+
+    private final BlockingQueue<Record> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed;
+    private IOException failure;
+
+    // offset from System.nanoTime() to the epoch time
+    private final long epochOffsetNanos = System.currentTimeMillis() * 1_000_000 - System.nanoTime();
+    private final long startNanos = System.nanoTime();
+
+    private final Writer csv;
+    private final DataOutputStream binary;
+    private final StringBuilder line = new StringBuilder();
+
+    private final Writer histogramLog;
+    private final long intervalNanos;
+    private LatencyHistogram interval = new LatencyHistogram();
+    private long intervalStart;
+
+    /**
+     * @param recordsFile   file for the records, or {@code null}
+     * @param histogramFile file for the interval histograms, or {@code null}
+     */
+    ResultsLog(Path recordsFile, Path histogramFile, long intervalNanos, int capacity) throws IOException {
+        if (intervalNanos <= 0) {
+            throw new IllegalArgumentException("Histogram interval should be positive: " + intervalNanos);
+        }
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.intervalNanos = intervalNanos;
+        boolean binaryRecords = recordsFile != null && recordsFile.getFileName().toString().endsWith(".bin");
+        if (binaryRecords) {
+            this.csv = null;
+            this.binary = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(recordsFile), 65536));
+            binary.writeInt(BINARY_MAGIC);
+        } else {
+            this.binary = null;
+            this.csv = recordsFile == null ? null : Files.newBufferedWriter(recordsFile, StandardCharsets.UTF_8);
+            if (csv != null) {
+                csv.write(CSV_HEADER);
+                csv.write('\n');
+            }
+        }
+        this.histogramLog = histogramFile == null ? null
+                : Files.newBufferedWriter(histogramFile, StandardCharsets.UTF_8);
+        if (histogramLog != null) {
+            histogramLog.write("# start " + Instant.ofEpochMilli((startNanos + epochOffsetNanos) / 1_000_000)
+                    + ", latency histograms of " + intervalNanos / 1_000_000 + " ms intervals\n");
+            histogramLog.write(HISTOGRAM_HEADER);
+            histogramLog.write('\n');
+        }
+        this.writer = new Thread(this::write, "results-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Called by the sender threads.
+     *
+     * @param latencyNanos latency the load stats got, e.g. from the time the
+     *                     request was due
+     */
+    void completed(ExchangeResult result, long latencyNanos) {
+        offer(new Record(System.nanoTime(), latencyNanos, result, null));
+    }
+
+    /**
+     * Called by the sender threads for {@code count} requests that failed.
+     */
+    void failed(String error, long count) {
+        long now = System.nanoTime();
+        for (long i = 0; i < count; i++) {
+            offer(new Record(now, -1, null, error));
+        }
+    }
+
+    /**
+     * @return number of records that didn't fit the queue
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes the queued records and closes the files.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IOException closeFailure = failure;
+        for (Closeable out : new Closeable[] { csv, binary, histogramLog }) {
+            try {
+                if (out != null) {
+                    out.close();
+                }
+            } catch (IOException e) {
+                closeFailure = closeFailure != null ? closeFailure : e;
+            }
+        }
+        if (closeFailure != null) {
+            throw closeFailure;
+        }
+    }
+
+    private void offer(Record record) {
+        if (!queue.offer(record)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void write() {
+        List<Record> batch = new ArrayList<>(1024);
+        try {
+            for (;;) {
+                boolean closing = closed;
+                Record first = queue.poll(Math.min(100, intervalNanos / 1_000_000 + 1), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, 1023);
+                    for (Record record : batch) {
+                        write(record);
+                    }
+                    batch.clear();
+                    // the records may be looked at while the load goes on
+                    if (queue.isEmpty()) {
+                        flush();
+                    }
+                } else if (closing) {
+                    break;
+                }
+                // intervals without responses, e.g. while the server stalls, are logged too
+                rollInterval(System.nanoTime());
+            }
+            rollInterval(Long.MAX_VALUE);
+            flush();
+        } catch (IOException e) {
+            failure = e;
+            queue.clear();
+        } catch (InterruptedException e) {
+            failure = new IOException("Results log writer was interrupted", e);
+        }
+    }
+
+    private void write(Record record) throws IOException {
+        rollInterval(record.endNanos);
+        if (record.latencyNanos >= 0) {
+            interval.record(record.latencyNanos);
+        }
+        if (csv == null && binary == null) {
+            return;
+        }
+        ExchangeResult result = record.result;
+        PhaseTimings timings = result == null || result.timings == null ? new PhaseTimings() : result.timings;
+        long start = timings.start != -1 ? timings.start
+                : record.endNanos - Math.max(0, record.latencyNanos);
+        long startMicros = (start + epochOffsetNanos) / 1000;
+        long[] micros = { toMicros(timings.getDns()), toMicros(timings.getConnect()), toMicros(timings.getTls()),
+                toMicros(timings.getWrite()), toMicros(timings.getTtfb()), toMicros(timings.getTransfer()),
+                toMicros(timings.getTotal()), toMicros(record.latencyNanos) };
+        int status = result == null ? -1 : result.statusCode;
+        long bytesOut = result == null ? -1 : result.bytesOut;
+        long bytesIn = result == null ? -1 : result.bytesIn;
+        if (binary != null) {
+            binary.writeLong(startMicros);
+            for (long value : micros) {
+                binary.writeInt((int) Math.min(value, Integer.MAX_VALUE));
+            }
+            binary.writeShort(status);
+            binary.writeByte(timings.reused ? 1 : 0);
+            binary.writeLong(bytesOut);
+            binary.writeLong(bytesIn);
+            binary.writeUTF(record.error == null ? "" : record.error);
+            return;
+        }
+        line.setLength(0);
+        line.append(startMicros).append(',').append(result == null ? "" : timings.reused ? "reused" : "new");
+        for (long value : micros) {
+            line.append(',');
+            if (value != -1) {
+                line.append(value);
+            }
+        }
+        line.append(',');
+        if (status != -1) {
+            line.append(status);
+        }
+        line.append(',');
+        if (result != null) {
+            line.append(bytesOut).append(',').append(bytesIn);
+        } else {
+            line.append(',');
+        }
+        line.append(',');
+        if (record.error != null) {
+            line.append(record.error);
+        }
+        line.append('\n');
+        csv.append(line);
+    }
+
+    /**
+     * Writes the intervals that ended before {@code now}.
+     */
+    private void rollInterval(long now) throws IOException {
+        long end = startNanos + intervalStart + intervalNanos;
+        while (end <= now) {
+            boolean last = now == Long.MAX_VALUE;
+            if (last) {
+                // the last interval ends when the log is closed
+                end = System.nanoTime();
+            }
+            if (histogramLog != null) {
+                histogramLog.write(String.format(Locale.ROOT, "%.3f,%.3f,%d,%.3f,%.3f,%.3f,%s\n", intervalStart / 1e9,
+                        (end - startNanos - intervalStart) / 1e9, interval.getTotalCount(),
+                        interval.getValueAtPercentile(50) / 1e6, interval.getValueAtPercentile(99) / 1e6,
+                        interval.getMax() / 1e6, interval.encode()));
+            }
+            interval = new LatencyHistogram();
+            if (last) {
+                return;
+            }
+            intervalStart += intervalNanos;
+            end += intervalNanos;
+        }
+    }
+
+    private void flush() throws IOException {
+        for (Flushable out : new Flushable[] { csv, binary, histogramLog }) {
+            if (out != null) {
+                out.flush();
+            }
+        }
+    }
+
+    private static long toMicros(long nanos) {
+        return nanos < 0 ? -1 : nanos / 1000;
+    }
+
+}
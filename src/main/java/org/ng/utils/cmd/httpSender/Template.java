@@ -0,0 +1,246 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Request bytes with "${name}" placeholders, compiled once into literal ranges
+ * and slots, so rendering is a copy of the literals with the slot values
+ * written in between: no parsing, no regular expressions and no allocation
+ * once the output buffer has grown to the request size.
+ * <p>
+ * Placeholders:
+ * <ul>
+ * <li>{@code ${seq}} - number of the request, from 1</li>
+ * <li>{@code ${uuid}} - random UUID</li>
+ * <li>{@code ${random}} - random non-negative int</li>
+ * <li>{@code ${<column>}} - value of the column of the feeder row for the
+ * request</li>
+ * </ul>
+ * Other "${...}" text is left as is.
+ */
+final class Template {
+
+    /**
+     * Reusable buffer the template is rendered to.
+     */
+    static final class Output {
+        private byte[] bytes = new byte[256];
+        private int length;
+        private ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        int length() {
+            return length;
+        }
+
+        /**
+         * @return view of the rendered bytes, valid until the next render
+         */
+        ByteBuffer buffer() {
+            buffer.clear().limit(length);
+            return buffer;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(bytes, 0, length);
+        }
+
+        void reset() {
+            length = 0;
+        }
+
+        void append(Output other) {
+            append(other.bytes, 0, other.length);
+        }
+
+        void append(byte[] b, int from, int to) {
+            ensure(to - from);
+            System.arraycopy(b, from, bytes, length, to - from);
+            length += to - from;
+        }
+
+        private void appendLong(long value) {
+            ensure(20);
+            if (value == 0) {
+                bytes[length++] = '0';
+                return;
+            }
+            int end = length + digits(value);
+            for (int pos = end - 1; value != 0; value /= 10) {
+                bytes[pos--] = (byte) ('0' + value % 10);
+            }
+            length = end;
+        }
+
+        private void appendHex(long value, int digits) {
+            for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+                bytes[length++] = HEX[(int) (value >>> shift) & 0xF];
+            }
+        }
+
+        private void ensure(int more) {
+            if (length + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+                buffer = ByteBuffer.wrap(bytes);
+            }
+        }
+
+        private static int digits(long value) {
+            int digits = 1;
+            for (long limit = 10; digits < 19 && value >= limit; limit *= 10) {
+                digits++;
+            }
+            return digits;
+        }
+    }
+
+    /** length of the rendered body, set by {@link Http1Template} */
+    static final String BODY_LENGTH = "${bodyLength}";
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final int SLOT_SEQ = -1;
+    private static final int SLOT_UUID = -2;
+    private static final int SLOT_RANDOM = -3;
+    private static final int SLOT_BODY_LENGTH = -4;
+    // slots of feeder columns are the column indexes
+
+    private final byte[] text;
+    // literal text before slot i is text[literalStarts[i], literalEnds[i]), the
+    // last literal is text[literalStarts[slots.length], text.length)
+    private final int[] literalStarts;
+    private final int[] literalEnds;
+    private final int[] slots;
+    private final Feeder feeder;
+
+    private Template(byte[] text, int[] literalStarts, int[] literalEnds, int[] slots, Feeder feeder) {
+        this.text = text;
+        this.literalStarts = literalStarts;
+        this.literalEnds = literalEnds;
+        this.slots = slots;
+        this.feeder = feeder;
+    }
+
+    /**
+     * @param feeder source of column values, or {@code null}
+     */
+    static Template compile(byte[] text, Feeder feeder) {
+        int[] starts = new int[4];
+        int[] ends = new int[4];
+        int[] slots = new int[4];
+        int count = 0;
+        int literalStart = 0;
+        for (int i = 0; i + 3 < text.length; i++) {
+            if (text[i] != '$' || text[i + 1] != '{') {
+                continue;
+            }
+            int close = i + 2;
+            while (close < text.length && text[close] != '}' && text[close] != '$' && text[close] != '\n') {
+                close++;
+            }
+            if (close == text.length || text[close] != '}') {
+                continue;
+            }
+            int slot = slot(new String(text, i + 2, close - i - 2, StandardCharsets.UTF_8), feeder);
+            if (slot == Integer.MIN_VALUE) {
+                continue;
+            }
+            if (count == slots.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                slots = Arrays.copyOf(slots, count * 2);
+            }
+            starts[count] = literalStart;
+            ends[count] = i;
+            slots[count++] = slot;
+            literalStart = close + 1;
+            i = close;
+        }
+        starts = Arrays.copyOf(starts, count + 1);
+        starts[count] = literalStart;
+        return new Template(text, starts, Arrays.copyOf(ends, count), Arrays.copyOf(slots, count), feeder);
+    }
+
+    /**
+     * @return {@code true} if there are no placeholders, every request is the
+     *         same
+     */
+    boolean isConstant() {
+        return slots.length == 0;
+    }
+
+    /**
+     * @param bodyLength value of the "${bodyLength}" slot
+     */
+    void render(long seq, long bodyLength, Output out) {
+        out.reset();
+        for (int i = 0; i < slots.length; i++) {
+            out.append(text, literalStarts[i], literalEnds[i]);
+            switch (slots[i]) {
+                case SLOT_SEQ:
+                    out.appendLong(seq);
+                    break;
+                case SLOT_UUID:
+                    appendUuid(out);
+                    break;
+                case SLOT_RANDOM:
+                    out.appendLong(ThreadLocalRandom.current().nextInt() & Integer.MAX_VALUE);
+                    break;
+                case SLOT_BODY_LENGTH:
+                    out.appendLong(bodyLength);
+                    break;
+                default: {
+                    byte[] value = feeder.value(seq, slots[i]);
+                    out.append(value, 0, value.length);
+                }
+                    break;
+            }
+        }
+        out.append(text, literalStarts[slots.length], text.length);
+    }
+
+    /**
+     * @return slot of the placeholder name, {@link Integer#MIN_VALUE} if it is not
+     *         a placeholder
+     */
+    private static int slot(String name, Feeder feeder) {
+        switch (name) {
+            case "seq":
+                return SLOT_SEQ;
+            case "uuid":
+                return SLOT_UUID;
+            case "random":
+                return SLOT_RANDOM;
+            case "bodyLength":
+                return SLOT_BODY_LENGTH;
+            default:
+                int column = feeder == null ? -1 : feeder.columnIndex(name);
+                return column == -1 ? Integer.MIN_VALUE : column;
+        }
+    }
+
+    /**
+     * Writes a version 4 UUID in the canonical form, without creating
+     * {@link java.util.UUID}.
+     */
+    private static void appendUuid(Output out) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long msb = random.nextLong() & 0xFFFFFFFFFFFF0FFFL | 0x0000000000004000L;
+        long lsb = random.nextLong() & 0x3FFFFFFFFFFFFFFFL | 0x8000000000000000L;
+        out.ensure(36);
+        out.appendHex(msb >>> 32, 8);
+        out.bytes[out.length++] = '-';
+        out.appendHex(msb >>> 16, 4);
+        out.bytes[out.length++] = '-';
+        out.appendHex(msb, 4);
+        out.bytes[out.length++] = '-';
+        out.appendHex(lsb >>> 48, 4);
+        out.bytes[out.length++] = '-';
+        out.appendHex(lsb, 12);
+    }
+
+}
@@ -0,0 +1,95 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+
+/**
+ * TLS context that trusts any server, one for the whole process, so the
+ * senders share its session cache and a session set up by one of them is
+ * resumed by the others.
+ * <p>
+ * Its trust manager notes the sockets and engines it checks the server
+ * certificate for: a full handshake checks it, a resumed one doesn't, which
+ * tells them apart without comparing session creation times.
+ */
+final class TrustAllSsl {
+
+    private static final class Holder {
+        static final SSLContext CONTEXT = create();
+    }
+
+    // sockets and engines of full handshakes, by identity, until asked
+    private static final Set<Object> CERTIFICATE_CHECKED = Collections
+            .synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private TrustAllSsl() {
+    }
+
+    static SSLContext context() {
+        return Holder.CONTEXT;
+    }
+
+    /**
+     * @param connection {@link javax.net.ssl.SSLSocket} or {@link SSLEngine}
+     *                   that completed the handshake
+     * @return {@code true} if the handshake was full, {@code false} if the
+     *         session was resumed
+     */
+    static boolean isFullHandshake(Object connection) {
+        return CERTIFICATE_CHECKED.remove(connection);
+    }
+
+    private static SSLContext create() {
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, new TrustManager[] { new TrustAllManager() }, new SecureRandom());
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("TLS is not available", e);
+        }
+    }
+
+    private static final class TrustAllManager extends X509ExtendedTrustManager {
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) {
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) {
+            CERTIFICATE_CHECKED.add(socket);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+            CERTIFICATE_CHECKED.add(engine);
+        }
+    }
+
+}
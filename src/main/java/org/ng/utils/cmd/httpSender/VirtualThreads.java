@@ -0,0 +1,57 @@
+package org.ng.utils.cmd.httpSender;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads of JDK 21+ for the blocking senders. The project is compiled
+ * for Java 11, so the API is looked up at runtime, and is not available on
+ * older JDKs.
+ */
+final class VirtualThreads {
+
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+        } catch (ReflectiveOperationException e) {
+            // JDK before 21
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+    }
+
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @param namePrefix threads are named with the prefix and a counter
+     * @throws UnsupportedOperationException on JDK before 21
+     */
+    static ThreadFactory factory(String namePrefix) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need JDK 21 or newer");
+        }
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 0L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed creating virtual thread factory", e);
+        }
+    }
+
+}
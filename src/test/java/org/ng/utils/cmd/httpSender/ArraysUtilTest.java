@@ -1,8 +1,6 @@
 package org.ng.utils.cmd.httpSender;
 
-import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.nio.charset.StandardCharsets;
 
@@ -75,27 +73,13 @@ public class ArraysUtilTest {
     }
 
     @Test
-    public void testParseChunkedResponse() {
-        assertArrayEquals("ZZZ1ZZZ123\nzzz456\r\nzzz789".getBytes(StandardCharsets.ISO_8859_1),
-                ArraysUtil.parseChunkedResponse(("4\r\n" + //
-                        "ZZZ1\r\n" + //
-                        "15\r\n" + //
-                        "ZZZ123\nzzz456\r\nzzz789\r\n" + //
-                        "0\r\n" + //
-                        "\r\n").getBytes(StandardCharsets.ISO_8859_1)));
-    }
+    public void testIndexOfSlice() {
+        byte[] seq = "\r\n\r\ntest123\r\n\r\n456789".getBytes(StandardCharsets.ISO_8859_1);
+        byte[] pattern = "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
 
-    @Test
-    public void testParseChunkedResponse_Negative() {
-        assertThrows(IllegalStateException.class, () -> {
-            assertArrayEquals("ZZZ1ZZZ123\nzzz456\r\nzzz789".getBytes(StandardCharsets.ISO_8859_1),
-                    ArraysUtil.parseChunkedResponse(("4\r\n" + //
-            "ZZZ1\r\n" + //
-            "15\r\n" + //
-            "ZZZ123\nzzz456\r\nzzz789\r\n" + //
-            "1\r\n" + //
-            "\r\n").getBytes(StandardCharsets.ISO_8859_1)));
-        }, "Exception should be thrown for invalid text");
+        // offsets are relative to the slice
+        assertEquals(7, ArraysUtil.indexOf(ByteSlice.wrap(seq, 4, 17), 0, pattern));
+        assertEquals(-1, ArraysUtil.indexOf(ByteSlice.wrap(seq, 4, 10), 0, pattern));
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,58 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class BodyCaptureTest {
+
+    @Test
+    public void testInMemory() throws Exception {
+        try (BodyCapture capture = new BodyCapture(1024)) {
+            capture.write("TEST_".getBytes(StandardCharsets.US_ASCII));
+            capture.write('1');
+            assertFalse(capture.isSpilled());
+            assertEquals(6, capture.size());
+            assertEquals("TEST_1", capture.slices().get(0).toString(StandardCharsets.US_ASCII));
+            assertEquals("TEST_1", read(capture));
+            // content can be read again
+            assertEquals("TEST_1", read(capture));
+        }
+    }
+
+    @Test
+    public void testSpilled() throws Exception {
+        byte[] chunk = "0123456789".repeat(1000).getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (BodyCapture capture = new BodyCapture(15_000)) {
+            for (int i = 0; i < 20; i++) {
+                capture.write(chunk);
+                expected.write(chunk);
+                assertEquals(i > 0, capture.isSpilled());
+            }
+            assertEquals(200_000, capture.size());
+            assertEquals(expected.toString(StandardCharsets.US_ASCII), read(capture));
+            assertEquals(1, capture.slices().size());
+
+            // more content after it was read
+            capture.write('X');
+            expected.write('X');
+            try (InputStream in = capture.openStream()) {
+                assertArrayEquals(expected.toByteArray(), in.readAllBytes());
+            }
+        }
+    }
+
+    private static String read(BodyCapture capture) throws Exception {
+        try (InputStream in = capture.openStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+        }
+    }
+
+}
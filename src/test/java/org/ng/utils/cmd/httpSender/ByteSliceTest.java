@@ -0,0 +1,64 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class ByteSliceTest {
+
+    @Test
+    public void testArraySlice() throws Exception {
+        byte[] array = "__TEST_123__".getBytes(StandardCharsets.US_ASCII);
+        ByteSlice slice = ByteSlice.wrap(array, 2, 8);
+
+        assertEquals(8, slice.length());
+        assertEquals('T', slice.get(0));
+        assertEquals("TEST_123", slice.toString(StandardCharsets.US_ASCII));
+        assertEquals("123", slice.slice(5, 8).toString(StandardCharsets.US_ASCII));
+        assertEquals("TEST_123", write(slice));
+        try (InputStream in = slice.slice(0, 4).openStream()) {
+            assertArrayEquals("TEST".getBytes(StandardCharsets.US_ASCII), in.readAllBytes());
+        }
+
+        // the slice is a view, not a copy
+        array[2] = 'B';
+        assertEquals("BEST_123", slice.toString(StandardCharsets.US_ASCII));
+        assertThrows(IndexOutOfBoundsException.class, () -> slice.slice(4, 9));
+    }
+
+    @Test
+    public void testDirectBufferSlice() throws Exception {
+        String content = "0123456789".repeat(2000);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length() + 10);
+        buffer.position(10);
+        buffer.put(content.getBytes(StandardCharsets.US_ASCII));
+        buffer.position(10);
+        ByteSlice slice = ByteSlice.wrap(buffer);
+        // moving the buffer position does not change the slice
+        buffer.position(0);
+
+        assertEquals(content.length(), slice.length());
+        assertEquals(content, slice.toString(StandardCharsets.US_ASCII));
+        assertEquals(content, write(slice));
+        assertEquals("789", slice.slice(19997, 20000).toString(StandardCharsets.US_ASCII));
+        try (InputStream in = slice.openStream()) {
+            assertEquals('0', in.read());
+            assertEquals(content.substring(1), new String(in.readAllBytes(), StandardCharsets.US_ASCII));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    private static String write(ByteSlice slice) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        slice.writeTo(out);
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+
+}
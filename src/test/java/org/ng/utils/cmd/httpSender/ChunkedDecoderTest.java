@@ -0,0 +1,82 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class ChunkedDecoderTest {
+
+    @Test
+    public void testDecode() throws IOException {
+        byte[] encoded = ("4\r\n" + //
+                "ZZZ1\r\n" + //
+                "15\r\n" + //
+                "ZZZ123\nzzz456\r\nzzz789\r\n" + //
+                "0\r\n" + //
+                "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        ChunkedDecoder decoder = new ChunkedDecoder(body);
+
+        assertEquals(encoded.length, decoder.decode(encoded, 0, encoded.length));
+        decoder.finish();
+
+        assertEquals("ZZZ1ZZZ123\nzzz456\r\nzzz789", body.toString(StandardCharsets.ISO_8859_1));
+        assertEquals(25, decoder.getDecodedLength());
+    }
+
+    @Test
+    public void testDecode_Negative() throws IOException {
+        byte[] encoded = ("4\r\n" + //
+                "ZZZ1\r\n" + //
+                "15\r\n" + //
+                "ZZZ123\nzzz456\r\nzzz789\r\n" + //
+                "1\r\n" + //
+                "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        ChunkedDecoder decoder = new ChunkedDecoder(new ByteArrayOutputStream());
+
+        decoder.decode(encoded, 0, encoded.length);
+
+        assertThrows(IllegalStateException.class, decoder::finish, "Exception should be thrown for incomplete body");
+    }
+
+    @Test
+    public void testInvalidChunkSize() {
+        byte[] encoded = "4x\r\nZZZ1\r\n0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        ChunkedDecoder decoder = new ChunkedDecoder(new ByteArrayOutputStream());
+
+        assertThrows(IllegalStateException.class, () -> decoder.decode(encoded, 0, encoded.length));
+    }
+
+    @Test
+    public void testExtensionsAndTrailersByteByByte() throws IOException {
+        byte[] encoded = ("4;name=value\r\n" + //
+                "ZZZ1\r\n" + //
+                "0\r\n" + //
+                "Expires: never\r\n" + //
+                "Checksum: 123\r\n" + //
+                "\r\n" + //
+                "HTTP/1.1").getBytes(StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        ChunkedDecoder decoder = new ChunkedDecoder(body);
+
+        int consumed = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            consumed += decoder.decode(encoded, i, 1);
+        }
+
+        assertTrue(decoder.isDone());
+        assertEquals(encoded.length - 8, consumed);
+        assertEquals("ZZZ1", body.toString(StandardCharsets.ISO_8859_1));
+        assertEquals("name=value", decoder.getExtensions().get(0));
+        assertEquals(2, decoder.getTrailers().size());
+        assertEquals("Expires", decoder.getTrailers().get(0).name);
+        assertEquals("123", decoder.getTrailers().get(1).value);
+    }
+
+}
@@ -0,0 +1,53 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.ng.utils.cmd.httpSender.Main.Header;
+
+public class ContentDecodingTest {
+
+    @Test
+    public void testStackedCodings() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflating = new DeflaterOutputStream(compressed)) {
+            deflating.write(InflatingOutputStreamTest.gzip("TEST_TEST_TEST"));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ContentDecoding decoding = ContentDecoding.create(List.of(header("Content-Encoding", "gzip, Deflate")), out);
+
+        decoding.getInput().write(compressed.toByteArray());
+        decoding.finish();
+
+        assertEquals(List.of("deflate", "gzip"), decoding.getCodings());
+        assertEquals("TEST_TEST_TEST", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testUnsupportedCoding() throws IOException {
+        byte[] compressed = InflatingOutputStreamTest.gzip("TEST_TEST_TEST");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ContentDecoding decoding = ContentDecoding.create(
+                List.of(header("Content-Encoding", "br"), header("Content-Encoding", "gzip")), out);
+
+        decoding.getInput().write(compressed);
+        decoding.finish();
+
+        assertEquals(List.of("gzip"), decoding.getCodings());
+        assertEquals("TEST_TEST_TEST", out.toString(StandardCharsets.UTF_8));
+    }
+
+    private static Header header(String name, String value) {
+        Header header = new Header();
+        header.name = name;
+        header.value = value;
+        return header;
+    }
+
+}
@@ -0,0 +1,176 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+
+public class DistributedLoadTest {
+
+    private static final String TOKEN = "secret";
+
+    @Test
+    public void testStatsRoundTrip() throws Exception {
+        LoadRunner.Stats stats = new LoadRunner.Stats();
+        for (int i = 1; i <= 100; i++) {
+            ExchangeResult result = new ExchangeResult();
+            result.statusCode = i % 10 == 0 ? 500 : 200;
+            result.address = "127.0.0.1";
+            result.bytesOut = 10;
+            result.bytesIn = 20;
+            stats.record(result, i * 1_000_000L);
+            stats.requests++;
+        }
+        stats.recordError(new IOException("test"), 3);
+        stats.requests += 3;
+        stats.durationNanos = 1_000_000_000L;
+        stats.peakConnections = 7;
+        stats.serviceTime.record(5_000_000L);
+        stats.startLag.record(2_000_000L);
+        stats.late = 1;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            DistributedLoad.writeStats(out, stats);
+        }
+        LoadRunner.Stats read = DistributedLoad.readStats(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(103, read.requests);
+        assertEquals(1000, read.bytesOut);
+        assertEquals(2000, read.bytesIn);
+        assertEquals(1_000_000_000L, read.durationNanos);
+        assertEquals(7, read.peakConnections);
+        assertEquals(1, read.late);
+        assertEquals(Map.of(200, 90L, 500, 10L), read.statusCodes);
+        assertEquals(stats.errors, read.errors);
+        assertEquals(100, read.latency.getTotalCount());
+        assertEquals(stats.latency.getValueAtPercentile(99), read.latency.getValueAtPercentile(99));
+        assertEquals(100, read.latencyByAddress.get("127.0.0.1").getTotalCount());
+        assertEquals(1, read.serviceTime.getTotalCount());
+        assertEquals(stats.startLag.getMax(), read.startLag.getMax());
+    }
+
+    @Test
+    public void testBogusLengthRejected() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            DistributedLoad.writeStats(out, new LoadRunner.Stats());
+        }
+        byte[] stats = bytes.toByteArray();
+        // length of the latency histogram, after 10 longs and an int
+        int offset = 10 * Long.BYTES + Integer.BYTES;
+        stats[offset] = 0x7f;
+
+        IOException e = assertThrows(IOException.class,
+                () -> DistributedLoad.readStats(new DataInputStream(new ByteArrayInputStream(stats))));
+        assertTrue(e.getMessage().contains("out of range"), e.getMessage());
+    }
+
+    @Test
+    public void testWorkersStartTogether() throws Exception {
+        List<String> events = new CopyOnWriteArrayList<>();
+        DistributedLoad.JobRunner runner = (job, start) -> {
+            events.add("ready " + job.args);
+            start.await();
+            events.add("started " + job.args);
+            LoadRunner.Stats stats = new LoadRunner.Stats();
+            stats.requests = Long.parseLong(job.args.get(1));
+            return stats;
+        };
+        List<ServerSocket> sockets = List.of(new ServerSocket(0), new ServerSocket(0));
+        List<Thread> threads = startWorkers(sockets, runner);
+        try {
+            List<DistributedLoad.WorkerStats> results = DistributedLoad.coordinate(addresses(sockets), TOKEN,
+                    List.of(new DistributedLoad.Job(List.of("-n", "3"), "GET / HTTP/1.1", 0),
+                            new DistributedLoad.Job(List.of("-n", "2"), "GET / HTTP/1.1", 0)));
+
+            assertEquals(3, results.get(0).stats.requests);
+            assertEquals(2, results.get(1).stats.requests);
+            assertEquals("127.0.0.1:" + sockets.get(0).getLocalPort(), results.get(0).worker);
+            assertEquals(4, events.size());
+            assertTrue(events.get(0).startsWith("ready") && events.get(1).startsWith("ready"),
+                    "No worker should start before all are ready: " + events);
+        } finally {
+            stopWorkers(sockets, threads);
+        }
+    }
+
+    @Test
+    public void testWorkerFailure() throws Exception {
+        DistributedLoad.JobRunner runner = (job, start) -> {
+            throw new IllegalArgumentException("bad arguments");
+        };
+        List<ServerSocket> sockets = List.of(new ServerSocket(0));
+        List<Thread> threads = startWorkers(sockets, runner);
+        try {
+            IOException e = assertThrows(IOException.class, () -> DistributedLoad.coordinate(addresses(sockets), TOKEN,
+                    List.of(new DistributedLoad.Job(List.of(), "GET / HTTP/1.1", 0))));
+            assertTrue(e.getMessage().contains("bad arguments"), "Failure of the worker should be reported");
+        } finally {
+            stopWorkers(sockets, threads);
+        }
+    }
+
+    @Test
+    public void testWrongTokenRefused() throws Exception {
+        DistributedLoad.JobRunner runner = (job, start) -> {
+            throw new AssertionError("Job with a wrong token should not run");
+        };
+        List<ServerSocket> sockets = List.of(new ServerSocket(0));
+        List<Thread> threads = startWorkers(sockets, runner);
+        try {
+            IOException e = assertThrows(IOException.class, () -> DistributedLoad.coordinate(addresses(sockets),
+                    "wrong", List.of(new DistributedLoad.Job(List.of(), "GET / HTTP/1.1", 0))));
+            assertTrue(e.getMessage().contains("Wrong token"), e.getMessage());
+        } finally {
+            stopWorkers(sockets, threads);
+        }
+    }
+
+    private static List<Thread> startWorkers(List<ServerSocket> sockets, DistributedLoad.JobRunner runner) {
+        List<Thread> threads = new ArrayList<>();
+        for (ServerSocket socket : sockets) {
+            Thread thread = new Thread(() -> {
+                try {
+                    DistributedLoad.serve(socket, TOKEN, runner);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        return threads;
+    }
+
+    private static void stopWorkers(List<ServerSocket> sockets, List<Thread> threads) throws Exception {
+        for (ServerSocket socket : sockets) {
+            socket.close();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static List<InetSocketAddress> addresses(List<ServerSocket> sockets) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        sockets.forEach(s -> addresses.add(new InetSocketAddress("127.0.0.1", s.getLocalPort())));
+        return addresses;
+    }
+
+}
@@ -0,0 +1,65 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class FeederTest {
+
+    @Test
+    public void testParseCsvLine() throws Exception {
+        assertEquals(List.of("a", "", "b c"), Feeder.parseCsvLine("a,,b c"));
+        assertEquals(List.of("a,b", "say \"hi\"", ""), Feeder.parseCsvLine("\"a,b\",\"say \"\"hi\"\"\","));
+    }
+
+    @Test
+    public void testCsv() throws Exception {
+        Feeder feeder = load("feeder.csv", "id,name\n1,\"Smith, John\"\n\n2\n");
+
+        assertEquals(2, feeder.size());
+        assertEquals(1, feeder.columnIndex("name"));
+        assertEquals(-1, feeder.columnIndex("age"));
+        assertEquals("Smith, John", value(feeder, 1, "name"));
+        // missing values are empty
+        assertEquals("", value(feeder, 2, "name"));
+        assertEquals("1", value(feeder, 3, "id"));
+    }
+
+    @Test
+    public void testJsonLines() throws Exception {
+        Feeder feeder = load("feeder.jsonl", "{\"id\":1,\"name\":\"Ann\"}\n{\"id\":2,\"name\":null}\n");
+
+        assertEquals(2, feeder.size());
+        assertEquals("1", value(feeder, 1, "id"));
+        assertEquals("Ann", value(feeder, 1, "name"));
+        assertEquals("", value(feeder, 2, "name"));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> load("feeder.csv", "id,name\n"));
+    }
+
+    private static Feeder load(String fileName, String content) throws Exception {
+        Path dir = Files.createTempDirectory("feeder");
+        Path file = dir.resolve(fileName);
+        try {
+            Files.writeString(file, content);
+            return Feeder.load(file, StandardCharsets.UTF_8);
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    private static String value(Feeder feeder, long seq, String column) {
+        return new String(feeder.value(seq, feeder.columnIndex(column)), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,67 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.jupiter.api.Test;
+
+public class FormatterUtilsTest {
+
+    @Test
+    public void testFormatJSONKeepsKeyOrder() throws Exception {
+        // @formatter:off
+        assertEquals(
+              "{\n"
+            + "  \"z\": \"a \\\" b, c: [d]\",\n"
+            + "  \"a\": [\n"
+            + "    {},\n"
+            + "    [],\n"
+            + "    -1.5e+3,\n"
+            + "    true\n"
+            + "  ]\n"
+            + "}",
+            FormatterUtils.formatJSON(" {\"z\" : \"a \\\" b, c: [d]\",\n\"a\":[{ },[],-1.5e+3,true]}\n"));
+        // @formatter:on
+    }
+
+    @Test
+    public void testFormatJSONTopLevelScalar() throws Exception {
+        assertEquals("42", FormatterUtils.formatJSON(" 42 "));
+        assertEquals("\"[not an array]\"", FormatterUtils.formatJSON("\"[not an array]\""));
+    }
+
+    @Test
+    public void testFormatJSONInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> FormatterUtils.formatJSON("{\"a\":1,}"));
+        assertThrows(IllegalArgumentException.class, () -> FormatterUtils.formatJSON("[1, 2"));
+        assertThrows(IllegalArgumentException.class, () -> FormatterUtils.formatJSON("{\"a\":tru}"));
+        assertThrows(IllegalArgumentException.class, () -> FormatterUtils.formatJSON("1 2"));
+        assertThrows(IllegalArgumentException.class, () -> FormatterUtils.formatJSON(""));
+    }
+
+    @Test
+    public void testFormatXML() throws Exception {
+        // @formatter:off
+        assertEquals(
+              "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"
+            + "<s:root xmlns:s=\"urn:test\">\n"
+            + "    <!-- comment -->\n"
+            + "    <empty a=\"&lt;&quot;&amp;\"/>\n"
+            + "    <mixed>\n"
+            + "        text\n"
+            + "        <b>bold</b>\n"
+            + "    </mixed>\n"
+            + "</s:root>\n",
+            FormatterUtils.formatXML("<?xml version=\"1.0\"?><s:root xmlns:s=\"urn:test\"><!-- comment -->"
+                    + "<empty a='&lt;\"&amp;'>  </empty><mixed> text <b>bold</b></mixed></s:root>"));
+        // @formatter:on
+    }
+
+    @Test
+    public void testFormatXMLInvalid() {
+        assertThrows(XMLStreamException.class, () -> FormatterUtils.formatXML("<root><a></b></root>"));
+    }
+
+}
@@ -0,0 +1,115 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class HostResolverTest {
+
+    @Test
+    public void testCache() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        HostResolver.Lookup lookup = host -> {
+            lookups.incrementAndGet();
+            return new InetAddress[] { address("10.0.0.1"), address("10.0.0.2") };
+        };
+
+        HostResolver cached = new HostResolver(60, false, lookup);
+        cached.resolve("example");
+        assertArrayEquals(new InetAddress[] { address("10.0.0.1"), address("10.0.0.2") }, cached.resolve("example"));
+        assertEquals(1, lookups.get());
+
+        HostResolver uncached = new HostResolver(0, false, lookup);
+        uncached.resolve("example");
+        uncached.resolve("example");
+        assertEquals(3, lookups.get());
+    }
+
+    @Test
+    public void testInterleave() throws Exception {
+        InetAddress v6a = address("2001:db8::1");
+        InetAddress v6b = address("2001:db8::2");
+        InetAddress v4a = address("10.0.0.1");
+        InetAddress v4b = address("10.0.0.2");
+
+        assertArrayEquals(new InetAddress[] { v6a, v4a, v6b, v4b },
+                HostResolver.interleave(new InetAddress[] { v6a, v6b, v4a, v4b }));
+        assertArrayEquals(new InetAddress[] { v4a, v6a, v4b, v6b },
+                HostResolver.interleave(new InetAddress[] { v4a, v4b, v6a, v6b }));
+        assertArrayEquals(new InetAddress[] { v4a, v6a, v6b },
+                HostResolver.interleave(new InetAddress[] { v4a, v6a, v6b }));
+    }
+
+    @Test
+    public void testRaceSkipsFailedAddress() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 50, address("127.0.0.1"))) {
+            // nothing listens on the first address
+            HostResolver resolver = new HostResolver(60, false,
+                    host -> new InetAddress[] { address("127.0.0.2"), address("127.0.0.1") });
+            PhaseTimings timings = new PhaseTimings();
+            timings.start = System.nanoTime();
+
+            try (Socket socket = resolver.connect("example", server.getLocalPort(), timings)) {
+                assertEquals(address("127.0.0.1"), socket.getInetAddress());
+                assertTrue(socket.isConnected());
+                socket.getOutputStream().write(1);
+                try (Socket accepted = server.accept()) {
+                    assertEquals(1, accepted.getInputStream().read());
+                }
+            }
+            assertTrue(timings.dnsDone >= timings.start && timings.connectDone >= timings.dnsDone);
+        }
+    }
+
+    @Test
+    public void testRaceReusesThreads() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 50, address("127.0.0.1"))) {
+            HostResolver resolver = new HostResolver(60, false,
+                    host -> new InetAddress[] { address("127.0.0.1"), address("127.0.0.2") });
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long startedBefore = threads.getTotalStartedThreadCount();
+            for (int i = 0; i < 20; i++) {
+                PhaseTimings timings = new PhaseTimings();
+                try (Socket socket = resolver.connect("example", server.getLocalPort(), timings);
+                        Socket accepted = server.accept()) {
+                    assertTrue(socket.isConnected());
+                }
+            }
+            // the attempts run on the same pooled thread, not on a new one per connection
+            long started = threads.getTotalStartedThreadCount() - startedBefore;
+            assertTrue(started < 10, "Threads started: " + started);
+        }
+    }
+
+    @Test
+    public void testSpread() throws Exception {
+        try (ServerSocket first = new ServerSocket(0, 50, address("127.0.0.1"));
+                ServerSocket second = new ServerSocket()) {
+            second.bind(new InetSocketAddress(address("127.0.0.2"), first.getLocalPort()));
+            HostResolver resolver = new HostResolver(60, true,
+                    host -> new InetAddress[] { address("127.0.0.1"), address("127.0.0.2") });
+
+            for (String expected : new String[] { "127.0.0.1", "127.0.0.2", "127.0.0.1" }) {
+                try (Socket socket = resolver.connect("example", first.getLocalPort(), new PhaseTimings())) {
+                    assertEquals(address(expected), socket.getInetAddress());
+                }
+            }
+        }
+    }
+
+    private static InetAddress address(String literal) throws UnknownHostException {
+        return InetAddress.getByName(literal);
+    }
+
+}
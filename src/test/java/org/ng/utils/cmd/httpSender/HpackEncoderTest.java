@@ -0,0 +1,85 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersDecoder;
+import io.netty.handler.codec.http2.Http2Headers;
+
+public class HpackEncoderTest {
+
+    private static final List<String[]> HEADERS = List.of( //
+            new String[] { ":method", "GET" }, //
+            new String[] { ":path", "/test" }, //
+            new String[] { "x-custom", "value" });
+
+    @Test
+    public void testIncrementalIndexing() throws Exception {
+        HpackEncoder encoder = new HpackEncoder(HpackEncoder.Indexing.INCREMENTAL);
+        DefaultHttp2HeadersDecoder decoder = new DefaultHttp2HeadersDecoder(false);
+
+        byte[] first = encoder.encode(HEADERS);
+        // indexed GET, literal with indexed name for path, literal with new name
+        assertArrayEquals(new byte[] { (byte) 0x82, 0x44, 5, '/', 't', 'e', 's', 't', 0x40, 8, 'x', '-', 'c', 'u',
+                's', 't', 'o', 'm', 5, 'v', 'a', 'l', 'u', 'e' }, first);
+        assertHeaders(decoder.decodeHeaders(1, Unpooled.wrappedBuffer(first)));
+        assertEquals(5 + 5 + 32 + 8 + 5 + 32, encoder.getTableSize());
+
+        // the literals are taken from the dynamic table now, newest first
+        byte[] second = encoder.encode(HEADERS);
+        assertArrayEquals(new byte[] { (byte) 0x82, (byte) 0xBF, (byte) 0xBE }, second);
+        assertHeaders(decoder.decodeHeaders(3, Unpooled.wrappedBuffer(second)));
+    }
+
+    @Test
+    public void testWithoutIndexing() throws Exception {
+        for (HpackEncoder.Indexing indexing : new HpackEncoder.Indexing[] { HpackEncoder.Indexing.WITHOUT,
+                HpackEncoder.Indexing.NEVER }) {
+            HpackEncoder encoder = new HpackEncoder(indexing);
+            DefaultHttp2HeadersDecoder decoder = new DefaultHttp2HeadersDecoder(false);
+
+            byte[] first = encoder.encode(HEADERS);
+            byte[] second = encoder.encode(HEADERS);
+            assertArrayEquals(first, second);
+            assertEquals(0, encoder.getTableSize());
+            int prefix = indexing == HpackEncoder.Indexing.NEVER ? 0x10 : 0x00;
+            // name index 4 fits into 4-bit prefix
+            assertEquals(prefix | 4, first[1]);
+            assertHeaders(decoder.decodeHeaders(1, Unpooled.wrappedBuffer(first)));
+            assertHeaders(decoder.decodeHeaders(3, Unpooled.wrappedBuffer(second)));
+        }
+    }
+
+    @Test
+    public void testTableSizeUpdate() throws Exception {
+        HpackEncoder encoder = new HpackEncoder(HpackEncoder.Indexing.INCREMENTAL);
+        DefaultHttp2HeadersDecoder decoder = new DefaultHttp2HeadersDecoder(false);
+        decoder.decodeHeaders(1, Unpooled.wrappedBuffer(encoder.encode(HEADERS)));
+
+        // the server allows only one of the entries
+        encoder.setMaxTableSize(50);
+        decoder.configuration().maxHeaderTableSize(50);
+        byte[] block = encoder.encode(HEADERS);
+        // size update goes first, 50 = 31 + 19 with 5-bit prefix
+        assertEquals(0x3F, block[0] & 0xFF);
+        assertEquals(19, block[1]);
+        assertHeaders(decoder.decodeHeaders(3, Unpooled.wrappedBuffer(block)));
+        assertEquals(8 + 5 + 32, encoder.getTableSize());
+
+        // nothing to signal for the next block
+        assertEquals((byte) 0x82, encoder.encode(HEADERS)[0]);
+    }
+
+    private static void assertHeaders(Http2Headers headers) {
+        assertEquals("GET", headers.method().toString());
+        assertEquals("/test", headers.path().toString());
+        assertEquals("value", headers.get("x-custom").toString());
+        assertEquals(3, headers.size());
+    }
+
+}
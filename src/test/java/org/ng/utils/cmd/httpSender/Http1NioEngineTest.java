@@ -0,0 +1,178 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class Http1NioEngineTest {
+
+    private static final byte[] RESPONSE = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void testStaleConnectionRetried() throws Exception {
+        // every connection serves two requests, then is closed when the third one comes
+        try (ScriptedServer server = new ScriptedServer(2)) {
+            LoadRunner.Stats stats = run(server, 20, 4, 1);
+
+            assertEquals(20, stats.requests);
+            assertEquals(Map.of(), stats.errors);
+            assertEquals(Map.of(200, 20L), stats.statusCodes);
+            // at least 10, depending on how the requests were spread over the connections
+            assertTrue(stats.connections >= 10, "Connections: " + stats.connections);
+            assertEquals(server.connections.get(), stats.connections);
+            assertEquals(4, stats.peakConnections);
+        }
+    }
+
+    @Test
+    public void testPipelined() throws Exception {
+        try (ScriptedServer server = new ScriptedServer(Integer.MAX_VALUE)) {
+            LoadRunner.Stats stats = run(server, 12, 2, 3);
+
+            assertEquals(12, stats.requests);
+            assertEquals(Map.of(), stats.errors);
+            assertEquals(Map.of(200, 12L), stats.statusCodes);
+            assertEquals(2, stats.connections);
+            assertEquals(12 * RESPONSE.length, stats.bytesIn);
+        }
+    }
+
+    @Test
+    public void testTemplateRenderedForEveryRequest() throws Exception {
+        try (ScriptedServer server = new ScriptedServer(Integer.MAX_VALUE)) {
+            LoadRunner.Stats stats = run(server, "GET /${seq} HTTP/1.1\r\nHost: localhost\r\n\r\n", 12, 2, 3);
+
+            assertEquals(Map.of(200, 12L), stats.statusCodes);
+            Set<String> expected = new HashSet<>();
+            for (int i = 1; i <= 12; i++) {
+                expected.add("GET /" + i + " HTTP/1.1");
+            }
+            assertEquals(expected, new HashSet<>(server.requestLines));
+            assertEquals(12, server.requestLines.size());
+        }
+    }
+
+    @Test
+    public void testLatencyIncludesConnectionSetup() throws Exception {
+        try (ScriptedServer server = new ScriptedServer(Integer.MAX_VALUE)) {
+            List<ExchangeResult> results = Collections.synchronizedList(new ArrayList<>());
+            run(server, "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n", 6, 1, 3, (index, batch) -> results.addAll(batch));
+
+            assertEquals(6, results.size());
+            // the first request of the new connection waited for the connect, the pipelined ones from their write
+            ExchangeResult first = results.get(0);
+            assertTrue(first.timings.getConnect() >= 0, "Connection should be new");
+            assertEquals(first.timings.lastByte - first.timings.start, first.latencyNanos);
+            ExchangeResult pipelined = results.get(1);
+            assertEquals(pipelined.timings.lastByte - pipelined.timings.start, pipelined.latencyNanos);
+            // the second batch reused the connection
+            ExchangeResult reused = results.get(3);
+            assertTrue(reused.timings.reused, "Connection should be reused");
+            assertEquals(reused.timings.lastByte - reused.timings.start, reused.latencyNanos);
+        }
+    }
+
+    private static LoadRunner.Stats run(ScriptedServer server, long requests, int connections, int batchSize)
+            throws Exception {
+        return run(server, "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n", requests, connections, batchSize);
+    }
+
+    private static LoadRunner.Stats run(ScriptedServer server, String request, long requests, int connections,
+            int batchSize) throws Exception {
+        return run(server, request, requests, connections, batchSize, null);
+    }
+
+    private static LoadRunner.Stats run(ScriptedServer server, String request, long requests, int connections,
+            int batchSize, Http1NioEngine.Listener listener) throws Exception {
+        Http1NioEngine engine = new Http1NioEngine(new HostResolver(60, false), TrustAllSsl.context(), 2);
+        Template head = Template.compile(request.getBytes(StandardCharsets.US_ASCII), null);
+        Http1NioEngine.Target target = new Http1NioEngine.Target("127.0.0.1", server.getPort(), false, false,
+                new Http1Template(head, null), null);
+        return engine.run(List.of(target), requests, connections, batchSize, listener, null);
+    }
+
+    /**
+     * Answers every request with the same response, closes a connection when a
+     * request over the limit comes.
+     */
+    private static final class ScriptedServer implements AutoCloseable {
+        final ServerSocket server;
+        final AtomicInteger connections = new AtomicInteger();
+        final List<String> requestLines = Collections.synchronizedList(new ArrayList<>());
+
+        ScriptedServer(int responsesPerConnection) throws IOException {
+            server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            Thread acceptor = new Thread(() -> {
+                try {
+                    for (;;) {
+                        Socket socket = server.accept();
+                        connections.incrementAndGet();
+                        Thread handler = new Thread(() -> serve(socket, responsesPerConnection, requestLines));
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                } catch (IOException e) {
+                    // server closed
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        private static void serve(Socket socket, int responsesPerConnection, List<String> requestLines) {
+            try (socket) {
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                int last4 = 0;
+                StringBuilder line = new StringBuilder();
+                boolean firstLine = true;
+                for (int responses = 0, b; (b = in.read()) != -1;) {
+                    last4 = last4 << 8 | b;
+                    if (firstLine && b == '\n') {
+                        requestLines.add(line.toString().trim());
+                        line.setLength(0);
+                        firstLine = false;
+                    } else if (firstLine) {
+                        line.append((char) b);
+                    }
+                    if (last4 == 0x0D0A0D0A) {
+                        firstLine = true;
+                        if (responses++ == responsesPerConnection) {
+                            return;
+                        }
+                        out.write(RESPONSE);
+                    }
+                }
+            } catch (IOException e) {
+                // client closed
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+
+}
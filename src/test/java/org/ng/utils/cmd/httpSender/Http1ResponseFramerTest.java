@@ -0,0 +1,109 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class Http1ResponseFramerTest {
+
+    @Test
+    public void testContentLength() throws IOException {
+        byte[] response = ("HTTP/1.1 200 OK\r\n" //
+                + "Content-Length: 5\r\n" //
+                + "\r\n" //
+                + "12345" //
+                + "HTTP/1.1 204 No Content\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        Http1ResponseFramer framer = new Http1ResponseFramer(false, OutputStream.nullOutputStream());
+
+        int consumed = framer.feed(response, 0, response.length);
+
+        assertEquals(43, consumed);
+        assertTrue(framer.isComplete());
+        assertTrue(framer.isKeepAlive());
+        assertEquals(200, framer.getStatusCode());
+        assertEquals(38, framer.getHeadersLength());
+        assertEquals("Content-Length", framer.getHeaders().get(0).name);
+        assertEquals("5", framer.getHeaders().get(0).value);
+    }
+
+    @Test
+    public void testChunkedByteByByte() throws IOException {
+        byte[] response = ("HTTP/1.1 200 OK\r\n" //
+                + "Transfer-Encoding: chunked\r\n" //
+                + "\r\n" //
+                + "4;ext=1\r\n" //
+                + "ZZZ1\r\n" //
+                + "15\r\n" //
+                + "ZZZ123\nzzz456\r\nzzz789\r\n" //
+                + "0\r\n" //
+                + "Trailer: value\r\n" //
+                + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        Http1ResponseFramer framer = new Http1ResponseFramer(false, body);
+
+        for (int i = 0; i < response.length; i++) {
+            assertFalse(framer.isComplete(), "Response should not be complete before the last byte");
+            assertEquals(1, framer.feed(response, i, 1));
+        }
+
+        assertTrue(framer.isComplete());
+        assertTrue(framer.isKeepAlive());
+        assertTrue(framer.isChunked());
+        assertEquals("ZZZ1ZZZ123\nzzz456\r\nzzz789", body.toString(StandardCharsets.ISO_8859_1));
+        assertEquals("Trailer", framer.getTrailers().get(0).name);
+        assertEquals("value", framer.getTrailers().get(0).value);
+    }
+
+    @Test
+    public void testConnectionClose() throws IOException {
+        byte[] response = ("HTTP/1.1 200 OK\r\n" //
+                + "Connection: close\r\n" //
+                + "\r\n" //
+                + "body").getBytes(StandardCharsets.ISO_8859_1);
+        Http1ResponseFramer framer = new Http1ResponseFramer(false, OutputStream.nullOutputStream());
+
+        assertEquals(response.length, framer.feed(response, 0, response.length));
+        assertFalse(framer.isComplete());
+
+        framer.endOfStream();
+
+        assertTrue(framer.isComplete());
+        assertFalse(framer.isKeepAlive());
+    }
+
+    @Test
+    public void testInterimResponse() throws IOException {
+        byte[] response = ("HTTP/1.1 100 Continue\r\n" //
+                + "\r\n" //
+                + "HTTP/1.1 204 No Content\r\n" //
+                + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        Http1ResponseFramer framer = new Http1ResponseFramer(false, OutputStream.nullOutputStream());
+
+        assertEquals(response.length, framer.feed(response, 0, response.length));
+
+        assertTrue(framer.isComplete());
+        assertEquals(204, framer.getStatusCode());
+        assertEquals(response.length, framer.getHeadersLength());
+    }
+
+    @Test
+    public void testHeadRequest() throws IOException {
+        byte[] response = ("HTTP/1.1 200 OK\r\n" //
+                + "Content-Length: 100\r\n" //
+                + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        Http1ResponseFramer framer = new Http1ResponseFramer(true, OutputStream.nullOutputStream());
+
+        assertEquals(response.length, framer.feed(response, 0, response.length));
+
+        assertTrue(framer.isComplete());
+        assertTrue(framer.isKeepAlive());
+    }
+
+}
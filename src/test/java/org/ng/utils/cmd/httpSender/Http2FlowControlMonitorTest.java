@@ -0,0 +1,66 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.junit.jupiter.api.Test;
+
+public class Http2FlowControlMonitorTest {
+
+    private static final String CHANNEL = "[id: 0x1a2b3c4d, L:/127.0.0.1:50000 - R:localhost/127.0.0.1:10001]";
+
+    @Test
+    public void testStreamWindowStall() {
+        Http2FlowControlMonitor monitor = new Http2FlowControlMonitor(16384);
+        Http2FlowControlMonitor.Counters before = monitor.snapshot();
+
+        monitor.publish(data(3, 0, false, 10000));
+        monitor.publish(data(3, 0, false, 6384));
+        monitor.publish(windowUpdate(3, 16384));
+        monitor.publish(data(3, 0, true, 100));
+
+        Http2FlowControlMonitor.Counters counters = monitor.snapshot().minus(before);
+        assertEquals(3, counters.dataFrames);
+        assertEquals(16484, counters.dataBytes);
+        assertEquals(1, counters.windowUpdates);
+        assertEquals(1, counters.stalls);
+    }
+
+    @Test
+    public void testConnectionWindowStall() {
+        Http2FlowControlMonitor monitor = new Http2FlowControlMonitor(-1);
+
+        // two streams use up the default 65535 bytes connection window, padding is
+        // counted too
+        monitor.publish(data(1, 0, true, 40000));
+        monitor.publish(data(3, 535, true, 25000));
+        monitor.publish(windowUpdate(0, 65535));
+        monitor.publish(data(5, 0, true, 1000));
+        // outbound frames and parameterized messages
+        monitor.publish(new LogRecord(Level.FINE, CHANNEL + " OUTBOUND DATA: streamId=7 padding=0 endStream=true "
+                + "length=100000 bytes="));
+        LogRecord record = new LogRecord(Level.FINE,
+                "{} {} DATA: streamId={} padding={} endStream={} length={} bytes={}");
+        record.setParameters(new Object[] { CHANNEL, "INBOUND", 9, 0, true, 10, "" });
+        monitor.publish(record);
+
+        Http2FlowControlMonitor.Counters counters = monitor.snapshot();
+        assertEquals(4, counters.dataFrames);
+        assertEquals(66545, counters.dataBytes);
+        assertEquals(1, counters.windowUpdates);
+        assertEquals(1, counters.stalls);
+    }
+
+    private static LogRecord data(int streamId, int padding, boolean endStream, int length) {
+        return new LogRecord(Level.FINE, CHANNEL + " INBOUND DATA: streamId=" + streamId + " padding=" + padding
+                + " endStream=" + endStream + " length=" + length + " bytes=");
+    }
+
+    private static LogRecord windowUpdate(int streamId, int increment) {
+        return new LogRecord(Level.FINE,
+                CHANNEL + " OUTBOUND WINDOW_UPDATE: streamId=" + streamId + " windowSizeIncrement=" + increment);
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.Test;
+
+public class InflatingOutputStreamTest {
+
+    private static final String TEXT = "TEST_TEST_TEST zzz123\n456789\r\nqwerty TEST_TEST_TEST";
+
+    @Test
+    public void testGzipByteByByte() throws IOException {
+        byte[] compressed = gzip(TEXT);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InflatingOutputStream inflating = new InflatingOutputStream(InflatingOutputStream.Format.GZIP, out);
+
+        for (int i = 0; i < compressed.length; i++) {
+            inflating.write(compressed, i, 1);
+        }
+        inflating.finish();
+
+        assertEquals(TEXT, out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testGzipWithFileNameAndSeveralMembers() throws IOException {
+        byte[] first = gzip("first ");
+        byte[] second = gzip("second");
+        // FNAME flag with "a.txt" file name inserted after the fixed part of the
+        // header
+        byte[] name = "a.txt\0".getBytes(StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        first[3] = 8;
+        compressed.write(first, 0, 10);
+        compressed.write(name);
+        compressed.write(first, 10, first.length - 10);
+        compressed.write(second);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InflatingOutputStream inflating = new InflatingOutputStream(InflatingOutputStream.Format.GZIP, out);
+
+        inflating.write(compressed.toByteArray());
+        inflating.finish();
+
+        assertEquals("first second", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testDeflateZlibAndRaw() throws IOException {
+        for (boolean nowrap : new boolean[] { false, true }) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (DeflaterOutputStream deflating = new DeflaterOutputStream(compressed, new Deflater(6, nowrap))) {
+                deflating.write(TEXT.getBytes(StandardCharsets.UTF_8));
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            InflatingOutputStream inflating = new InflatingOutputStream(InflatingOutputStream.Format.DEFLATE, out);
+
+            inflating.write(compressed.toByteArray());
+            inflating.finish();
+
+            assertEquals(TEXT, out.toString(StandardCharsets.UTF_8), "nowrap: " + nowrap);
+        }
+    }
+
+    @Test
+    public void testCorruptGzip() throws IOException {
+        byte[] compressed = gzip(TEXT);
+        compressed[compressed.length - 5]++;
+        InflatingOutputStream inflating = new InflatingOutputStream(InflatingOutputStream.Format.GZIP,
+                new ByteArrayOutputStream());
+
+        assertThrows(ZipException.class, () -> inflating.write(compressed));
+    }
+
+    @Test
+    public void testTruncatedGzip() throws IOException {
+        byte[] compressed = gzip(TEXT);
+        InflatingOutputStream inflating = new InflatingOutputStream(InflatingOutputStream.Format.GZIP,
+                new ByteArrayOutputStream());
+
+        inflating.write(compressed, 0, compressed.length - 4);
+
+        assertThrows(EOFException.class, inflating::finish);
+    }
+
+    static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return compressed.toByteArray();
+    }
+
+}
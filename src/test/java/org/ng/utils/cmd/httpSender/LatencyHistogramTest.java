@@ -0,0 +1,93 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testExactSmallValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(100, histogram.getTotalCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(50.5, histogram.getMean(), 0.0001);
+    }
+
+    @Test
+    public void testRelativeErrorForLargeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+
+        assertPrecision(5_000_000_000L, histogram.getValueAtPercentile(50));
+        assertPrecision(9_900_000_000L, histogram.getValueAtPercentile(99));
+        assertPrecision(9_990_000_000L, histogram.getValueAtPercentile(99.9));
+        assertEquals(10_000_000_000L, histogram.getMax());
+    }
+
+    @Test
+    public void testAdd() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(10);
+        first.record(20);
+        second.record(5);
+        second.record(1000);
+
+        first.add(second);
+
+        assertEquals(4, first.getTotalCount());
+        assertEquals(5, first.getMin());
+        assertEquals(1000, first.getMax());
+        assertEquals(10, first.getValueAtPercentile(50));
+    }
+
+    private static void assertPrecision(long expected, long actual) {
+        assertTrue(Math.abs(expected - actual) <= expected / 100,
+                "Value " + actual + " should be within 1% of " + expected);
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            first.record(i * 1000L);
+            second.record(i * 7_000_000L);
+        }
+        LatencyHistogram merged = LatencyHistogram.decode(first.encode());
+        merged.add(LatencyHistogram.decode(second.encode()));
+        first.add(second);
+
+        assertEquals(first.getTotalCount(), merged.getTotalCount());
+        assertEquals(first.getMin(), merged.getMin());
+        assertEquals(first.getMax(), merged.getMax());
+        assertEquals(first.getMean(), merged.getMean(), 1);
+        for (double percentile : new double[] { 1, 50, 90, 99, 99.9, 100 }) {
+            assertEquals(first.getValueAtPercentile(percentile), merged.getValueAtPercentile(percentile));
+        }
+        assertEquals(0, LatencyHistogram.decode(new LatencyHistogram().encode()).getTotalCount());
+    }
+
+}
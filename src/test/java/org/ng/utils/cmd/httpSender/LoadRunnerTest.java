@@ -0,0 +1,41 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class LoadRunnerTest {
+
+    @Test
+    public void testManyWorkersShareStats() throws Exception {
+        // every 10th request fails, the others take 1 ms
+        AtomicInteger sent = new AtomicInteger();
+        LoadRunner runner = new LoadRunner(5000, 500, 1, count -> {
+            if (sent.incrementAndGet() % 10 == 0) {
+                throw new IOException("test");
+            }
+            ExchangeResult result = new ExchangeResult();
+            result.statusCode = 200;
+            result.address = "127.0.0.1";
+            result.bytesIn = 2;
+            result.latencyNanos = 1_000_000;
+            return List.of(result);
+        });
+
+        LoadRunner.Stats stats = runner.run();
+
+        assertEquals(5000, stats.requests);
+        assertEquals(Map.of(200, 4500L), stats.statusCodes);
+        assertEquals(Map.of(IOException.class.getName(), 500L), stats.errors);
+        assertEquals(9000, stats.bytesIn);
+        assertEquals(4500, stats.latency.getTotalCount());
+        assertEquals(4500, stats.latencyByAddress.get("127.0.0.1").getTotalCount());
+        assertEquals(1_000_000, stats.latency.getValueAtPercentile(50), 1_000_000 / 100);
+    }
+
+}
@@ -1,12 +1,23 @@
 package org.ng.utils.cmd.httpSender;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -71,6 +82,44 @@ public class MainTest {
         }
     }
 
+    @Test
+    public void testStreamChunkedResponseHttp1() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test")
+                .responseBody("zzz123\n456789\r\nqwerty").chunkedResponse().build()) {
+
+            // @formatter:off
+            String request =
+                      "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001\n" //
+                    + "Connection: close";
+            // @formatter:on
+
+            String appOut = runApp(request, "-stream");
+
+            // @formatter:off
+            assertEquals(
+              "====================[ Protocol: HTTP_1 ]====================\n"
+            + "====================[ SENDING REQUEST ]=====================\n"
+            + "GET /test HTTP/1.1\r\n"
+            + "Host: localhost:10001\r\n"
+            + "Connection: close\r\n"
+            + "\r\n"
+            + "\n"
+            + "======================[ REQUEST SENT ]======================\n"
+            + "HTTP/1.1 200 OK\r\n"
+            + "transfer-encoding: chunked\r\n"
+            + "connection: close\r\n"
+            + "\r\n"
+            + "zzz123\n"
+            + "456789\r\n"
+            + "qwerty\n"
+            + "===================[ RESPONSE RECEIVED ]====================\n"
+            + "=============[ CONVERTING FROM CHUNKED FORMAT ]=============\n"
+            + "==========================[ END ]===========================\n", appOut);
+            // @formatter:on
+        }
+    }
+
     @Test
     public void testChunkedResponseHttp2() throws Exception {
         try (TestServer server = new TestServer.Builder("GET", "https", 10001, "/test")
@@ -177,6 +226,145 @@ public class MainTest {
         }
     }
 
+    @Test
+    public void testPostFileHttp1() throws Exception {
+        // bytes that are not valid in any text charset
+        byte[] requestBody = randomBytes(3_000_000);
+        Path bodyFile = Files.createTempFile("body", ".bin");
+        Files.write(bodyFile, requestBody);
+        try (TestServer server = new TestServer.Builder("POST", "http", 10001, "/test")
+                .expectedRequestBody(requestBody).build()) {
+
+            // @formatter:off
+            String request = withBody(
+                      "POST /test HTTP/1.1\n" //
+                    + "Host: localhost:10001\n" //
+                    + "Connection: close",
+
+                    "@" + bodyFile);
+            // @formatter:on
+
+            String appOut = runApp(request);
+
+            assertTrue(appOut.contains("Connection: close\r\n"
+                    + "Content-Length: 3000000\r\n"
+                    + "\r\n"
+                    + "[... 3000000 bytes from " + bodyFile + " ...]\n"
+                    + "======================[ REQUEST SENT ]======================\n"
+                    + "HTTP/1.1 204 No Content\r\n"), "Body should be sent from the file: " + appOut);
+        } finally {
+            Files.delete(bodyFile);
+        }
+    }
+
+    @Test
+    public void testTemplateWithFeederHttp1() throws Exception {
+        Path feederFile = Files.createTempFile("feeder", ".csv");
+        Files.writeString(feederFile, "user,id\nalice,\"a,1\"\nbob,b2\n");
+        byte[] requestBody = "{\"id\":\"a,1\",\"seq\":1,\"other\":\"${other}\"}".getBytes(StandardCharsets.UTF_8);
+        try (TestServer server = new TestServer.Builder("POST", "http", 10001, "/test")
+                .expectedRequestBody(requestBody).build()) {
+
+            // @formatter:off
+            String request = withBody(
+                      "POST /test HTTP/1.1\n" //
+                    + "Host: localhost:10001\n" //
+                    + "X-User: ${user}\n" //
+                    + "Connection: close",
+
+                    "{\"id\":\"${id}\",\"seq\":${seq},\"other\":\"${other}\"}");
+            // @formatter:on
+
+            String appOut = runApp(request, "-feeder", feederFile.toString());
+
+            assertTrue(appOut.contains("X-User: alice\r\n"
+                    + "Connection: close\r\n"
+                    + "Content-Length: " + requestBody.length + "\r\n"
+                    + "\r\n"
+                    + new String(requestBody, StandardCharsets.UTF_8)), "Request should be rendered: " + appOut);
+        } finally {
+            Files.delete(feederFile);
+        }
+    }
+
+    @Test
+    public void testTemplateRejectedHttp2() throws Exception {
+        // @formatter:off
+        String request =
+              ":authority: localhost:10001\n" //
+            + ":method: GET\n"
+            + ":path: /test/${seq}\n"
+            + ":scheme: https";
+        // @formatter:on
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> runApp(request));
+        assertEquals("Placeholders and -feeder are supported for HTTP/1 requests only", e.getMessage());
+    }
+
+    @Test
+    public void testPostFileHttp1Tls() throws Exception {
+        byte[] requestBody = randomBytes(1_000_000);
+        Path bodyFile = Files.createTempFile("body", ".bin");
+        Files.write(bodyFile, requestBody);
+        try (TestServer server = new TestServer.Builder("POST", "https", 10001, "/test")
+                .expectedRequestBody(requestBody).useTls().build()) {
+
+            // @formatter:off
+            String request = withBody(
+                      "POST /test HTTP/1.1\n" //
+                    + "Host: localhost:10001\n" //
+                    + "Content-Length: 1\n" //
+                    + "Connection: close",
+
+                    "@" + bodyFile);
+            // @formatter:on
+
+            String appOut = runApp(request, "-tls");
+
+            assertTrue(appOut.contains("Content-Length: 1000000\r\n"), "Content-Length should be adjusted: " + appOut);
+            assertTrue(appOut.contains("HTTP/1.1 204 No Content\r\n"), "Body should be sent from the file: " + appOut);
+        } finally {
+            Files.delete(bodyFile);
+        }
+    }
+
+    @Test
+    public void testPostFileHttp2() throws Exception {
+        postFileHttp2();
+    }
+
+    @Test
+    public void testPostFileHttp2Raw() throws Exception {
+        postFileHttp2("-h2-raw");
+    }
+
+    private void postFileHttp2(String... args) throws Exception {
+        byte[] requestBody = randomBytes(1_000_000);
+        Path bodyFile = Files.createTempFile("body", ".bin");
+        Files.write(bodyFile, requestBody);
+        try (TestServer server = new TestServer.Builder("POST", "https", 10001, "/test")
+                .expectedRequestBody(requestBody).useHttp2().build()) {
+
+            // @formatter:off
+            String request = withBody(
+                      ":authority: localhost:10001\n" //
+                    + ":method: POST\n"
+                    + ":path: /test\n"
+                    + ":scheme: https",
+
+                    "@" + bodyFile);
+            // @formatter:on
+
+            String appOut = runApp(request, args);
+
+            assertTrue(appOut.startsWith("====================[ Protocol: HTTP_2 ]====================\n"
+                    + "====================[ RESPONSE HEADERS ]====================\n"
+                    + "204 No Content HTTP_2\n"), "Body should be sent from the file: " + appOut);
+        } finally {
+            Files.delete(bodyFile);
+        }
+    }
+
     @Test
     public void testGzipHttp1() throws Exception {
         try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody("TEST_TEST_TEST")
@@ -390,12 +578,14 @@ public class MainTest {
 				+ "===================[ RESPONSE RECEIVED ]====================\n"
 				+ "==========================[ JSON ]==========================\n"
 				+ "{\n"
-				+ "  \"value2\": {\"value3\": [\n"
-				+ "    1,\n"
-				+ "    2,\n"
-				+ "    3\n"
-				+ "  ]},\n"
-				+ "  \"value1\": null\n"
+				+ "  \"value1\": null,\n"
+				+ "  \"value2\": {\n"
+				+ "    \"value3\": [\n"
+				+ "      1,\n"
+				+ "      2,\n"
+				+ "      3\n"
+				+ "    ]\n"
+				+ "  }\n"
 				+ "}\n"
 				+ "==========================[ END ]===========================\n", appOut);
             // @formatter:on
@@ -429,12 +619,14 @@ public class MainTest {
 				+ "{\"value1\":null,\"value2\":{\"value3\":[1,2,3]}}\n"
 				+ "==========================[ JSON ]==========================\n"
 				+ "{\n"
-				+ "  \"value2\": {\"value3\": [\n"
-				+ "    1,\n"
-				+ "    2,\n"
-				+ "    3\n"
-				+ "  ]},\n"
-				+ "  \"value1\": null\n"
+				+ "  \"value1\": null,\n"
+				+ "  \"value2\": {\n"
+				+ "    \"value3\": [\n"
+				+ "      1,\n"
+				+ "      2,\n"
+				+ "      3\n"
+				+ "    ]\n"
+				+ "  }\n"
 				+ "}\n"
 				+ "==========================[ END ]===========================\n", appOut);
             // @formatter:on
@@ -569,14 +761,808 @@ public class MainTest {
         }
     }
 
-    // =========================== UTILS ======================
+    @Test
+    public void testLargeResponseHttp1() throws Exception {
+        String body = "0123456789".repeat(100_000);
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody(body).build()) {
 
-    private String runApp(String request, String... args) throws Exception {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        main.setSystemStreams(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)),
-                new PrintStream(baos));
-        main.run(args);
-        return baos.toString(StandardCharsets.UTF_8);
+            // @formatter:off
+            String request =
+                      "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001\n" //
+                    + "Connection: close";
+            // @formatter:on
+
+            String appOut = runApp(request);
+
+            // raw response echo is cropped, decoded body is printed in full
+            int rawStart = appOut.indexOf("HTTP/1.1 200 OK");
+            int cropped = appOut.indexOf("\n[... cropped data over the length of 1000 ...]");
+            assertEquals(rawStart + 1000, cropped);
+            assertEquals(cropped, appOut.lastIndexOf("\n[... cropped data"));
+            assertTrue(appOut.endsWith(
+                    "==========================[ RAW ]===========================\n" + body + "\n"
+                            + "==========================[ END ]===========================\n"),
+                    "Out should end with the whole body");
+        }
+    }
+
+    @Test
+    public void testSpilledResponseHttp2() throws Exception {
+        String body = "0123456789".repeat(100_000);
+        try (TestServer server = new TestServer.Builder("GET", "https", 10001, "/test").responseBody(body)
+                .useHttp2().build()) {
+
+            // @formatter:off
+            String request =
+                  ":authority: localhost:10001\n" //
+                + ":method: GET\n"
+                + ":path: /test\n"
+                + ":scheme: https";
+            // @formatter:on
+
+            String appOut = runApp(request, "-spill-threshold", "4096");
+
+            assertTrue(appOut.contains("=====================[ RESPONSE BODY ]======================\n"
+                    + body.substring(0, 500) + "\n[... cropped data over the length of 500 ...]\n"),
+                    "Out should contain the body preview");
+            assertTrue(appOut.endsWith(
+                    "==========================[ RAW ]===========================\n" + body + "\n"
+                            + "==========================[ END ]===========================\n"),
+                    "Out should end with the whole body");
+        }
+    }
+
+    @Test
+    public void testTimingsHttp1() throws Exception {
+        Path timingsFile = Files.createTempFile("timings", ".jsonl");
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .build()) {
+
+            // @formatter:off
+            String request =
+                      "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001\n" //
+                    + "Connection: close";
+            // @formatter:on
+
+            String appOut = runApp(request, "-timings", "-timings-json", timingsFile.toString());
+
+            String timings = appOut
+                    .substring(appOut.indexOf("========================[ TIMINGS ]=========================\n"));
+            assertTrue(timings.matches("(?s).*\nConnection:   new\n" //
+                    + "DNS:          \\d+\\.\\d{3} ms\n" //
+                    + "Connect:      \\d+\\.\\d{3} ms\n" //
+                    + "TLS:          -\n" //
+                    + "Write:        \\d+\\.\\d{3} ms\n" //
+                    + "TTFB:         \\d+\\.\\d{3} ms\n" //
+                    + "Transfer:     \\d+\\.\\d{3} ms\n" //
+                    + "Total:        \\d+\\.\\d{3} ms\n" //
+                    + "==========================\\[ END \\]===========================\n"), timings);
+
+            List<String> lines = Files.readAllLines(timingsFile);
+            assertEquals(1, lines.size());
+            assertTrue(lines.get(0).startsWith("{\"protocol\":\"HTTP_1\",\"method\":\"GET\",\"host\":\"localhost\","
+                    + "\"port\":10001,\"path\":\"/test\",\"status\":200,\"connection\":\"new\",\"dns_ms\":"),
+                    lines.get(0));
+            assertTrue(lines.get(0).contains(",\"tls_ms\":null,"), lines.get(0));
+        } finally {
+            Files.delete(timingsFile);
+        }
+    }
+
+    @Test
+    public void testLoadHttp1() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .build()) {
+
+            // @formatter:off
+            String request =
+                      "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001\n" //
+                    + "Connection: close";
+            // @formatter:on
+
+            String appOut = runApp(request, "-n", "20", "-c", "4");
+
+            // @formatter:off
+            String outShouldStartWith =
+                  "====================[ Protocol: HTTP_1 ]====================\n"
+                + "==============[ LOAD: 20 REQUESTS, 4 WORKERS ]==============\n"
+                + "======================[ LOAD RESULTS ]======================\n"
+                + "Requests:     20\n";
+            // @formatter:on
+
+            assertTrue(appOut.startsWith(outShouldStartWith), "Out should start with test text");
+            assertTrue(appOut.contains("Errors:       0\n"), "There should be no errors");
+            assertTrue(appOut.contains("Status codes:\n  200: 20\n"), "All requests should succeed");
+            assertTrue(appOut.contains("  p99.9  "), "Latency percentiles should be printed");
+        }
+    }
+
+    @Test
+    public void testDistributedLoadHttp1() throws Exception {
+        List<ServerSocket> workerSockets = List.of(new ServerSocket(0), new ServerSocket(0));
+        ByteArrayOutputStream workerOut = new ByteArrayOutputStream();
+        // shared, so that lines of the workers don't mix
+        PrintStream workerPrint = new PrintStream(workerOut, true);
+        List<Thread> workerThreads = new ArrayList<>();
+        for (ServerSocket socket : workerSockets) {
+            Main worker = new Main();
+            worker.vertx = main.vertx;
+            worker.setSystemStreams(InputStream.nullInputStream(), workerPrint);
+            Thread thread = new Thread(() -> {
+                try {
+                    worker.runWorker(socket, "secret");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            thread.start();
+            workerThreads.add(thread);
+        }
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .build()) {
+
+            // @formatter:off
+            String request =
+                      "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001\n" //
+                    + "Connection: close";
+            // @formatter:on
+
+            String workers = "127.0.0.1:" + workerSockets.get(0).getLocalPort() + ",127.0.0.1:"
+                    + workerSockets.get(1).getLocalPort();
+            String appOut = runApp(request, "-n", "41", "-c", "4", "-workers", workers, "-token", "secret");
+
+            // @formatter:off
+            String outShouldStartWith =
+                  "====================[ Protocol: HTTP_1 ]====================\n"
+                + "========[ DISTRIBUTED LOAD: 41 REQUESTS, 2 WORKERS ]========\n"
+                + "======================[ LOAD RESULTS ]======================\n"
+                + "Requests:     41\n"
+                + "Workers:      2\n";
+            // @formatter:on
+
+            assertTrue(appOut.startsWith(outShouldStartWith), "Out should start with test text: " + appOut);
+            assertTrue(appOut.contains("Errors:       0\n"), "There should be no errors");
+            assertTrue(appOut.contains("Status codes:\n  200: 41\n"), "All requests should succeed");
+            assertTrue(appOut.contains("Latency by worker (ms):\n"), "Latency of every worker should be printed");
+            assertTrue(appOut.contains("127.0.0.1:" + workerSockets.get(0).getLocalPort() + " "),
+                    "First worker should be listed");
+            String jobsOut = workerOut.toString(StandardCharsets.UTF_8);
+            assertTrue(jobsOut.contains("[ LOAD: 21 REQUESTS, 2 WORKERS ]"), "First worker should get the remainder");
+            assertTrue(jobsOut.contains("[ LOAD: 20 REQUESTS, 2 WORKERS ]"), "Second worker should get its share");
+
+            // jobs can't have the worker read or write its files
+            List<InetSocketAddress> firstWorker = List.of(new InetSocketAddress("127.0.0.1",
+                    workerSockets.get(0).getLocalPort()));
+            IOException e = assertThrows(IOException.class, () -> DistributedLoad.coordinate(firstWorker, "secret",
+                    List.of(new DistributedLoad.Job(List.of("-n", "1", "-results", "out.csv"), request, 0))));
+            assertTrue(e.getMessage().contains("-results is not accepted"), e.getMessage());
+            e = assertThrows(IOException.class, () -> DistributedLoad.coordinate(firstWorker, "secret",
+                    List.of(new DistributedLoad.Job(List.of("-n", "1"), request + "\n\n@pom.xml", 0))));
+            assertTrue(e.getMessage().contains("Body files are not accepted"), e.getMessage());
+        } finally {
+            for (ServerSocket socket : workerSockets) {
+                socket.close();
+            }
+            for (Thread thread : workerThreads) {
+                thread.join();
+            }
+        }
+    }
+
+    @Test
+    public void testLoadHttp1KeepAlive() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .keepAlive().build()) {
+
+            // @formatter:off
+            String request =
+                      "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001\n" //
+                    + "Connection: keep-alive";
+            // @formatter:on
+
+            String appOut = runApp(request, "-n", "10", "-c", "2");
+
+            assertTrue(appOut.contains("Requests:     10\n"), "All requests should be sent");
+            assertTrue(appOut.contains("Errors:       0\n"), "There should be no errors");
+            assertTrue(appOut.contains("Status codes:\n  200: 10\n"), "All requests should succeed");
+        }
+    }
+
+    @Test
+    public void testLoadHttp1SpreadIps() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .build()) {
+
+            // @formatter:off
+            String request =
+                      "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001\n" //
+                    + "Connection: close";
+            // @formatter:on
+
+            String appOut = runApp(request, "-n", "6", "-c", "2", "-spread-ips");
+
+            assertTrue(appOut.contains("Status codes:\n  200: 6\n"), "All requests should succeed");
+            assertTrue(appOut.matches("(?s).*\nLatency by address \\(ms\\):\n"
+                    + "  address +requests +p50 +p99 +max\n"
+                    + "  127\\.0\\.0\\.1 +6 +\\d+\\.\\d{3} +\\d+\\.\\d{3} +\\d+\\.\\d{3}\n"
+                    + "=+\\[ END \\]=+\n"), appOut);
+        }
+    }
+
+    @Test
+    public void testLoadHttp1TlsResumption() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "https", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .useTls().build()) {
+
+            // @formatter:off
+            String request =
+                      "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001\n" //
+                    + "Connection: close";
+            // @formatter:on
+
+            String appOut = runApp(request, "-tls", "-n", "5", "-c", "1");
+
+            assertTrue(appOut.contains("Status codes:\n  200: 5\n"), "All requests should succeed");
+            // every request opens a new connection, the session of the first one is
+            // resumed by the others
+            assertTrue(appOut.matches("(?s).*\nTLS full:     1, avg \\d+\\.\\d{3} ms\n"
+                    + "TLS resumed:  4, avg \\d+\\.\\d{3} ms\n.*"), appOut);
+        }
+    }
+
+    @Test
+    public void testLoadNioHttp1() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .keepAlive().build()) {
+
+            // @formatter:off
+            String request =
+                      "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001";
+            // @formatter:on
+
+            String appOut = runApp(request, "-n", "200", "-c", "50", "-nio", "2");
+
+            // @formatter:off
+            String outShouldStartWith =
+                  "====================[ Protocol: HTTP_1 ]====================\n"
+                + "===========[ LOAD: 200 REQUESTS, 50 CONNECTIONS ]===========\n"
+                + "======================[ LOAD RESULTS ]======================\n"
+                + "Requests:     200\n"
+                + "Connections:  50\n"
+                + "Peak open:    50\n";
+            // @formatter:on
+
+            assertTrue(appOut.startsWith(outShouldStartWith), "Keep-alive connections should be reused: " + appOut);
+            assertTrue(appOut.contains("Errors:       0\n"), "There should be no errors");
+            assertTrue(appOut.contains("Status codes:\n  200: 200\n"), "All requests should succeed");
+        }
+    }
+
+    @Test
+    public void testLoadNioHttp1Close() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .build()) {
+
+            // @formatter:off
+            String request =
+                      "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001\n" //
+                    + "Connection: close";
+            // @formatter:on
+
+            String appOut = runApp(request, "-n", "20", "-c", "4", "-nio", "1");
+
+            assertTrue(appOut.contains("Requests:     20\nConnections:  20\n"), "Every request should connect");
+            assertTrue(appOut.contains("Errors:       0\n"), "There should be no errors");
+            assertTrue(appOut.contains("Status codes:\n  200: 20\n"), "All requests should succeed");
+        }
+    }
+
+    @Test
+    public void testLoadNioHttp1Tls() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "https", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .useTls().build()) {
+
+            // @formatter:off
+            String request =
+                      "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001\n" //
+                    + "Connection: close";
+            // @formatter:on
+
+            String appOut = runApp(request, "-tls", "-n", "5", "-c", "1", "-nio", "1");
+
+            assertTrue(appOut.contains("Status codes:\n  200: 5\n"), "All requests should succeed: " + appOut);
+            // the SSL engines share the session cache of one context
+            assertTrue(appOut.matches("(?s).*\nTLS full:     1, avg \\d+\\.\\d{3} ms\n"
+                    + "TLS resumed:  4, avg \\d+\\.\\d{3} ms\n.*"), appOut);
+        }
+    }
+
+    @Test
+    public void testLoadVirtualThreads() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "https", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .useTls().keepAlive().build()) {
+
+            // @formatter:off
+            String request =
+                      "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001";
+            // @formatter:on
+
+            String appOut = runApp(request, "-tls", "-n", "40", "-c", "8", "-virtual-threads");
+
+            if (!VirtualThreads.isSupported()) {
+                assertTrue(appOut.startsWith("-virtual-threads needs JDK 21 or newer"), appOut);
+                return;
+            }
+            assertTrue(appOut.contains("[ LOAD: 40 REQUESTS, 8 VIRTUAL WORKERS ]"), appOut);
+            assertTrue(appOut.contains("Status codes:\n  200: 40\n"), "All requests should succeed: " + appOut);
+            assertTrue(appOut.contains("\nPinned:       "), "Pinning should be reported: " + appOut);
+        }
+    }
+
+    @Test
+    public void testLoadHttp2Multiplexed() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "https", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .useHttp2().keepAlive().build()) {
+
+            // @formatter:off
+            String request =
+                  ":authority: localhost:10001\n" //
+                + ":method: GET\n"
+                + ":path: /test\n"
+                + ":scheme: https";
+            // @formatter:on
+
+            String appOut = runApp(request, "-n", "40", "-c", "4", "-pipeline", "5");
+
+            assertTrue(appOut.contains("Requests:     40\n"), "All requests should be sent");
+            assertTrue(appOut.contains("Errors:       0\n"), "There should be no errors");
+            assertTrue(appOut.contains("Status codes:\n  200: 40\n"), "All requests should succeed");
+            assertTrue(appOut.contains("Connections:  1\n"), "All streams should share one connection");
+            String peakStreams = appOut.substring(appOut.indexOf("Peak streams: ") + 14);
+            int peak = Integer.parseInt(peakStreams.substring(0, peakStreams.indexOf('\n')));
+            assertTrue(peak >= 5 && peak <= 20, "Streams should run in parallel: " + peak);
+        }
+    }
+
+    @Test
+    public void testLoadRateHttp1() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .keepAlive().build()) {
+
+            // @formatter:off
+            String request =
+                      "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001";
+            // @formatter:on
+
+            String appOut = runApp(request, "-rate", "200/s", "-n", "40", "-c", "4");
+
+            // @formatter:off
+            String outShouldStartWith =
+                  "====================[ Protocol: HTTP_1 ]====================\n"
+                + "======[ LOAD: 40 REQUESTS AT 200/s, 4 MAX IN FLIGHT ]=======\n"
+                + "======================[ LOAD RESULTS ]======================\n"
+                + "Requests:     40\n";
+            // @formatter:on
+
+            assertTrue(appOut.startsWith(outShouldStartWith), "Requests should be sent at the rate: " + appOut);
+            // 40 requests at 200/s are due within 195 ms
+            double seconds = Double.parseDouble(appOut.substring(appOut.indexOf("Duration:     ") + 14,
+                    appOut.indexOf(" s\n", appOut.indexOf("Duration:     "))));
+            assertTrue(seconds >= 0.195, "Requests should not be sent faster than the rate: " + seconds);
+            assertTrue(appOut.contains("Late starts:  "), "Late starts should be reported");
+            assertTrue(appOut.contains("Errors:       0\n"), "There should be no errors");
+            assertTrue(appOut.contains("Status codes:\n  200: 40\n"), "All requests should succeed");
+            assertTrue(appOut.contains("Service time (ms):\n"), "Service time should be reported");
+        }
+    }
+
+    @Test
+    public void testLoadResultsLog() throws Exception {
+        Path resultsFile = Files.createTempFile("results", ".csv");
+        Path histogramFile = Files.createTempFile("histogram", ".csv");
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .keepAlive().build()) {
+
+            // @formatter:off
+            String request =
+                      "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001";
+            // @formatter:on
+
+            String appOut = runApp(request, "-n", "50", "-c", "4", "-results", resultsFile.toString(),
+                    "-histogram-log", histogramFile.toString(), "-histogram-interval", "100");
+
+            assertTrue(appOut.contains("Status codes:\n  200: 50\n"), "All requests should succeed: " + appOut);
+            List<String> records = Files.readAllLines(resultsFile, StandardCharsets.UTF_8);
+            assertEquals(ResultsLog.CSV_HEADER, records.get(0));
+            assertEquals(51, records.size(), "Every request should be logged");
+            assertTrue(records.stream().skip(1).allMatch(r -> r.contains(",200,")), "Status should be logged");
+            LatencyHistogram merged = new LatencyHistogram();
+            for (String line : Files.readAllLines(histogramFile, StandardCharsets.UTF_8)) {
+                if (!line.startsWith("#") && !line.equals(ResultsLog.HISTOGRAM_HEADER)) {
+                    merged.add(LatencyHistogram.decode(line.substring(line.lastIndexOf(',') + 1)));
+                }
+            }
+            assertEquals(50, merged.getTotalCount(), "Interval histograms should add up to the load");
+        } finally {
+            Files.delete(resultsFile);
+            Files.delete(histogramFile);
+        }
+    }
+
+    @Test
+    public void testLoadStagesHttp2() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "https", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .useHttp2().keepAlive().build()) {
+
+            // @formatter:off
+            String request =
+                  ":authority: localhost:10001\n" //
+                + ":method: GET\n"
+                + ":path: /test\n"
+                + ":scheme: https";
+            // @formatter:on
+
+            // 10 requests while ramping up to 100/s, and 20 more at 100/s
+            String appOut = runApp(request, "-stages", "200ms:0-100,200ms:100");
+
+            assertTrue(appOut.contains("[ LOAD: 30 REQUESTS AT 200ms:0-100,200ms:100, 1000 MAX IN FLIGHT ]"),
+                    "Requests should follow the stages: " + appOut);
+            assertTrue(appOut.contains("Requests:     30\n"), "All requests should be sent");
+            assertTrue(appOut.contains("Errors:       0\n"), "There should be no errors");
+            assertTrue(appOut.contains("Status codes:\n  200: 30\n"), "All requests should succeed");
+        }
+    }
+
+    @Test
+    public void testFlowControlHttp2() throws Exception {
+        String body = "0123456789".repeat(30_000);
+        try (TestServer server = new TestServer.Builder("GET", "https", 10001, "/test").responseBody(body)
+                .useHttp2().build()) {
+
+            // @formatter:off
+            String request =
+                  ":authority: localhost:10001\n" //
+                + ":method: GET\n"
+                + ":path: /test\n"
+                + ":scheme: https";
+            // @formatter:on
+
+            String appOut = runApp(request, "-h2-window", "16384", "-h2-max-frame", "16384", "-h2-flow-report");
+
+            String flowControl = appOut
+                    .substring(appOut.indexOf("======================[ FLOW CONTROL ]======================\n"));
+            assertTrue(flowControl.contains("Data bytes:   300000\n"), "All DATA frames should be counted");
+            int updates = parseCounter(flowControl, "Win updates:  ");
+            int stalls = parseCounter(flowControl, "Stalls:       ");
+            assertTrue(updates > 0, "Window should be updated: " + updates);
+            assertTrue(stalls > 0, "Small stream window should stall the server: " + stalls);
+        }
+    }
+
+    private static int parseCounter(String out, String label) {
+        String value = out.substring(out.indexOf(label) + label.length());
+        return Integer.parseInt(value.substring(0, value.indexOf('\n')));
+    }
+
+    @Test
+    public void testRawHttp2() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "https", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .useHttp2().keepAlive().build()) {
+
+            // @formatter:off
+            String request =
+                  ":authority: localhost:10001\n" //
+                + ":method: GET\n"
+                + ":path: /test\n"
+                + ":scheme: https\n"
+                + "user-agent: httpSender";
+            // @formatter:on
+
+            String appOut = runApp(request, "-h2-raw", "-h2-raw-headers-frame", "8", "-pipeline", "3");
+
+            // @formatter:off
+            String outShouldStartWith =
+                  "====================[ Protocol: HTTP_2 ]====================\n"
+                + "====================[ RESPONSE HEADERS ]====================\n"
+                + "200 OK HTTP_2\n"
+                + "content-length: 14\n"
+                + "=====================[ RESPONSE BODY ]======================\n"
+                + "TEST_TEST_TEST\n"
+                + "==========================[ RAW ]===========================\n"
+                + "TEST_TEST_TEST\n"
+                + "==========================[ END ]===========================\n"
+                + "=========================[ FRAMES ]=========================\n";
+            // @formatter:on
+            assertTrue(appOut.startsWith(outShouldStartWith), "Out should start with response and frames: " + appOut);
+            assertTrue(appOut.contains(" OUT HEADERS       stream=1 length=8 END_STREAM\n"),
+                    "Header block should be split: " + appOut);
+            assertTrue(appOut.contains(" OUT CONTINUATION  stream=1 length=6 END_HEADERS\n"),
+                    "Header block should be split: " + appOut);
+            // all the fields of the next streams are indexed in the HPACK dynamic table
+            assertTrue(appOut.contains(" OUT HEADERS       stream=3 length=5 END_STREAM|END_HEADERS\n"),
+                    "Header fields should be indexed: " + appOut);
+            assertTrue(appOut.contains(" IN  DATA          stream=5 length=0 END_STREAM\n"),
+                    "All streams should complete: " + appOut);
+            assertTrue(appOut.contains("Responses:    3 of 3\n"), "All streams should complete: " + appOut);
+        }
+    }
+
+    @Test
+    public void testPostRawHttp2() throws Exception {
+        String requestBody = "TEST_TEST_TEST\nTEST_TEST_TEST\nTEST_TEST_TEST";
+        try (TestServer server = new TestServer.Builder("POST", "https", 10001, "/test")
+                .expectedRequestBody(requestBody.getBytes(StandardCharsets.UTF_8)).useHttp2().build()) {
+
+            // @formatter:off
+            String request = withBody(
+                      ":authority: localhost:10001\n" //
+                    + ":method: POST\n"
+                    + ":path: /test\n"
+                    + ":scheme: https",
+
+                    requestBody);
+            // @formatter:on
+
+            String appOut = runApp(request, "-h2-raw", "-h2-raw-data-frame", "10");
+
+            // @formatter:off
+            String outShouldStartWith =
+                  "====================[ Protocol: HTTP_2 ]====================\n"
+                + "====================[ RESPONSE HEADERS ]====================\n"
+                + "204 No Content HTTP_2\n"
+                + "==================[ RESPONSE HAS NO BODY ]==================\n"
+                + "==========================[ RAW ]===========================\n"
+                + "\n"
+                + "==========================[ END ]===========================\n"
+                + "=========================[ FRAMES ]=========================\n";
+            // @formatter:on
+            assertTrue(appOut.startsWith(outShouldStartWith), "Out should start with response and frames: " + appOut);
+            assertEquals(4, appOut.split(" OUT DATA          stream=1 length=10\n", -1).length - 1,
+                    "Body should be split into frames: " + appOut);
+            assertTrue(appOut.contains(" OUT DATA          stream=1 length=4 END_STREAM\n"),
+                    "Body should be split into frames: " + appOut);
+        }
+    }
+
+    @Test
+    public void testH2cPriorKnowledgeHttp2() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .useHttp2().build()) {
+
+            // @formatter:off
+            String request =
+                  ":authority: localhost:10001\n" //
+                + ":method: GET\n"
+                + ":path: /test\n"
+                + ":scheme: http";
+            // @formatter:on
+
+            String appOut = runApp(request);
+
+            // @formatter:off
+            String outShouldStartWith =
+                  "====================[ Protocol: HTTP_2 ]====================\n"
+                + "====================[ RESPONSE HEADERS ]====================\n"
+                + "200 OK HTTP_2\n"
+                + "content-length: 14\n"
+                + "=====================[ RESPONSE BODY ]======================\n"
+                + "TEST_TEST_TEST\n"
+                + "==========================[ RAW ]===========================\n"
+                + "TEST_TEST_TEST\n"
+                + "==========================[ END ]===========================\n";
+            // @formatter:on
+            assertEquals(outShouldStartWith, appOut);
+        }
+    }
+
+    @Test
+    public void testRawH2cPriorKnowledgeHttp2() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .useHttp2().build()) {
+
+            // @formatter:off
+            String request =
+                  ":authority: localhost:10001\n" //
+                + ":method: GET\n"
+                + ":path: /test\n"
+                + ":scheme: http";
+            // @formatter:on
+
+            String appOut = runApp(request, "-h2-raw");
+
+            // @formatter:off
+            String outShouldStartWith =
+                  "====================[ Protocol: HTTP_2 ]====================\n"
+                + "====================[ RESPONSE HEADERS ]====================\n"
+                + "200 OK HTTP_2\n"
+                + "content-length: 14\n"
+                + "=====================[ RESPONSE BODY ]======================\n"
+                + "TEST_TEST_TEST\n"
+                + "==========================[ RAW ]===========================\n"
+                + "TEST_TEST_TEST\n"
+                + "==========================[ END ]===========================\n";
+            // @formatter:on
+            assertTrue(appOut.startsWith(outShouldStartWith), "Out should start with response: " + appOut);
+            assertTrue(appOut.contains(" IN  DATA          stream=1 length=0 END_STREAM\n"),
+                    "Response should come on stream 1: " + appOut);
+        }
+    }
+
+    @Test
+    public void testRawH2cUpgradeHttp2() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .useHttp2().keepAlive().build()) {
+
+            // @formatter:off
+            String request =
+                  ":authority: localhost:10001\n" //
+                + ":method: GET\n"
+                + ":path: /test\n"
+                + ":scheme: http";
+            // @formatter:on
+
+            String appOut = runApp(request, "-h2-raw", "-h2c-upgrade");
+
+            // @formatter:off
+            String outShouldStartWith =
+                  "====================[ Protocol: HTTP_2 ]====================\n"
+                + "====================[ RESPONSE HEADERS ]====================\n"
+                + "200 OK HTTP_2\n"
+                + "content-length: 14\n"
+                + "=====================[ RESPONSE BODY ]======================\n"
+                + "TEST_TEST_TEST\n"
+                + "==========================[ RAW ]===========================\n"
+                + "TEST_TEST_TEST\n"
+                + "==========================[ END ]===========================\n";
+            // @formatter:on
+            assertTrue(appOut.startsWith(outShouldStartWith), "Out should start with response: " + appOut);
+            assertTrue(appOut.contains(" IN  DATA          stream=1 length=0 END_STREAM\n"),
+                    "Response should come on stream 1: " + appOut);
+        }
+    }
+
+    @Test
+    public void testPipelineHttp1() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .keepAlive().build()) {
+
+            // @formatter:off
+            String request =
+                      "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001";
+            // @formatter:on
+
+            String appOut = runApp(request, "-pipeline", "3");
+
+            // @formatter:off
+            String outShouldStartWith =
+                  "====================[ Protocol: HTTP_1 ]====================\n"
+                + "====================[ SENDING REQUEST ]=====================\n"
+                + "GET /test HTTP/1.1\r\n"
+                + "Host: localhost:10001\r\n"
+                + "\r\n";
+            // @formatter:on
+
+            // responses may come before the request is written 3 times, so not checking the
+            // order here
+            assertTrue(appOut.startsWith(outShouldStartWith), "Out should start with test text");
+            assertTrue(appOut.contains("==================[ REQUEST SENT 3 TIMES ]==================\n"),
+                    "Request should be sent 3 times");
+            assertTrue(appOut.contains("================[ RESPONSE 3 OF 3 RECEIVED ]================\n"),
+                    "All responses should be printed");
+            assertTrue(appOut.contains("Responses:    3 of 3\n"), "All responses should be received");
+        }
+    }
+
+    @Test
+    public void testLoadPipelineHttp1() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .keepAlive().build()) {
+
+            // @formatter:off
+            String request =
+                      "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001";
+            // @formatter:on
+
+            String appOut = runApp(request, "-n", "12", "-c", "2", "-pipeline", "3");
+
+            assertTrue(appOut.contains("Requests:     12\nPipeline:     3\n"), "All requests should be sent");
+            assertTrue(appOut.contains("Errors:       0\n"), "There should be no errors");
+            assertTrue(appOut.contains("Status codes:\n  200: 12\n"), "All requests should succeed");
+        }
+    }
+
+    @Test
+    public void testBatchHttp1() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .keepAlive().build()) {
+
+            // @formatter:off
+            String requests =
+                      "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001\n" //
+                    + "\n" //
+                    + "### second\n" //
+                    + "\n" //
+                    + "GET /test HTTP/1.1\n" //
+                    + "Host: localhost:10001\n" //
+                    + "Connection: close\n";
+            // @formatter:on
+            Path batchFile = Files.createTempFile("requests", ".http");
+            Files.writeString(batchFile, requests);
+
+            String appOut;
+            try {
+                appOut = runApp("", "-batch", batchFile.toString());
+            } finally {
+                Files.delete(batchFile);
+            }
+
+            assertTrue(appOut.startsWith("=======================[ REQUEST #1 ]=======================\n"),
+                    "Out should start with first request");
+            assertTrue(appOut.contains("=======================[ REQUEST #2 ]=======================\n"),
+                    "Second request should be sent");
+            assertTrue(appOut.contains("=====================[ BATCH RESULTS ]======================\n" //
+                    + "Sent:         2\n" //
+                    + "Failed:       0\n"), "Both requests should be sent");
+        }
+    }
+
+    @Test
+    public void testBatchJsonLinesLoad() throws Exception {
+        try (TestServer server = new TestServer.Builder("GET", "http", 10001, "/test").responseBody("TEST_TEST_TEST")
+                .keepAlive().build()) {
+
+            // @formatter:off
+            String requests =
+                      "{\"id\": \"first\", \"request\": \"GET /test HTTP/1.1\\nHost: localhost:10001\"}\n" //
+                    + "\n" //
+                    + "{\"id\": \"second\", \"request\": \"GET /test HTTP/1.1\\nHost: localhost:10001\"}\n";
+            // @formatter:on
+            Path batchFile = Files.createTempFile("requests", ".jsonl");
+            Files.writeString(batchFile, requests);
+
+            String appOut;
+            try {
+                appOut = runApp("", "-batch", batchFile.toString(), "-n", "6", "-c", "2");
+            } finally {
+                Files.delete(batchFile);
+            }
+
+            assertTrue(appOut.contains("Requests:     6\n"), "All requests should be sent");
+            assertTrue(appOut.contains("Errors:       0\n"), "There should be no errors");
+            assertTrue(appOut.contains("Status codes:\n  200: 6\n"), "All requests should succeed");
+        }
+    }
+
+    // =========================== UTILS ======================
+
+    private String runApp(String request, String... args) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        main.setSystemStreams(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)),
+                new PrintStream(baos));
+        main.run(args);
+        return baos.toString(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
     }
 
     private static final String withBody(String headers, String body) {
@@ -0,0 +1,52 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class PhaseTimingsTest {
+
+    @Test
+    public void testNewConnection() {
+        PhaseTimings timings = new PhaseTimings();
+        timings.start = 1_000_000;
+        timings.dnsDone = 2_000_000;
+        timings.connectDone = 4_000_000;
+        timings.tlsDone = 8_000_000;
+        timings.writeDone = 8_500_000;
+        timings.firstByte = 18_500_000;
+        timings.lastByte = 20_000_000;
+
+        assertEquals(1_000_000, timings.getDns());
+        assertEquals(2_000_000, timings.getConnect());
+        assertEquals(4_000_000, timings.getTls());
+        assertEquals(500_000, timings.getWrite());
+        assertEquals(10_000_000, timings.getTtfb());
+        assertEquals(1_500_000, timings.getTransfer());
+        assertEquals(19_000_000, timings.getTotal());
+        assertEquals("{\"connection\":\"new\",\"dns_ms\":1.000,\"connect_ms\":2.000,\"tls_ms\":4.000,"
+                + "\"tls_resumed\":false,\"write_ms\":0.500,\"ttfb_ms\":10.000,\"transfer_ms\":1.500,"
+                + "\"total_ms\":19.000}", timings.toJson());
+    }
+
+    @Test
+    public void testReusedConnection() {
+        PhaseTimings timings = new PhaseTimings();
+        timings.reused = true;
+        timings.start = 1_000_000;
+        timings.writeDone = 1_500_000;
+        timings.lastByte = 3_000_000;
+
+        assertEquals(-1, timings.getDns());
+        assertEquals(-1, timings.getConnect());
+        assertEquals(-1, timings.getTls());
+        assertEquals(500_000, timings.getWrite());
+        assertEquals(-1, timings.getTtfb());
+        assertEquals(-1, timings.getTransfer());
+        assertEquals(2_000_000, timings.getTotal());
+        assertEquals("{\"connection\":\"reused\",\"dns_ms\":null,\"connect_ms\":null,\"tls_ms\":null,"
+                + "\"tls_resumed\":null,\"write_ms\":0.500,\"ttfb_ms\":null,\"transfer_ms\":null,"
+                + "\"total_ms\":2.000}", timings.toJson());
+    }
+
+}
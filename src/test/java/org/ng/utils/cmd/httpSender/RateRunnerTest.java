@@ -0,0 +1,83 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class RateRunnerTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testConstantSchedule() throws Exception {
+        RateRunner.Schedule schedule = RateRunner.Schedule.constant(RateRunner.Schedule.parseRate("1000/s"), 10,
+                "1000/s");
+
+        assertEquals(10, schedule.requests());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i * MS, schedule.startNanos(i), 1000);
+        }
+        assertEquals(0.5, RateRunner.Schedule.parseRate("30/m"), 1e-9);
+    }
+
+    @Test
+    public void testStages() throws Exception {
+        // 50 requests while ramping up, 100 at the same rate, 50 while ramping down
+        RateRunner.Schedule schedule = RateRunner.Schedule.parse("1s:0-100,1000ms:100,1s:100-0");
+
+        assertEquals(200, schedule.requests());
+        assertEquals(0, schedule.startNanos(0));
+        // 50 * t^2 = 2
+        assertEquals(0.2e9, schedule.startNanos(2), 1000);
+        assertEquals(1e9, schedule.startNanos(50), 1000);
+        assertEquals(1.5e9, schedule.startNanos(100), 1000);
+        // 100 * t - 50 * t^2 = 49
+        assertEquals((2 + 1 - Math.sqrt(0.02)) * 1e9, schedule.startNanos(199), 1000);
+        // the share of one of four workers
+        RateRunner.Schedule share = RateRunner.Schedule.parse(schedule.scaledSpec(0.25));
+        assertEquals(50, share.requests());
+        assertEquals(1.5e9, share.startNanos(25), 1000);
+        // small shares are written without an exponent
+        String small = RateRunner.Schedule.parse("10s:0.01-0.001").scaledSpec(0.01);
+        assertEquals("10000ms:0.0001-0.00001", small);
+        assertEquals(0, RateRunner.Schedule.parse(small).requests());
+
+        assertThrows(IllegalArgumentException.class, () -> RateRunner.Schedule.parse("10:100"));
+        assertThrows(IllegalArgumentException.class, () -> RateRunner.Schedule.parse("10s"));
+        assertThrows(IllegalArgumentException.class, () -> RateRunner.Schedule.parse("10s:-5"));
+    }
+
+    @Test
+    public void testLatencyFromDueTime() throws Exception {
+        // the server stalls on the first request for 100 ms, all the others are due meanwhile
+        AtomicInteger sent = new AtomicInteger();
+        RateRunner runner = new RateRunner(RateRunner.Schedule.constant(1000, 50, "1000/s"), 50, 1, count -> {
+            long start = System.nanoTime();
+            if (sent.getAndIncrement() == 0) {
+                Thread.sleep(100);
+            }
+            ExchangeResult result = new ExchangeResult();
+            result.statusCode = 200;
+            result.latencyNanos = System.nanoTime() - start;
+            return List.of(result);
+        }, LoadRunner.WORKER_THREADS, null);
+
+        LoadRunner.Stats stats = runner.run();
+
+        assertEquals(50, stats.requests);
+        assertEquals(Map.of(200, 50L), stats.statusCodes);
+        assertTrue(stats.late >= 40, "Requests should start late: " + stats.late);
+        assertTrue(stats.startLag.getMax() >= 90 * MS, "Lag: " + stats.startLag.getMax());
+        // a closed loop would report a single slow request
+        assertTrue(stats.latency.getValueAtPercentile(50) >= 40 * MS, "Latency should include the stall");
+        assertTrue(stats.serviceTime.getValueAtPercentile(50) < 20 * MS, "Service time should not");
+    }
+
+}
@@ -0,0 +1,154 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ResultsLogTest {
+
+    private Path dir;
+
+    @BeforeEach
+    public void createDir() throws Exception {
+        dir = Files.createTempDirectory("results");
+    }
+
+    @AfterEach
+    public void deleteDir() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testCsv() throws Exception {
+        Path file = dir.resolve("results.csv");
+        long before = System.currentTimeMillis() * 1000;
+        try (ResultsLog log = new ResultsLog(file, null, TimeUnit.SECONDS.toNanos(1), 100)) {
+            log.completed(result(200, 5_000_000), 6_000_000);
+            log.failed("java.net.ConnectException", 2);
+        }
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(4, lines.size());
+        assertEquals(ResultsLog.CSV_HEADER, lines.get(0));
+        String[] record = lines.get(1).split(",", -1);
+        assertEquals(14, record.length);
+        assertTrue(Long.parseLong(record[0]) >= before - 10_000_000, "Start should be epoch time: " + record[0]);
+        assertEquals(List.of("reused", "", "", "", "1000", "3000", "1000", "5000", "6000", "200", "10", "20", ""),
+                List.of(record).subList(1, 14));
+        assertTrue(lines.get(2).endsWith(",,,,,,,,,,,,,java.net.ConnectException"), lines.get(2));
+        // one record for every failed request
+        assertTrue(lines.get(3).endsWith(",,,,,,,,,,,,,java.net.ConnectException"), lines.get(3));
+    }
+
+    @Test
+    public void testBinary() throws Exception {
+        Path file = dir.resolve("results.bin");
+        try (ResultsLog log = new ResultsLog(file, null, TimeUnit.SECONDS.toNanos(1), 100)) {
+            log.completed(result(404, 5_000_000), 6_000_000);
+            log.failed("java.io.EOFException", 1);
+        }
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            assertEquals(ResultsLog.BINARY_MAGIC, in.readInt());
+            assertTrue(in.readLong() > 0);
+            int[] timings = new int[8];
+            for (int i = 0; i < timings.length; i++) {
+                timings[i] = in.readInt();
+            }
+            assertEquals(List.of(-1, -1, -1, 1000, 3000, 1000, 5000, 6000),
+                    List.of(timings[0], timings[1], timings[2], timings[3], timings[4], timings[5], timings[6],
+                            timings[7]));
+            assertEquals(404, in.readShort());
+            assertEquals(1, in.readByte());
+            assertEquals(10, in.readLong());
+            assertEquals(20, in.readLong());
+            assertEquals("", in.readUTF());
+
+            in.readLong();
+            for (int i = 0; i < 8; i++) {
+                assertEquals(-1, in.readInt());
+            }
+            assertEquals(-1, in.readShort());
+            assertEquals(0, in.readByte());
+            assertEquals(-1, in.readLong());
+            assertEquals(-1, in.readLong());
+            assertEquals("java.io.EOFException", in.readUTF());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testHistogramIntervals() throws Exception {
+        Path file = dir.resolve("histogram.csv");
+        try (ResultsLog log = new ResultsLog(null, file, TimeUnit.MILLISECONDS.toNanos(100), 100)) {
+            for (int i = 1; i <= 10; i++) {
+                log.completed(result(200, i * 1_000_000), i * 1_000_000);
+            }
+            // an interval without responses
+            Thread.sleep(250);
+            log.completed(result(200, 50_000_000), 50_000_000);
+        }
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertTrue(lines.get(0).startsWith("# start "), lines.get(0));
+        assertEquals(ResultsLog.HISTOGRAM_HEADER, lines.get(1));
+        LatencyHistogram merged = new LatencyHistogram();
+        int empty = 0;
+        for (String line : lines.subList(2, lines.size())) {
+            String[] values = line.split(",");
+            LatencyHistogram interval = LatencyHistogram.decode(values[6]);
+            assertEquals(Long.parseLong(values[2]), interval.getTotalCount());
+            empty += interval.getTotalCount() == 0 ? 1 : 0;
+            merged.add(interval);
+        }
+        assertTrue(lines.size() >= 5, "Every interval should be logged: " + lines);
+        assertTrue(empty >= 1, "Intervals without responses should be logged: " + lines);
+        assertEquals(11, merged.getTotalCount());
+        assertEquals(50_000_000, merged.getMax());
+    }
+
+    @Test
+    public void testFullQueueDropsRecords() throws Exception {
+        Path file = dir.resolve("results.csv");
+        long dropped;
+        try (ResultsLog log = new ResultsLog(file, null, TimeUnit.SECONDS.toNanos(1), 1)) {
+            log.failed("java.io.IOException", 100_000);
+            dropped = log.getDropped();
+        }
+
+        assertTrue(dropped > 0, "Records should be dropped instead of blocking");
+        assertEquals(100_000 - dropped + 1, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+    }
+
+    private static ExchangeResult result(int status, long totalNanos) {
+        ExchangeResult result = new ExchangeResult();
+        result.statusCode = status;
+        result.bytesOut = 10;
+        result.bytesIn = 20;
+        result.timings = new PhaseTimings();
+        result.timings.reused = true;
+        long now = System.nanoTime();
+        result.timings.start = now - totalNanos;
+        result.timings.writeDone = result.timings.start + 1_000_000;
+        result.timings.firstByte = result.timings.writeDone + 3_000_000;
+        result.timings.lastByte = now;
+        return result;
+    }
+
+}
@@ -0,0 +1,100 @@
+package org.ng.utils.cmd.httpSender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+public class TemplateTest {
+
+    @Test
+    public void testSeqAndLiterals() throws Exception {
+        Template template = compile("GET /items/${seq}?x=${seq}&cost=${0 HTTP/1.1 ${other} $${seq}", null);
+
+        assertFalse(template.isConstant());
+        assertEquals("GET /items/1?x=1&cost=${0 HTTP/1.1 ${other} $1", render(template, 1));
+        assertEquals("GET /items/1234567890123?x=1234567890123&cost=${0 HTTP/1.1 ${other} $1234567890123",
+                render(template, 1234567890123L));
+    }
+
+    @Test
+    public void testConstant() throws Exception {
+        Template template = compile("GET / HTTP/1.1\r\nHost: ${host\r\n\r\n", null);
+
+        assertTrue(template.isConstant());
+        assertEquals("GET / HTTP/1.1\r\nHost: ${host\r\n\r\n", render(template, 7));
+    }
+
+    @Test
+    public void testUuidAndRandom() throws Exception {
+        Template template = compile("${uuid} ${random}", null);
+
+        String first = render(template, 1);
+        String second = render(template, 1);
+        assertNotEquals(first, second);
+        String[] parts = first.split(" ");
+        assertTrue(parts[0].matches("[0-9a-f]{8}-[0-9a-f]{4}-4[0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}"), parts[0]);
+        assertTrue(Long.parseLong(parts[1]) >= 0);
+    }
+
+    @Test
+    public void testFeederColumns() throws Exception {
+        Path file = Files.createTempFile("feeder", ".csv");
+        try {
+            Files.writeString(file, "user,token\nalice,t1\nbob,t2\n");
+            Feeder feeder = Feeder.load(file, StandardCharsets.UTF_8);
+            Template template = compile("/${user}/${token}/${seq}", feeder);
+
+            assertEquals("/alice/t1/1", render(template, 1));
+            assertEquals("/bob/t2/2", render(template, 2));
+            // rows wrap around
+            assertEquals("/alice/t1/3", render(template, 3));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testBodyLength() throws Exception {
+        Template head = compile("POST / HTTP/1.1\r\nContent-Length: " + Template.BODY_LENGTH + "\r\n\r\n", null);
+        Template body = compile("{\"seq\":${seq}}", null);
+        Http1Template request = new Http1Template(head, body);
+
+        assertNull(request.getConstant());
+        Template.Output out = new Template.Output();
+        request.render(42, out, new Template.Output());
+        assertEquals("POST / HTTP/1.1\r\nContent-Length: 10\r\n\r\n{\"seq\":42}",
+                StandardCharsets.UTF_8.decode(out.buffer()).toString());
+    }
+
+    @Test
+    public void testConstantRequest() throws Exception {
+        Template head = compile("POST / HTTP/1.1\r\nContent-Length: 2\r\n\r\n", null);
+        Http1Template request = new Http1Template(head, compile("{}", null));
+
+        ByteBuffer constant = request.getConstant();
+        assertEquals("POST / HTTP/1.1\r\nContent-Length: 2\r\n\r\n{}",
+                StandardCharsets.UTF_8.decode(constant).toString());
+        // every caller gets its own position
+        assertEquals(constant.limit(), request.getConstant().remaining());
+    }
+
+    private static Template compile(String text, Feeder feeder) {
+        return Template.compile(text.getBytes(StandardCharsets.UTF_8), feeder);
+    }
+
+    private static String render(Template template, long seq) {
+        Template.Output out = new Template.Output();
+        template.render(seq, -1, out);
+        return StandardCharsets.UTF_8.decode(out.buffer()).toString();
+    }
+
+}
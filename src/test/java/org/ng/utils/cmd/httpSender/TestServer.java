@@ -2,10 +2,13 @@ package org.ng.utils.cmd.httpSender;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.channels.ClosedChannelException;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import javax.net.ssl.SSLException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,7 +31,8 @@ public final class TestServer implements AutoCloseable {
     public volatile Throwable exceptionThrown;
 
     private TestServer(String method, String scheme, int port, String path, byte[] expectedRequestBody, boolean useTls,
-            boolean useHttp2, String responseContentType, String responseBody, boolean chunkedResponse) {
+            boolean useHttp2, String responseContentType, String responseBody, boolean chunkedResponse,
+            boolean keepAlive) {
         Vertx vertx = Vertx.vertx();
         HttpServerOptions options = new HttpServerOptions().setCompressionSupported(true).setUseAlpn(true);
         if (useHttp2) {
@@ -36,7 +40,8 @@ public final class TestServer implements AutoCloseable {
         } else {
             options.setAlpnVersions(List.of(HttpVersion.HTTP_1_1));
         }
-        if (useTls || useHttp2) {
+        // HTTP/2 over clear text (h2c) is accepted by the server along with HTTP/1
+        if (useTls || (useHttp2 && "https".equals(scheme))) {
             SelfSignedCertificate cert = SelfSignedCertificate.create("localhost");
             options.setSsl(true).setKeyCertOptions(cert.keyCertOptions());
         }
@@ -50,7 +55,7 @@ public final class TestServer implements AutoCloseable {
                     assertEquals(scheme, req.scheme(), "Scheme should match");
                     assertEquals(path, req.path(), "Path should match");
                     if (useHttp2) {
-                        assertTrue(req.isSSL(), "Request should use TLS for HTTP/2");
+                        assertEquals("https".equals(scheme), req.isSSL(), "Request should use TLS for https");
                         assertEquals(HttpVersion.HTTP_2, req.version(), "Request protocol should match");
                     } else {
                         assertEquals(useTls, req.isSSL(), "Requested connection security must match expected one");
@@ -66,12 +71,25 @@ public final class TestServer implements AutoCloseable {
                         if (!chunkedResponse) {
                             res.putHeader(HttpHeaders.CONTENT_LENGTH, Integer.toString(responseBytes.length));
                         }
-                        res.writeAndAwait(Buffer.buffer(responseBytes));
                     } else {
                         res.setStatusCode(204);
                     }
-                    res.endAndAwait();
-                    res.close();
+                    try {
+                        if (responseBody != null) {
+                            res.writeAndAwait(Buffer.buffer(responseBody.getBytes(StandardCharsets.UTF_8)));
+                        }
+                        res.endAndAwait();
+                    } catch (CompletionException e) {
+                        // client may close the connection as soon as it got Content-Length bytes, or
+                        // send next request on the connection being closed by the server, over TLS the
+                        // engine is closed then
+                        if (!(e.getCause() instanceof ClosedChannelException || e.getCause() instanceof SSLException)) {
+                            throw e;
+                        }
+                    }
+                    if (!keepAlive) {
+                        res.close();
+                    }
                 }).subscribe().with(res -> {
                     System.out.println("ZZZ");
                 }, e -> TestServer.this.handleExceptionCaught(e));
@@ -109,6 +127,7 @@ public final class TestServer implements AutoCloseable {
         private String responseContentType;
         private String responseBody;
         private boolean chunkedResponse;
+        private boolean keepAlive;
 
         public Builder(String method, String scheme, int port, String path) {
             this.method = method;
@@ -147,9 +166,14 @@ public final class TestServer implements AutoCloseable {
             return this;
         }
 
+        public Builder keepAlive() {
+            this.keepAlive = true;
+            return this;
+        }
+
         public TestServer build() {
             return new TestServer(method, scheme, port, path, expectedRequestBody, useTls, useHttp2,
-                    responseContentType, responseBody, chunkedResponse);
+                    responseContentType, responseBody, chunkedResponse, keepAlive);
         }
     }
 